@@ -0,0 +1,260 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.util.Arrays;
+
+/**
+ * Table driven codec for packed 7-bit ASCII and IS-91 6-bit characters.
+ * (See 3GPP2 C.S0015-B, v2.0, table 4.5.2-1, and IS 637 B, table 4.3.1.4.1-1)
+ *
+ * Characters are packed MSB first.  Septets are unpacked eight at a time
+ * from a 64-bit window of the data, which need not start on a byte
+ * boundary, and sextets four at a time from each three bytes.  Every code
+ * is mapped through a char table derived from {@link UserData#ASCII_MAP}
+ * straight into a char array, so the String is only built once.
+ *
+ * For encoding, a dense 128 entry table gives the code of each character.
+ * Strings are validated in one scan and then packed eight characters to
+ * each seven bytes, straight into the output array.
+ */
+public final class AsciiCodec {
+
+    // Character of each 7-bit code: printable ASCII, NL and CR as is, SPACE
+    // for the other unprintable codes.
+    private static final char[] SEPTET_TO_CHAR = new char[128];
+
+    // Character of each IS-91 6-bit code.
+    private static final char[] SEXTET_TO_CHAR = new char[64];
+
+    // 7-bit code of each character below 128, -1 for characters with none.
+    private static final byte[] CHAR_TO_SEPTET = new byte[128];
+
+    // As CHAR_TO_SEPTET, with UserData.UNENCODABLE_7_BIT_CHAR for characters with none.
+    private static final byte[] CHAR_TO_SEPTET_FORCED = new byte[128];
+
+    static {
+        for (int code = 0; code < SEPTET_TO_CHAR.length; code++) {
+            if ((code >= UserData.ASCII_MAP_BASE_INDEX) && (code <= UserData.ASCII_MAP_MAX_INDEX)) {
+                SEPTET_TO_CHAR[code] = UserData.ASCII_MAP[code - UserData.ASCII_MAP_BASE_INDEX];
+            } else if (code == UserData.ASCII_NL_INDEX) {
+                SEPTET_TO_CHAR[code] = '\n';
+            } else if (code == UserData.ASCII_CR_INDEX) {
+                SEPTET_TO_CHAR[code] = '\r';
+            } else {
+                SEPTET_TO_CHAR[code] = ' ';
+            }
+        }
+        System.arraycopy(UserData.ASCII_MAP, 0, SEXTET_TO_CHAR, 0, SEXTET_TO_CHAR.length);
+
+        Arrays.fill(CHAR_TO_SEPTET, (byte) -1);
+        for (int i = 0; i < UserData.ASCII_MAP.length; i++) {
+            CHAR_TO_SEPTET[UserData.ASCII_MAP[i]] = (byte) (UserData.PRINTABLE_ASCII_MIN_INDEX + i);
+        }
+        CHAR_TO_SEPTET['\n'] = UserData.ASCII_NL_INDEX;
+        CHAR_TO_SEPTET['\r'] = UserData.ASCII_CR_INDEX;
+        for (int c = 0; c < CHAR_TO_SEPTET.length; c++) {
+            CHAR_TO_SEPTET_FORCED[c] = CHAR_TO_SEPTET[c] >= 0
+                    ? CHAR_TO_SEPTET[c] : UserData.UNENCODABLE_7_BIT_CHAR;
+        }
+    }
+
+    private AsciiCodec() {
+    }
+
+    /**
+     * Decode packed 7-bit ASCII characters.
+     *
+     * @param data the packed characters
+     * @param bitOffset offset of the first character, in bits from the msb of byte 0
+     * @param count number of characters
+     * @throws IndexOutOfBoundsException if the data holds fewer characters
+     */
+    public static String decode7bit(byte[] data, int bitOffset, int count) {
+        char[] chars = new char[Math.max(count, 0)];
+        unpack7bit(data, bitOffset, chars, 0, count);
+        return new String(chars);
+    }
+
+    /**
+     * Unpack 7-bit ASCII characters into a char array.
+     *
+     * @param data the packed characters
+     * @param bitOffset offset of the first character, in bits from the msb of byte 0
+     * @param dst the array to store characters in
+     * @param dstOffset index of the first character in dst
+     * @param count number of characters
+     * @throws IndexOutOfBoundsException if the data holds fewer characters
+     */
+    public static void unpack7bit(byte[] data, int bitOffset, char[] dst, int dstOffset,
+            int count) {
+        if (bitOffset < 0 || count < 0 || ((long) bitOffset + 7L * count + 7) >>> 3 > data.length
+                || dstOffset < 0 || dstOffset + count > dst.length) {
+            throw new IndexOutOfBoundsException("7bit unpack of " + count + " characters at bit "
+                    + bitOffset + " from " + data.length + " bytes");
+        }
+        char[] table = SEPTET_TO_CHAR;
+        int pos = bitOffset;
+        int out = dstOffset;
+        int end = dstOffset + count;
+        // Eight septets at a time, from the 64 bits around them.
+        while (end - out >= 8 && (pos >>> 3) + 8 <= data.length) {
+            long window = getLong(data, pos >>> 3) << (pos & 0x07);
+            dst[out] = table[(int) (window >>> 57)];
+            dst[out + 1] = table[(int) (window >>> 50) & 0x7F];
+            dst[out + 2] = table[(int) (window >>> 43) & 0x7F];
+            dst[out + 3] = table[(int) (window >>> 36) & 0x7F];
+            dst[out + 4] = table[(int) (window >>> 29) & 0x7F];
+            dst[out + 5] = table[(int) (window >>> 22) & 0x7F];
+            dst[out + 6] = table[(int) (window >>> 15) & 0x7F];
+            dst[out + 7] = table[(int) (window >>> 8) & 0x7F];
+            out += 8;
+            pos += 56;
+        }
+        for (; out < end; out++, pos += 7) {
+            int index = pos >>> 3;
+            int bits = (data[index] & 0xFF) << 8;
+            if (index + 1 < data.length) bits |= data[index + 1] & 0xFF;
+            dst[out] = table[(bits >>> (9 - (pos & 0x07))) & 0x7F];
+        }
+    }
+
+    /**
+     * Decode IS-91 6-bit characters, packed from the msb of byte 0.
+     *
+     * @throws IndexOutOfBoundsException if the data holds fewer characters
+     */
+    public static String decode6bit(byte[] data, int count) {
+        char[] chars = new char[Math.max(count, 0)];
+        unpack6bit(data, chars, 0, count);
+        return new String(chars);
+    }
+
+    /**
+     * Unpack IS-91 6-bit characters, packed from the msb of byte 0, into a
+     * char array.
+     *
+     * @throws IndexOutOfBoundsException if the data holds fewer characters
+     */
+    public static void unpack6bit(byte[] data, char[] dst, int dstOffset, int count) {
+        if (count < 0 || (6L * count + 7) >>> 3 > data.length
+                || dstOffset < 0 || dstOffset + count > dst.length) {
+            throw new IndexOutOfBoundsException("6bit unpack of " + count + " characters from "
+                    + data.length + " bytes");
+        }
+        char[] table = SEXTET_TO_CHAR;
+        int in = 0;
+        int out = dstOffset;
+        int end = dstOffset + count;
+        // Four sextets from each three bytes.
+        while (end - out >= 4) {
+            int bits = ((data[in] & 0xFF) << 16) | ((data[in + 1] & 0xFF) << 8)
+                    | (data[in + 2] & 0xFF);
+            dst[out] = table[bits >>> 18];
+            dst[out + 1] = table[(bits >>> 12) & 0x3F];
+            dst[out + 2] = table[(bits >>> 6) & 0x3F];
+            dst[out + 3] = table[bits & 0x3F];
+            in += 3;
+            out += 4;
+        }
+        for (int pos = in << 3; out < end; out++, pos += 6) {
+            int index = pos >>> 3;
+            int bits = (data[index] & 0xFF) << 8;
+            if (index + 1 < data.length) bits |= data[index + 1] & 0xFF;
+            dst[out] = table[(bits >>> (10 - (pos & 0x07))) & 0x3F];
+        }
+    }
+
+    /**
+     * Returns the 7-bit code of a character, or -1 if it has none.
+     */
+    public static int toSeptet(char c) {
+        return c < CHAR_TO_SEPTET.length ? CHAR_TO_SEPTET[c] : -1;
+    }
+
+    /**
+     * Returns the index of the first character without a 7-bit code, or -1
+     * if all of them have one.
+     */
+    public static int indexOfUnencodable(CharSequence msg) {
+        byte[] table = CHAR_TO_SEPTET;
+        for (int i = 0, len = msg.length(); i < len; i++) {
+            char c = msg.charAt(i);
+            if (c >= table.length || table[c] < 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of bytes {@link #pack7bit} writes for a number of
+     * characters.
+     */
+    public static int packedLength(int paddingBits, int count) {
+        return (paddingBits + count * 7 + 7) >>> 3;
+    }
+
+    /**
+     * Pack characters as 7-bit codes, preceded by zero padding bits.
+     * Characters without a code are packed as
+     * {@link UserData#UNENCODABLE_7_BIT_CHAR}; use
+     * {@link #indexOfUnencodable} to check for them first.  The last byte
+     * is zero padded.
+     *
+     * @param msg the characters
+     * @param paddingBits number of zero bits before the first character, 0 to 7
+     * @param dst the array to write {@link #packedLength} bytes to
+     * @param dstOffset index of the first byte in dst
+     * @return the number of bytes written
+     */
+    public static int pack7bit(CharSequence msg, int paddingBits, byte[] dst, int dstOffset) {
+        byte[] table = CHAR_TO_SEPTET_FORCED;
+        int len = msg.length();
+        int out = dstOffset;
+        // The low accBits bits of acc are not yet written.
+        long acc = 0;
+        int accBits = paddingBits;
+        int i = 0;
+        // Eight characters at a time, into seven bytes.
+        for (int end = len & ~0x07; i < end; i += 8) {
+            long septets = 0;
+            for (int j = i; j < i + 8; j++) {
+                char c = msg.charAt(j);
+                septets = (septets << 7) | (c < 128 ? table[c] : UserData.UNENCODABLE_7_BIT_CHAR);
+            }
+            acc = (acc << 56) | septets;
+            int shift = accBits + 48;
+            dst[out] = (byte) (acc >>> shift);
+            dst[out + 1] = (byte) (acc >>> (shift - 8));
+            dst[out + 2] = (byte) (acc >>> (shift - 16));
+            dst[out + 3] = (byte) (acc >>> (shift - 24));
+            dst[out + 4] = (byte) (acc >>> (shift - 32));
+            dst[out + 5] = (byte) (acc >>> (shift - 40));
+            dst[out + 6] = (byte) (acc >>> (shift - 48));
+            out += 7;
+            acc &= (1L << accBits) - 1;
+        }
+        for (; i < len; i++) {
+            char c = msg.charAt(i);
+            acc = (acc << 7) | (c < 128 ? table[c] : UserData.UNENCODABLE_7_BIT_CHAR);
+            accBits += 7;
+            if (accBits >= 8) {
+                accBits -= 8;
+                dst[out++] = (byte) (acc >>> accBits);
+                acc &= (1L << accBits) - 1;
+            }
+        }
+        if (accBits > 0) {
+            dst[out++] = (byte) (acc << (8 - accBits));
+        }
+        return out - dstOffset;
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        return ((long) data[offset] << 56)
+                | ((long) (data[offset + 1] & 0xFF) << 48)
+                | ((long) (data[offset + 2] & 0xFF) << 40)
+                | ((long) (data[offset + 3] & 0xFF) << 32)
+                | ((long) (data[offset + 4] & 0xFF) << 24)
+                | ((data[offset + 5] & 0xFF) << 16)
+                | ((data[offset + 6] & 0xFF) << 8)
+                | (data[offset + 7] & 0xFF);
+    }
+}
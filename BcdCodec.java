@@ -0,0 +1,179 @@
+package com.quectel.jnitestexec.cdma2;
+
+/**
+ * Table driven BCD codec for both nibble orders.
+ *
+ * GSM style (TBCD) bytes hold the first digit in the low nibble, CDMA
+ * style bytes in the high nibble.  Every byte value is looked up in 256
+ * entry tables, for its two digit characters or its 0-99 value, instead of
+ * being taken apart nibble by nibble.  Digits are decoded into a char array
+ * or StringBuilder and encoded into a byte array given by the caller.
+ */
+public final class BcdCodec {
+
+    private static final String HEX_DIGITS = "0123456789ABCDEF";
+
+    // Two characters per byte value, low nibble first; nibbles above 9 as hex.
+    private static final char[] LOW_FIRST_CHARS = new char[512];
+
+    // Two characters per byte value, low nibble first; nibbles above 9 as '0'.
+    private static final char[] LOW_FIRST_DIGITS = new char[512];
+
+    // Value of each byte, out of range nibbles counting as 0.
+    private static final byte[] GSM_VALUES = new byte[256];
+    private static final byte[] CDMA_VALUES = new byte[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            int low = b & 0x0F;
+            int high = b >>> 4;
+            LOW_FIRST_CHARS[b << 1] = HEX_DIGITS.charAt(low);
+            LOW_FIRST_CHARS[(b << 1) + 1] = HEX_DIGITS.charAt(high);
+            LOW_FIRST_DIGITS[b << 1] = low > 9 ? '0' : HEX_DIGITS.charAt(low);
+            LOW_FIRST_DIGITS[(b << 1) + 1] = high > 9 ? '0' : HEX_DIGITS.charAt(high);
+            int lowValue = low > 9 ? 0 : low;
+            int highValue = high > 9 ? 0 : high;
+            GSM_VALUES[b] = (byte) (lowValue * 10 + highValue);
+            CDMA_VALUES[b] = (byte) (highValue * 10 + lowValue);
+        }
+    }
+
+    private BcdCodec() {
+    }
+
+    /**
+     * Decode a GSM style BCD byte, least significant digit in the most
+     * significant nibble, into 0-99.  Out of range digits count as 0.
+     */
+    public static int gsmByteToInt(byte b) {
+        return GSM_VALUES[b & 0xFF];
+    }
+
+    /**
+     * Decode a CDMA style BCD byte, least significant digit in the least
+     * significant nibble, into 0-99.  Out of range digits count as 0.
+     */
+    public static int cdmaByteToInt(byte b) {
+        return CDMA_VALUES[b & 0xFF];
+    }
+
+    /**
+     * Encode 0-99 as a GSM style BCD byte.
+     */
+    public static byte intToGsmByte(int value) {
+        return (byte) (((value % 10) << 4) | (value / 10 % 10));
+    }
+
+    /**
+     * Encode 0-99 as a CDMA style BCD byte.
+     */
+    public static byte intToCdmaByte(int value) {
+        return (byte) (((value / 10 % 10) << 4) | (value % 10));
+    }
+
+    /**
+     * Decode nibble-swizzled BCD, as stored in GSM SIM fields.  Stops at
+     * the first invalid digit; a high nibble of 0xF is skipped.
+     *
+     * @param dst receives up to 2 * length digits, starting at dstOffset
+     * @return the number of digits written
+     */
+    public static int decodeBcd(byte[] data, int offset, int length, char[] dst, int dstOffset) {
+        int j = dstOffset;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int index = (data[i] & 0xFF) << 1;
+            char low = LOW_FIRST_CHARS[index];
+            if (low > '9') break;
+            dst[j++] = low;
+            char high = LOW_FIRST_CHARS[index + 1];
+            // Some PLMNs have 'f' as high nibble, ignore it
+            if (high == 'F') continue;
+            if (high > '9') break;
+            dst[j++] = high;
+        }
+        return j - dstOffset;
+    }
+
+    /**
+     * Same as {@link #decodeBcd(byte[], int, int, char[], int)}, appending
+     * to a StringBuilder.
+     */
+    public static StringBuilder decodeBcd(byte[] data, int offset, int length,
+            StringBuilder dst) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int index = (data[i] & 0xFF) << 1;
+            char low = LOW_FIRST_CHARS[index];
+            if (low > '9') break;
+            dst.append(low);
+            char high = LOW_FIRST_CHARS[index + 1];
+            if (high == 'F') continue;
+            if (high > '9') break;
+            dst.append(high);
+        }
+        return dst;
+    }
+
+    /**
+     * Decode nibble-swizzled BCH, such as an ICC ID: every nibble becomes a
+     * hex digit, low nibble first.
+     *
+     * @param dst receives 2 * length digits, starting at dstOffset
+     * @return the number of digits written
+     */
+    public static int decodeBch(byte[] data, int offset, int length, char[] dst, int dstOffset) {
+        int j = dstOffset;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int index = (data[i] & 0xFF) << 1;
+            dst[j++] = LOW_FIRST_CHARS[index];
+            dst[j++] = LOW_FIRST_CHARS[index + 1];
+        }
+        return j - dstOffset;
+    }
+
+    /**
+     * Decode CDMA BCD digits, low nibble first, with out of range digits
+     * decoded as '0'.
+     *
+     * @param numDigits the number of digits, which may be odd
+     * @param dst receives numDigits digits, starting at dstOffset
+     */
+    public static void decodeCdmaBcd(byte[] data, int offset, int numDigits, char[] dst,
+            int dstOffset) {
+        int j = dstOffset;
+        int i = offset;
+        for (int pairs = numDigits >> 1; pairs > 0; pairs--) {
+            int index = (data[i++] & 0xFF) << 1;
+            dst[j++] = LOW_FIRST_DIGITS[index];
+            dst[j++] = LOW_FIRST_DIGITS[index + 1];
+        }
+        if ((numDigits & 1) != 0) {
+            dst[j] = LOW_FIRST_DIGITS[(data[i] & 0xFF) << 1];
+        }
+    }
+
+    /**
+     * Encode digits as nibble-swizzled BCD, first digit in the low nibble.
+     * Hex digits are encoded as such, other characters as 0, and an odd
+     * number of digits is padded with 0.
+     *
+     * @param dst receives (end - start + 1) / 2 bytes, starting at dstOffset
+     * @return the number of bytes written
+     */
+    public static int encodeBcd(CharSequence digits, int start, int end, byte[] dst,
+            int dstOffset) {
+        int j = dstOffset;
+        int i = start;
+        for (; i + 1 < end; i += 2) {
+            dst[j++] = (byte) ((nibble(digits.charAt(i + 1)) << 4) | nibble(digits.charAt(i)));
+        }
+        if (i < end) {
+            dst[j++] = (byte) nibble(digits.charAt(i));
+        }
+        return j - dstOffset;
+    }
+
+    private static int nibble(char c) {
+        int v = HexCodec.digitValue(c);
+        return v < 0 ? 0 : v;
+    }
+}
@@ -18,12 +18,9 @@ package com.quectel.jnitestexec.cdma2;
 
 
 
-import android.text.format.Time;
 import android.util.Log;
 
-
 import java.util.ArrayList;
-import java.util.TimeZone;
 
 /**
  * An object to encode and decode CDMA SMS bearer data.
@@ -31,38 +28,49 @@ import java.util.TimeZone;
 public final class BearerData {
     private final static String LOG_TAG = "BearerData";
 
+    /**
+     * Stream reused by each thread for encoding bearer data.
+     */
+    private static final ThreadLocal<BitwiseOutputStream> sBearerDataStream =
+            new ThreadLocal<BitwiseOutputStream>() {
+                @Override
+                protected BitwiseOutputStream initialValue() {
+                    return new BitwiseOutputStream(200);
+                }
+            };
+
     /**
      * Bearer Data Subparameter Identifiers
      * (See 3GPP2 C.S0015-B, v2.0, table 4.5-1)
      * NOTE: Commented subparameter types are not implemented.
      */
-    private final static byte SUBPARAM_MESSAGE_IDENTIFIER               = 0x00;
-    private final static byte SUBPARAM_USER_DATA                        = 0x01;
-    private final static byte SUBPARAM_USER_RESPONSE_CODE               = 0x02;
-    private final static byte SUBPARAM_MESSAGE_CENTER_TIME_STAMP        = 0x03;
-    private final static byte SUBPARAM_VALIDITY_PERIOD_ABSOLUTE         = 0x04;
-    private final static byte SUBPARAM_VALIDITY_PERIOD_RELATIVE         = 0x05;
-    private final static byte SUBPARAM_DEFERRED_DELIVERY_TIME_ABSOLUTE  = 0x06;
-    private final static byte SUBPARAM_DEFERRED_DELIVERY_TIME_RELATIVE  = 0x07;
-    private final static byte SUBPARAM_PRIORITY_INDICATOR               = 0x08;
-    private final static byte SUBPARAM_PRIVACY_INDICATOR                = 0x09;
-    private final static byte SUBPARAM_REPLY_OPTION                     = 0x0A;
-    private final static byte SUBPARAM_NUMBER_OF_MESSAGES               = 0x0B;
-    private final static byte SUBPARAM_ALERT_ON_MESSAGE_DELIVERY        = 0x0C;
-    private final static byte SUBPARAM_LANGUAGE_INDICATOR               = 0x0D;
-    private final static byte SUBPARAM_CALLBACK_NUMBER                  = 0x0E;
-    private final static byte SUBPARAM_MESSAGE_DISPLAY_MODE             = 0x0F;
+    final static byte SUBPARAM_MESSAGE_IDENTIFIER               = 0x00;
+    final static byte SUBPARAM_USER_DATA                        = 0x01;
+    final static byte SUBPARAM_USER_RESPONSE_CODE               = 0x02;
+    final static byte SUBPARAM_MESSAGE_CENTER_TIME_STAMP        = 0x03;
+    final static byte SUBPARAM_VALIDITY_PERIOD_ABSOLUTE         = 0x04;
+    final static byte SUBPARAM_VALIDITY_PERIOD_RELATIVE         = 0x05;
+    final static byte SUBPARAM_DEFERRED_DELIVERY_TIME_ABSOLUTE  = 0x06;
+    final static byte SUBPARAM_DEFERRED_DELIVERY_TIME_RELATIVE  = 0x07;
+    final static byte SUBPARAM_PRIORITY_INDICATOR               = 0x08;
+    final static byte SUBPARAM_PRIVACY_INDICATOR                = 0x09;
+    final static byte SUBPARAM_REPLY_OPTION                     = 0x0A;
+    final static byte SUBPARAM_NUMBER_OF_MESSAGES               = 0x0B;
+    final static byte SUBPARAM_ALERT_ON_MESSAGE_DELIVERY        = 0x0C;
+    final static byte SUBPARAM_LANGUAGE_INDICATOR               = 0x0D;
+    final static byte SUBPARAM_CALLBACK_NUMBER                  = 0x0E;
+    final static byte SUBPARAM_MESSAGE_DISPLAY_MODE             = 0x0F;
     //private final static byte SUBPARAM_MULTIPLE_ENCODING_USER_DATA      = 0x10;
-    private final static byte SUBPARAM_MESSAGE_DEPOSIT_INDEX            = 0x11;
-    private final static byte SUBPARAM_SERVICE_CATEGORY_PROGRAM_DATA    = 0x12;
-    private final static byte SUBPARAM_SERVICE_CATEGORY_PROGRAM_RESULTS = 0x13;
-    private final static byte SUBPARAM_MESSAGE_STATUS                   = 0x14;
+    final static byte SUBPARAM_MESSAGE_DEPOSIT_INDEX            = 0x11;
+    final static byte SUBPARAM_SERVICE_CATEGORY_PROGRAM_DATA    = 0x12;
+    final static byte SUBPARAM_SERVICE_CATEGORY_PROGRAM_RESULTS = 0x13;
+    final static byte SUBPARAM_MESSAGE_STATUS                   = 0x14;
     //private final static byte SUBPARAM_TP_FAILURE_CAUSE                 = 0x15;
     //private final static byte SUBPARAM_ENHANCED_VMN                     = 0x16;
     //private final static byte SUBPARAM_ENHANCED_VMN_ACK                 = 0x17;
 
     // All other values after this are reserved.
-    private final static byte SUBPARAM_ID_LAST_DEFINED                    = 0x17;
+    final static byte SUBPARAM_ID_LAST_DEFINED                    = 0x17;
 
     /**
      * Supported message types for CDMA SMS messages
@@ -216,56 +224,13 @@ public final class BearerData {
     public int userResponseCode;
 
     /**
-     * 6-byte-field, see 3GPP2 C.S0015-B, v2, 4.5.4
+     * Absolute time stamps, 6-byte-fields (see 3GPP2 C.S0015-B, v2, 4.5.4)
+     * packed as described in {@link SmsTimeStamp}, or SmsTimeStamp.NONE if
+     * not present or invalid.
      */
-    public static class TimeStamp extends Time {
-
-        public TimeStamp() {
-            super(TimeZone.getDefault().getID());   // 3GPP2 timestamps use the local timezone
-        }
-
-        public static TimeStamp fromByteArray(byte[] data) {
-            TimeStamp ts = new TimeStamp();
-            // C.S0015-B v2.0, 4.5.4: range is 1996-2095
-            int year = IccUtils.cdmaBcdByteToInt(data[0]);
-            if (year > 99 || year < 0) return null;
-            ts.year = year >= 96 ? year + 1900 : year + 2000;
-            int month = IccUtils.cdmaBcdByteToInt(data[1]);
-            if (month < 1 || month > 12) return null;
-            ts.month = month - 1;
-            int day = IccUtils.cdmaBcdByteToInt(data[2]);
-            if (day < 1 || day > 31) return null;
-            ts.monthDay = day;
-            int hour = IccUtils.cdmaBcdByteToInt(data[3]);
-            if (hour < 0 || hour > 23) return null;
-            ts.hour = hour;
-            int minute = IccUtils.cdmaBcdByteToInt(data[4]);
-            if (minute < 0 || minute > 59) return null;
-            ts.minute = minute;
-            int second = IccUtils.cdmaBcdByteToInt(data[5]);
-            if (second < 0 || second > 59) return null;
-            ts.second = second;
-            return ts;
-        }
-
-        @Override
-        public String toString() {
-            StringBuilder builder = new StringBuilder();
-            builder.append("TimeStamp ");
-            builder.append("{ year=" + year);
-            builder.append(", month=" + month);
-            builder.append(", day=" + monthDay);
-            builder.append(", hour=" + hour);
-            builder.append(", minute=" + minute);
-            builder.append(", second=" + second);
-            builder.append(" }");
-            return builder.toString();
-        }
-    }
-
-    public TimeStamp msgCenterTimeStamp;
-    public TimeStamp validityPeriodAbsolute;
-    public TimeStamp deferredDeliveryTimeAbsolute;
+    public long msgCenterTimeStamp = SmsTimeStamp.NONE;
+    public long validityPeriodAbsolute = SmsTimeStamp.NONE;
+    public long deferredDeliveryTimeAbsolute = SmsTimeStamp.NONE;
 
     /**
      * Relative time is specified as one byte, the value of which
@@ -330,7 +295,7 @@ public final class BearerData {
 
     /**
      * CMAS warning notification information.
-     * @see #decodeCmasUserData(BearerData, int)
+     * @see #decodeCmasUserData(BearerData, int, DecodeBudget)
      */
     public SmsCbCmasInfo cmasWarningInfo;
 
@@ -355,6 +320,47 @@ public final class BearerData {
         }
     }
 
+    /**
+     * Work done so far decoding one message, checked against its limits.
+     */
+    private static final class DecodeBudget {
+        final DecodeLimits limits;
+        int subparams;
+        int allocatedBytes;
+
+        DecodeBudget(DecodeLimits limits) {
+            this.limits = limits;
+        }
+
+        void countSubparam() throws CodingException {
+            if (++subparams > limits.getMaxSubparams()) {
+                throw limitExceeded("more than " + limits.getMaxSubparams() + " subparams");
+            }
+        }
+
+        void checkRecords(int records, int maxRecords, String what) throws CodingException {
+            if (records > maxRecords) {
+                throw limitExceeded("more than " + maxRecords + " " + what + " records");
+            }
+        }
+
+        void allocate(int bytes) throws CodingException {
+            if (bytes < 0) {
+                throw new CodingException("negative allocation (" + bytes + " bytes)");
+            }
+            allocatedBytes += bytes;
+            if (allocatedBytes > limits.getMaxAllocatedBytes() || allocatedBytes < 0) {
+                throw limitExceeded("more than " + limits.getMaxAllocatedBytes()
+                        + " bytes allocated");
+            }
+        }
+
+        private static CodingException limitExceeded(String reason) {
+            SmsCodecMetrics.countMalformed(SmsCodecMetrics.MALFORMED_LIMIT_EXCEEDED);
+            return new CodingException("decode limit exceeded: " + reason);
+        }
+    }
+
     /**
      * Returns the language indicator as a two-character ISO 639 string.
      * @return a two character ISO 639 language code
@@ -409,14 +415,13 @@ public final class BearerData {
         builder.append(", language=" + (languageIndicatorSet ? language : "unset"));
         builder.append(", errorClass=" + (messageStatusSet ? errorClass : "unset"));
         builder.append(", msgStatus=" + (messageStatusSet ? messageStatus : "unset"));
-        builder.append(", msgCenterTimeStamp=" +
-                ((msgCenterTimeStamp != null) ? msgCenterTimeStamp : "unset"));
+        builder.append(", msgCenterTimeStamp=" + SmsTimeStamp.toString(msgCenterTimeStamp));
         builder.append(", validityPeriodAbsolute=" +
-                ((validityPeriodAbsolute != null) ? validityPeriodAbsolute : "unset"));
+                SmsTimeStamp.toString(validityPeriodAbsolute));
         builder.append(", validityPeriodRelative=" +
                 ((validityPeriodRelativeSet) ? validityPeriodRelative : "unset"));
         builder.append(", deferredDeliveryTimeAbsolute=" +
-                ((deferredDeliveryTimeAbsolute != null) ? deferredDeliveryTimeAbsolute : "unset"));
+                SmsTimeStamp.toString(deferredDeliveryTimeAbsolute));
         builder.append(", deferredDeliveryTimeRelative=" +
                 ((deferredDeliveryTimeRelativeSet) ? deferredDeliveryTimeRelative : "unset"));
         builder.append(", userAckReq=" + userAckReq);
@@ -435,23 +440,15 @@ public final class BearerData {
     private static void encodeMessageId(BearerData bData, BitwiseOutputStream outStream)
             throws BitwiseOutputStream.AccessException
     {
-        outStream.write(8, 3);
-        outStream.write(4, bData.messageType);
-        outStream.write(8, bData.messageId >> 8);
-        outStream.write(8, bData.messageId);
-        outStream.write(1, bData.hasUserDataHeader ? 1 : 0);
-        outStream.skip(3);
+        outStream.write(32, (3 << 24) | ((bData.messageType & 0x0F) << 20)
+                | ((bData.messageId & 0xFFFF) << 4)
+                | (bData.hasUserDataHeader ? 1 << 3 : 0));
     }
 
     private static int countAsciiSeptets(CharSequence msg, boolean force) {
         int msgLen = msg.length();
         if (force) return msgLen;
-        for (int i = 0; i < msgLen; i++) {
-            if (UserData.charToAscii.get(msg.charAt(i), -1) == -1) {
-                return -1;
-            }
-        }
-        return msgLen;
+        return AsciiCodec.indexOfUnencodable(msg) == -1 ? msgLen : -1;
     }
 
 
@@ -481,24 +478,17 @@ public final class BearerData {
     private static byte[] encode7bitAscii(String msg, boolean force)
             throws CodingException
     {
-        try {
-            BitwiseOutputStream outStream = new BitwiseOutputStream(msg.length());
-            int msgLen = msg.length();
-            for (int i = 0; i < msgLen; i++) {
-                int charCode = UserData.charToAscii.get(msg.charAt(i), -1);
-                if (charCode == -1) {
-                    if (force) {
-                        outStream.write(7, UserData.UNENCODABLE_7_BIT_CHAR);
-                    } else {
-                        throw new CodingException("cannot ASCII encode (" + msg.charAt(i) + ")");
-                    }
-                } else {
-                    outStream.write(7, charCode);
-                }
-            }
-            return outStream.toByteArray();
-        } catch (BitwiseOutputStream.AccessException ex) {
-            throw new CodingException("7bit ASCII encode failed: " + ex);
+        checkAsciiEncodable(msg, force);
+        byte[] payload = new byte[AsciiCodec.packedLength(0, msg.length())];
+        AsciiCodec.pack7bit(msg, 0, payload, 0);
+        return payload;
+    }
+
+    private static void checkAsciiEncodable(String msg, boolean force) throws CodingException {
+        if (force) return;
+        int index = AsciiCodec.indexOfUnencodable(msg);
+        if (index != -1) {
+            throw new CodingException("cannot ASCII encode (" + msg.charAt(index) + ")");
         }
     }
 
@@ -581,40 +571,21 @@ public final class BearerData {
     private static void encode7bitAsciiEms(UserData uData, byte[] udhData, boolean force)
             throws CodingException
     {
-        try {
-            Rlog.d(LOG_TAG, "encode7bitAsciiEms");
-            int udhBytes = udhData.length + 1;  // Add length octet.
-            int udhSeptets = ((udhBytes * 8) + 6) / 7;
-            int paddingBits = (udhSeptets * 7) - (udhBytes * 8);
-            String msg = uData.payloadStr;
-            byte[] payload ;
-            int msgLen = msg.length();
-            BitwiseOutputStream outStream = new BitwiseOutputStream(msgLen +
-                    (paddingBits > 0 ? 1 : 0));
-            outStream.write(paddingBits, 0);
-            for (int i = 0; i < msgLen; i++) {
-                int charCode = UserData.charToAscii.get(msg.charAt(i), -1);
-                if (charCode == -1) {
-                    if (force) {
-                        outStream.write(7, UserData.UNENCODABLE_7_BIT_CHAR);
-                    } else {
-                        throw new CodingException("cannot ASCII encode (" + msg.charAt(i) + ")");
-                    }
-                } else {
-                    outStream.write(7, charCode);
-                }
-            }
-            payload = outStream.toByteArray();
-            uData.msgEncoding = UserData.ENCODING_7BIT_ASCII;
-            uData.msgEncodingSet = true;
-            uData.numFields = udhSeptets + uData.payloadStr.length();
-            uData.payload = new byte[udhBytes + payload.length];
-            uData.payload[0] = (byte)udhData.length;
-            System.arraycopy(udhData, 0, uData.payload, 1, udhData.length);
-            System.arraycopy(payload, 0, uData.payload, udhBytes, payload.length);
-        } catch (BitwiseOutputStream.AccessException ex) {
-            throw new CodingException("7bit ASCII encode failed: " + ex);
-        }
+        Rlog.d(LOG_TAG, "encode7bitAsciiEms");
+        int udhBytes = udhData.length + 1;  // Add length octet.
+        int udhSeptets = ((udhBytes * 8) + 6) / 7;
+        int paddingBits = (udhSeptets * 7) - (udhBytes * 8);
+        String msg = uData.payloadStr;
+        checkAsciiEncodable(msg, force);
+        // Pack the text straight after the header, from the next septet boundary.
+        byte[] payload = new byte[udhBytes + AsciiCodec.packedLength(paddingBits, msg.length())];
+        payload[0] = (byte)udhData.length;
+        System.arraycopy(udhData, 0, payload, 1, udhData.length);
+        AsciiCodec.pack7bit(msg, paddingBits, payload, udhBytes);
+        uData.msgEncoding = UserData.ENCODING_7BIT_ASCII;
+        uData.msgEncodingSet = true;
+        uData.numFields = udhSeptets + msg.length();
+        uData.payload = payload;
     }
 
     private static void encodeEmsUserDataPayload(UserData uData)
@@ -739,8 +710,7 @@ public final class BearerData {
         }
         int paramBytes = (paramBits / 8) + ((paramBits % 8) > 0 ? 1 : 0);
         int paddingBits = (paramBytes * 8) - paramBits;
-        outStream.write(8, paramBytes);
-        outStream.write(5, bData.userData.msgEncoding);
+        outStream.write(13, (paramBytes << 5) | (bData.userData.msgEncoding & 0x1F));
         if ((bData.userData.msgEncoding == UserData.ENCODING_IS91_EXTENDED_PROTOCOL) ||
                 (bData.userData.msgEncoding == UserData.ENCODING_GSM_DCS)) {
             outStream.write(8, bData.userData.msgType);
@@ -753,12 +723,11 @@ public final class BearerData {
     private static void encodeReplyOption(BearerData bData, BitwiseOutputStream outStream)
             throws BitwiseOutputStream.AccessException
     {
-        outStream.write(8, 1);
-        outStream.write(1, bData.userAckReq     ? 1 : 0);
-        outStream.write(1, bData.deliveryAckReq ? 1 : 0);
-        outStream.write(1, bData.readAckReq     ? 1 : 0);
-        outStream.write(1, bData.reportReq      ? 1 : 0);
-        outStream.write(4, 0);
+        outStream.write(16, (1 << 8)
+                | (bData.userAckReq     ? 0x80 : 0)
+                | (bData.deliveryAckReq ? 0x40 : 0)
+                | (bData.readAckReq     ? 0x20 : 0)
+                | (bData.reportReq      ? 0x10 : 0));
     }
 
     private static byte[] encodeDtmfSmsAddress(String address) {
@@ -814,13 +783,12 @@ public final class BearerData {
         paramBits += dataBits;
         int paramBytes = (paramBits / 8) + ((paramBits % 8) > 0 ? 1 : 0);
         int paddingBits = (paramBytes * 8) - paramBits;
-        outStream.write(8, paramBytes);
-        outStream.write(1, addr.digitMode);
         if (addr.digitMode == CdmaSmsAddress.DIGIT_MODE_8BIT_CHAR) {
-            outStream.write(3, addr.ton);
-            outStream.write(4, addr.numberPlan);
+            outStream.write(24, (paramBytes << 16) | (1 << 15) | ((addr.ton & 0x07) << 12)
+                    | ((addr.numberPlan & 0x0F) << 8) | (addr.numberOfDigits & 0xFF));
+        } else {
+            outStream.write(17, (paramBytes << 9) | (addr.numberOfDigits & 0xFF));
         }
-        outStream.write(8, addr.numberOfDigits);
         outStream.writeByteArray(dataBits, addr.origBytes);
         if (paddingBits > 0) outStream.write(paddingBits, 0);
     }
@@ -828,62 +796,50 @@ public final class BearerData {
     private static void encodeMsgStatus(BearerData bData, BitwiseOutputStream outStream)
             throws BitwiseOutputStream.AccessException
     {
-        outStream.write(8, 1);
-        outStream.write(2, bData.errorClass);
-        outStream.write(6, bData.messageStatus);
+        outStream.write(16, (1 << 8) | ((bData.errorClass & 0x03) << 6)
+                | (bData.messageStatus & 0x3F));
     }
 
     private static void encodeMsgCount(BearerData bData, BitwiseOutputStream outStream)
             throws BitwiseOutputStream.AccessException
     {
-        outStream.write(8, 1);
-        outStream.write(8, bData.numberOfMessages);
+        outStream.write(16, (1 << 8) | (bData.numberOfMessages & 0xFF));
     }
 
     private static void encodeValidityPeriodRel(BearerData bData, BitwiseOutputStream outStream)
             throws BitwiseOutputStream.AccessException
     {
-        outStream.write(8, 1);
-        outStream.write(8, bData.validityPeriodRelative);
+        outStream.write(16, (1 << 8) | (bData.validityPeriodRelative & 0xFF));
     }
 
     private static void encodePrivacyIndicator(BearerData bData, BitwiseOutputStream outStream)
             throws BitwiseOutputStream.AccessException
     {
-        outStream.write(8, 1);
-        outStream.write(2, bData.privacy);
-        outStream.skip(6);
+        outStream.write(16, (1 << 8) | ((bData.privacy & 0x03) << 6));
     }
 
     private static void encodeLanguageIndicator(BearerData bData, BitwiseOutputStream outStream)
             throws BitwiseOutputStream.AccessException
     {
-        outStream.write(8, 1);
-        outStream.write(8, bData.language);
+        outStream.write(16, (1 << 8) | (bData.language & 0xFF));
     }
 
     private static void encodeDisplayMode(BearerData bData, BitwiseOutputStream outStream)
             throws BitwiseOutputStream.AccessException
     {
-        outStream.write(8, 1);
-        outStream.write(2, bData.displayMode);
-        outStream.skip(6);
+        outStream.write(16, (1 << 8) | ((bData.displayMode & 0x03) << 6));
     }
 
     private static void encodePriorityIndicator(BearerData bData, BitwiseOutputStream outStream)
             throws BitwiseOutputStream.AccessException
     {
-        outStream.write(8, 1);
-        outStream.write(2, bData.priority);
-        outStream.skip(6);
+        outStream.write(16, (1 << 8) | ((bData.priority & 0x03) << 6));
     }
 
     private static void encodeMsgDeliveryAlert(BearerData bData, BitwiseOutputStream outStream)
             throws BitwiseOutputStream.AccessException
     {
-        outStream.write(8, 1);
-        outStream.write(2, bData.alert);
-        outStream.skip(6);
+        outStream.write(16, (1 << 8) | ((bData.alert & 0x03) << 6));
     }
 
     private static void encodeScpResults(BearerData bData, BitwiseOutputStream outStream)
@@ -893,11 +849,9 @@ public final class BearerData {
         outStream.write(8, (results.size() * 4));   // 4 octets per program result
         for (CdmaSmsCbProgramResults result : results) {
             int category = result.getCategory();
-            outStream.write(8, category >> 8);
-            outStream.write(8, category);
-            outStream.write(8, result.getLanguage());
-            outStream.write(4, result.getCategoryResult());
-            outStream.skip(4);
+            outStream.write(32, ((category & 0xFFFF) << 16)
+                    | ((result.getLanguage() & 0xFF) << 8)
+                    | ((result.getCategoryResult() & 0x0F) << 4));
         }
     }
 
@@ -910,10 +864,29 @@ public final class BearerData {
      * @return byte array of raw encoded SMS bearer data.
      */
     public static byte[] encode(BearerData bData) {
+        int textLength = (bData.userData != null && bData.userData.payloadStr != null)
+                ? bData.userData.payloadStr.length() : 0;
+        if (!SmsCodecTrace.begin(SmsCodecMetrics.OP_BEARER_DATA_ENCODE, textLength)) {
+            return encodeBearerData(bData);
+        }
+        byte[] encoded = null;
+        try {
+            encoded = encodeBearerData(bData);
+            return encoded;
+        } finally {
+            SmsCodecTrace.end(encoded != null,
+                    bData.userData != null ? bData.userData.msgEncoding : SmsCodecTrace.UNKNOWN,
+                    SmsCodecTrace.countSubparams(encoded));
+        }
+    }
+
+    private static byte[] encodeBearerData(BearerData bData) {
+        long startNanos = System.nanoTime();
         bData.hasUserDataHeader = ((bData.userData != null) &&
                 (bData.userData.userDataHeader != null));
         try {
-            BitwiseOutputStream outStream = new BitwiseOutputStream(200);
+            BitwiseOutputStream outStream = sBearerDataStream.get();
+            outStream.reset();
             outStream.write(8, SUBPARAM_MESSAGE_IDENTIFIER);
             encodeMessageId(bData, outStream);
             if (bData.userData != null) {
@@ -964,7 +937,12 @@ public final class BearerData {
                 outStream.write(8, SUBPARAM_SERVICE_CATEGORY_PROGRAM_RESULTS);
                 encodeScpResults(bData, outStream);
             }
-            return outStream.toByteArray();
+            byte[] encoded = outStream.toByteArray();
+            SmsCodecMetrics.recordLatency(SmsCodecMetrics.OP_BEARER_DATA_ENCODE, startNanos);
+            if (bData.userData != null) {
+                SmsCodecMetrics.countEncoding(bData.userData.msgEncoding);
+            }
+            return encoded;
         } catch (BitwiseOutputStream.AccessException ex) {
             Rlog.e(LOG_TAG, "BearerData encode failed: " + ex);
         } catch (CodingException ex) {
@@ -1007,6 +985,7 @@ public final class BearerData {
             decodeSuccess = true;
             inStream.skip(paramBits);
         }
+        SmsCodecMetrics.countMalformed(SmsCodecMetrics.MALFORMED_RESERVED_SUBPARAM);
         Rlog.d(LOG_TAG, "RESERVED bearer data subparameter " + subparamId + " decode "
                 + (decodeSuccess ? "succeeded" : "failed") + " (param bits = " + paramBits + ")");
         if (!decodeSuccess) {
@@ -1017,8 +996,8 @@ public final class BearerData {
         return decodeSuccess;
     }
 
-    private static boolean decodeUserData(BearerData bData, BitwiseInputStream inStream)
-            throws BitwiseInputStream.AccessException
+    private static boolean decodeUserData(BearerData bData, BitwiseInputStream inStream,
+            DecodeBudget budget) throws BitwiseInputStream.AccessException, CodingException
     {
         int paramBits = inStream.read(8) * 8;
         bData.userData = new UserData();
@@ -1034,6 +1013,7 @@ public final class BearerData {
         bData.userData.numFields = inStream.read(8);
         consumedBits += 8;
         int dataBits = paramBits - consumedBits;
+        budget.allocate((dataBits + 7) / 8);
         bData.userData.payload = inStream.readByteArray(dataBits);
         return true;
     }
@@ -1063,6 +1043,7 @@ public final class BearerData {
             if (maxNumFields < 0) {
                 throw new CodingException(charset + " decode failed: offset out of range");
             }
+            SmsCodecMetrics.countMalformed(SmsCodecMetrics.MALFORMED_TRUNCATED_PAYLOAD);
             Rlog.e(LOG_TAG, "decodeCharset: " + Log.getStackTraceString(new Throwable("10010010")));
             Rlog.e(LOG_TAG, charset + " decode error: offset = " + offset + " numFields = "
                     + numFields + " data.length = " + data.length + " maxNumFields = "
@@ -1079,35 +1060,19 @@ public final class BearerData {
     private static String decode7bitAscii(byte[] data, int offset, int numFields)
             throws CodingException
     {
+        int offsetBits = offset * 8;
+        int offsetSeptets = (offsetBits + 6) / 7;
+        numFields -= offsetSeptets;
+
+        int wantedBits = (offsetSeptets * 7) + (numFields * 7);
+        if (data.length * 8 < wantedBits) {
+            throw new CodingException("insufficient data (wanted " + wantedBits +
+                    " bits, but only have " + (data.length * 8) + ")");
+        }
         try {
-            int offsetBits = offset * 8;
-            int offsetSeptets = (offsetBits + 6) / 7;
-            numFields -= offsetSeptets;
-
-            StringBuffer strBuf = new StringBuffer(numFields);
-            BitwiseInputStream inStream = new BitwiseInputStream(data);
-            int wantedBits = (offsetSeptets * 7) + (numFields * 7);
-            if (inStream.available() < wantedBits) {
-                throw new CodingException("insufficient data (wanted " + wantedBits +
-                        " bits, but only have " + inStream.available() + ")");
-            }
-            inStream.skip(offsetSeptets * 7);
-            for (int i = 0; i < numFields; i++) {
-                int charCode = inStream.read(7);
-                if ((charCode >= UserData.ASCII_MAP_BASE_INDEX) &&
-                        (charCode <= UserData.ASCII_MAP_MAX_INDEX)) {
-                    strBuf.append(UserData.ASCII_MAP[charCode - UserData.ASCII_MAP_BASE_INDEX]);
-                } else if (charCode == UserData.ASCII_NL_INDEX) {
-                    strBuf.append('\n');
-                } else if (charCode == UserData.ASCII_CR_INDEX) {
-                    strBuf.append('\r');
-                } else {
-                    /* For other charCodes, they are unprintable, and so simply use SPACE. */
-                    strBuf.append(' ');
-                }
-            }
-            return strBuf.toString();
-        } catch (BitwiseInputStream.AccessException ex) {
+            /* Unprintable charCodes other than NL and CR decode as SPACE. */
+            return AsciiCodec.decode7bit(data, offsetSeptets * 7, numFields);
+        } catch (IndexOutOfBoundsException ex) {
             throw new CodingException("7bit ASCII decode failed: " + ex);
         }
     }
@@ -1119,6 +1084,9 @@ public final class BearerData {
         int offsetBits = offset * 8;
         int offsetSeptets = (offsetBits + 6) / 7;
         numFields -= offsetSeptets;
+        if (numFields < 0) {
+            throw new CodingException("7bit GSM decoding failed: header exceeds numFields");
+        }
         int paddingBits = (offsetSeptets * 7) - offsetBits;
         String result = GsmAlphabet.gsm7BitPackedToString(data, offset, numFields, paddingBits,
                 0, 0);
@@ -1161,17 +1129,30 @@ public final class BearerData {
         }
     }
 
-    private static void decodeUserDataPayload(UserData userData, boolean hasUserDataHeader)
-            throws CodingException
+    private static void decodeUserDataPayload(UserData userData, boolean hasUserDataHeader,
+            DecodeBudget budget) throws CodingException
     {
         int offset = 0;
         if (hasUserDataHeader) {
+            if (userData.payload.length == 0) {
+                throw new CodingException("user data header missing");
+            }
             int udhLen = userData.payload[0] & 0x00FF;
+            if (udhLen + 1 > userData.payload.length) {
+                throw new CodingException("user data header length " + udhLen
+                        + " exceeds payload of " + userData.payload.length + " bytes");
+            }
             offset += udhLen + 1;
+            budget.allocate(udhLen);
             byte[] headerData = new byte[udhLen];
             System.arraycopy(userData.payload, 1, headerData, 0, udhLen);
-            userData.userDataHeader = SmsHeader.fromByteArray(headerData);
-
+            try {
+                userData.userDataHeader = SmsHeader.fromByteArray(headerData);
+            } catch (RuntimeException ex) {
+                // Elements running past the end of the header.
+                throw new CodingException("malformed user data header: " + ex);
+            }
+            userData.userDataHeaderBytes = headerData;
         }
         switch (userData.msgEncoding) {
             case UserData.ENCODING_OCTET:
@@ -1183,6 +1164,11 @@ public final class BearerData {
                 // Strip off any padding bytes, meaning any differences between the length of the
                 // array and the target length specified by numFields.  This is to avoid any
                 // confusion by code elsewhere that only considers the payload array length.
+                if (userData.numFields < offset) {
+                    throw new CodingException("numFields " + userData.numFields
+                            + " shorter than user data header");
+                }
+                budget.allocate(userData.numFields - offset);
                 byte[] payload = new byte[userData.numFields - offset];
                 int copyLen = userData.numFields < userData.payload.length
                         ? userData.numFields : userData.payload.length;
@@ -1225,6 +1211,7 @@ public final class BearerData {
                 throw new CodingException("unsupported user data encoding ("
                         + userData.msgEncoding + ")");
         }
+        if (userData.payloadStr != null) budget.allocate(userData.payloadStr.length() * 2);
     }
 
     /**
@@ -1244,18 +1231,13 @@ public final class BearerData {
     private static void decodeIs91VoicemailStatus(BearerData bData)
             throws BitwiseInputStream.AccessException, CodingException
     {
-        BitwiseInputStream inStream = new BitwiseInputStream(bData.userData.payload);
-        int dataLen = inStream.available() / 6;  // 6-bit packed character encoding.
+        int dataLen = (bData.userData.payload.length * 8) / 6;  // 6-bit packed character encoding.
         int numFields = bData.userData.numFields;
         if ((dataLen > 14) || (dataLen < 3) || (dataLen < numFields)) {
             throw new CodingException("IS-91 voicemail status decoding failed");
         }
         try {
-            StringBuffer strbuf = new StringBuffer(dataLen);
-            while (inStream.available() >= 6) {
-                strbuf.append(UserData.ASCII_MAP[inStream.read(6)]);
-            }
-            String data = strbuf.toString();
+            String data = AsciiCodec.decode6bit(bData.userData.payload, dataLen);
             bData.numberOfMessages = Integer.parseInt(data.substring(0, 2));
             char prioCode = data.charAt(2);
             if (prioCode == ' ') {
@@ -1287,18 +1269,13 @@ public final class BearerData {
     private static void decodeIs91ShortMessage(BearerData bData)
             throws BitwiseInputStream.AccessException, CodingException
     {
-        BitwiseInputStream inStream = new BitwiseInputStream(bData.userData.payload);
-        int dataLen = inStream.available() / 6;  // 6-bit packed character encoding.
+        int dataLen = (bData.userData.payload.length * 8) / 6;  // 6-bit packed character encoding.
         int numFields = bData.userData.numFields;
         // dataLen may be > 14 characters due to octet padding
         if ((numFields > 14) || (dataLen < numFields)) {
             throw new CodingException("IS-91 short message decoding failed");
         }
-        StringBuffer strbuf = new StringBuffer(dataLen);
-        for (int i = 0; i < numFields; i++) {
-            strbuf.append(UserData.ASCII_MAP[inStream.read(6)]);
-        }
-        bData.userData.payloadStr = strbuf.toString();
+        bData.userData.payloadStr = AsciiCodec.decode6bit(bData.userData.payload, numFields);
     }
 
     /**
@@ -1410,16 +1387,11 @@ public final class BearerData {
     {
         /* DTMF 4-bit digit encoding, defined in at
          * 3GPP2 C.S005-D, v2.0, table 2.7.1.3.2.4-4 */
-        StringBuffer strBuf = new StringBuffer(numFields);
-        for (int i = 0; i < numFields; i++) {
-            int val = 0x0F & (rawData[i / 2] >>> (4 - ((i % 2) * 4)));
-            if ((val >= 1) && (val <= 9)) strBuf.append(Integer.toString(val, 10));
-            else if (val == 10) strBuf.append('0');
-            else if (val == 11) strBuf.append('*');
-            else if (val == 12) strBuf.append('#');
-            else throw new CodingException("invalid SMS address DTMF code (" + val + ")");
+        try {
+            return DtmfCodec.decodeSmsAddress(rawData, numFields);
+        } catch (IllegalArgumentException ex) {
+            throw new CodingException("invalid SMS address DTMF code (" + ex.getMessage() + ")");
         }
-        return strBuf.toString();
     }
 
     private static void decodeSmsAddress(CdmaSmsAddress addr) throws CodingException {
@@ -1436,8 +1408,8 @@ public final class BearerData {
         }
     }
 
-    private static boolean decodeCallbackNumber(BearerData bData, BitwiseInputStream inStream)
-            throws BitwiseInputStream.AccessException, CodingException
+    private static boolean decodeCallbackNumber(BearerData bData, BitwiseInputStream inStream,
+            DecodeBudget budget) throws BitwiseInputStream.AccessException, CodingException
     {
         final int EXPECTED_PARAM_SIZE = 1 * 8; //at least
         int paramBits = inStream.read(8) * 8;
@@ -1465,6 +1437,8 @@ public final class BearerData {
                     "remainingBits + " + remainingBits + ", dataBits + " +
                     dataBits + ", paddingBits + " + paddingBits + ")");
         }
+        // Digits and their decoded string.
+        budget.allocate((dataBits + 7) / 8 + addr.numberOfDigits * 2);
         addr.origBytes = inStream.readByteArray(dataBits);
         inStream.skip(paddingBits);
         decodeSmsAddress(addr);
@@ -1493,6 +1467,16 @@ public final class BearerData {
         return decodeSuccess;
     }
 
+    private static long readTimeStamp(BitwiseInputStream inStream)
+            throws BitwiseInputStream.AccessException {
+        return SmsTimeStamp.fromCdmaFields(BcdCodec.cdmaByteToInt((byte) inStream.read(8)),
+                BcdCodec.cdmaByteToInt((byte) inStream.read(8)),
+                BcdCodec.cdmaByteToInt((byte) inStream.read(8)),
+                BcdCodec.cdmaByteToInt((byte) inStream.read(8)),
+                BcdCodec.cdmaByteToInt((byte) inStream.read(8)),
+                BcdCodec.cdmaByteToInt((byte) inStream.read(8)));
+    }
+
     private static boolean decodeMsgCenterTimeStamp(BearerData bData, BitwiseInputStream inStream)
             throws BitwiseInputStream.AccessException {
         final int EXPECTED_PARAM_SIZE = 6 * 8;
@@ -1501,7 +1485,7 @@ public final class BearerData {
         if (paramBits >= EXPECTED_PARAM_SIZE) {
             paramBits -= EXPECTED_PARAM_SIZE;
             decodeSuccess = true;
-            bData.msgCenterTimeStamp = TimeStamp.fromByteArray(inStream.readByteArray(6 * 8));
+            bData.msgCenterTimeStamp = readTimeStamp(inStream);
         }
         if ((! decodeSuccess) || (paramBits > 0)) {
             Rlog.d(LOG_TAG, "MESSAGE_CENTER_TIME_STAMP decode " +
@@ -1520,7 +1504,7 @@ public final class BearerData {
         if (paramBits >= EXPECTED_PARAM_SIZE) {
             paramBits -= EXPECTED_PARAM_SIZE;
             decodeSuccess = true;
-            bData.validityPeriodAbsolute = TimeStamp.fromByteArray(inStream.readByteArray(6 * 8));
+            bData.validityPeriodAbsolute = readTimeStamp(inStream);
         }
         if ((! decodeSuccess) || (paramBits > 0)) {
             Rlog.d(LOG_TAG, "VALIDITY_PERIOD_ABSOLUTE decode " +
@@ -1539,8 +1523,7 @@ public final class BearerData {
         if (paramBits >= EXPECTED_PARAM_SIZE) {
             paramBits -= EXPECTED_PARAM_SIZE;
             decodeSuccess = true;
-            bData.deferredDeliveryTimeAbsolute = TimeStamp.fromByteArray(
-                    inStream.readByteArray(6 * 8));
+            bData.deferredDeliveryTimeAbsolute = readTimeStamp(inStream);
         }
         if ((! decodeSuccess) || (paramBits > 0)) {
             Rlog.d(LOG_TAG, "DEFERRED_DELIVERY_TIME_ABSOLUTE decode " +
@@ -1716,7 +1699,8 @@ public final class BearerData {
     }
 
     private static boolean decodeServiceCategoryProgramData(BearerData bData,
-                                                            BitwiseInputStream inStream) throws BitwiseInputStream.AccessException, CodingException
+            BitwiseInputStream inStream, DecodeBudget budget)
+            throws BitwiseInputStream.AccessException, CodingException
     {
         if (inStream.available() < 13) {
             throw new CodingException("SERVICE_CATEGORY_PROGRAM_DATA decode failed: only "
@@ -1737,6 +1721,8 @@ public final class BearerData {
         final int CATEGORY_FIELD_MIN_SIZE = 6 * 8;
         boolean decodeSuccess = false;
         while (paramBits >= CATEGORY_FIELD_MIN_SIZE) {
+            budget.checkRecords(programDataList.size() + 1, budget.limits.getMaxScpRecords(),
+                    "SERVICE_CATEGORY_PROGRAM_DATA");
             int operation = inStream.read(4);
             int category = (inStream.read(8) << 8) | inStream.read(8);
             int language = inStream.read(8);
@@ -1755,10 +1741,11 @@ public final class BearerData {
             userData.msgEncoding = msgEncoding;
             userData.msgEncodingSet = true;
             userData.numFields = numFields;
+            budget.allocate((textBits + 7) / 8);
             userData.payload = inStream.readByteArray(textBits);
             paramBits -= textBits;
 
-            decodeUserDataPayload(userData, false);
+            decodeUserDataPayload(userData, false, budget);
             String categoryName = userData.payloadStr;
             CdmaSmsCbProgramData programData = new CdmaSmsCbProgramData(operation, category,
                     language, maxMessages, alertOption, categoryName);
@@ -1837,8 +1824,8 @@ public final class BearerData {
      *
      * @param serviceCategory is the service category from the SMS envelope
      */
-    private static void decodeCmasUserData(BearerData bData, int serviceCategory)
-            throws BitwiseInputStream.AccessException, CodingException {
+    private static void decodeCmasUserData(BearerData bData, int serviceCategory,
+            DecodeBudget budget) throws BitwiseInputStream.AccessException, CodingException {
         BitwiseInputStream inStream = new BitwiseInputStream(bData.userData.payload);
         if (inStream.available() < 8) {
             throw new CodingException("emergency CB with no CMAE_protocol_version");
@@ -1855,7 +1842,9 @@ public final class BearerData {
         int urgency = SmsCbCmasInfo.CMAS_URGENCY_UNKNOWN;
         int certainty = SmsCbCmasInfo.CMAS_CERTAINTY_UNKNOWN;
 
+        int records = 0;
         while (inStream.available() >= 16) {
+            budget.checkRecords(++records, budget.limits.getMaxCmasRecords(), "CMAS");
             int recordType = inStream.read(8);
             int recordLen = inStream.read(8);
             switch (recordType) {
@@ -1887,8 +1876,9 @@ public final class BearerData {
                     }
 
                     alertUserData.numFields = numFields;
+                    budget.allocate(recordLen);
                     alertUserData.payload = inStream.readByteArray(recordLen * 8 - 5);
-                    decodeUserDataPayload(alertUserData, false);
+                    decodeUserDataPayload(alertUserData, false, budget);
                     bData.userData = alertUserData;
                     break;
 
@@ -1923,7 +1913,7 @@ public final class BearerData {
         return decode(smsData, 0);
     }
 
-    private static boolean isCmasAlertCategory(int category) {
+    static boolean isCmasAlertCategory(int category) {
         return category >= SmsEnvelope.SERVICE_CATEGORY_CMAS_PRESIDENTIAL_LEVEL_ALERT
                 && category <= SmsEnvelope.SERVICE_CATEGORY_CMAS_LAST_RESERVED_VALUE;
     }
@@ -1937,11 +1927,47 @@ public final class BearerData {
      * @return an instance of BearerData.
      */
     public static BearerData decode(byte[] smsData, int serviceCategory) {
+        return decode(smsData, serviceCategory, DecodeLimits.UNLIMITED);
+    }
+
+    /**
+     * Create BearerData object from serialized representation from an
+     * untrusted source, failing if decoding it takes more work than the
+     * limits allow.
+     * (See 3GPP2 C.R1001-F, v1.0, section 4.5 for layout details)
+     *
+     * @param smsData byte array of raw encoded SMS bearer data.
+     * @param serviceCategory the envelope service category (for CMAS alert handling)
+     * @param limits the limits, such as {@link DecodeLimits#DEFAULT}
+     * @return an instance of BearerData, or null if it cannot be decoded
+     *     within the limits.
+     */
+    public static BearerData decode(byte[] smsData, int serviceCategory, DecodeLimits limits) {
+        if (!SmsCodecTrace.begin(SmsCodecMetrics.OP_BEARER_DATA_DECODE, smsData.length)) {
+            return decodeBearerData(smsData, serviceCategory, limits);
+        }
+        BearerData bData = null;
+        try {
+            bData = decodeBearerData(smsData, serviceCategory, limits);
+            return bData;
+        } finally {
+            SmsCodecTrace.end(bData != null,
+                    bData != null && bData.userData != null
+                            ? bData.userData.msgEncoding : SmsCodecTrace.UNKNOWN,
+                    SmsCodecTrace.countSubparams(smsData));
+        }
+    }
+
+    private static BearerData decodeBearerData(byte[] smsData, int serviceCategory,
+            DecodeLimits limits) {
+        long startNanos = System.nanoTime();
         try {
             BitwiseInputStream inStream = new BitwiseInputStream(smsData);
             BearerData bData = new BearerData();
+            DecodeBudget budget = new DecodeBudget(limits);
             int foundSubparamMask = 0;
             while (inStream.available() > 0) {
+                budget.countSubparam();
                 int subparamId = inStream.read(8);
                 int subparamIdBit = 1 << subparamId;
                 // int is 4 bytes. This duplicate check has a limit to Id number up to 32 (4*8)
@@ -1953,6 +1979,7 @@ public final class BearerData {
                 if ((foundSubparamMask & subparamIdBit) != 0 &&
                         (subparamId >= SUBPARAM_MESSAGE_IDENTIFIER &&
                                 subparamId <= SUBPARAM_ID_LAST_DEFINED)) {
+                    SmsCodecMetrics.countMalformed(SmsCodecMetrics.MALFORMED_DUPLICATE_SUBPARAM);
                     throw new CodingException("illegal duplicate subparameter (" +
                             subparamId + ")");
                 }
@@ -1962,7 +1989,7 @@ public final class BearerData {
                         decodeSuccess = decodeMessageId(bData, inStream);
                         break;
                     case SUBPARAM_USER_DATA:
-                        decodeSuccess = decodeUserData(bData, inStream);
+                        decodeSuccess = decodeUserData(bData, inStream, budget);
                         break;
                     case SUBPARAM_USER_RESPONSE_CODE:
                         decodeSuccess = decodeUserResponseCode(bData, inStream);
@@ -1974,7 +2001,7 @@ public final class BearerData {
                         decodeSuccess = decodeMsgCount(bData, inStream);
                         break;
                     case SUBPARAM_CALLBACK_NUMBER:
-                        decodeSuccess = decodeCallbackNumber(bData, inStream);
+                        decodeSuccess = decodeCallbackNumber(bData, inStream, budget);
                         break;
                     case SUBPARAM_MESSAGE_STATUS:
                         decodeSuccess = decodeMsgStatus(bData, inStream);
@@ -2013,7 +2040,8 @@ public final class BearerData {
                         decodeSuccess = decodeDepositIndex(bData, inStream);
                         break;
                     case SUBPARAM_SERVICE_CATEGORY_PROGRAM_DATA:
-                        decodeSuccess = decodeServiceCategoryProgramData(bData, inStream);
+                        decodeSuccess = decodeServiceCategoryProgramData(bData, inStream,
+                                budget);
                         break;
                     default:
                         decodeSuccess = decodeReserved(bData, inStream, subparamId);
@@ -2029,7 +2057,7 @@ public final class BearerData {
             }
             if (bData.userData != null) {
                 if (isCmasAlertCategory(serviceCategory)) {
-                    decodeCmasUserData(bData, serviceCategory);
+                    decodeCmasUserData(bData, serviceCategory, budget);
                 } else if (bData.userData.msgEncoding == UserData.ENCODING_IS91_EXTENDED_PROTOCOL) {
                     if ((foundSubparamMask ^
                             (1 << SUBPARAM_MESSAGE_IDENTIFIER) ^
@@ -2040,15 +2068,19 @@ public final class BearerData {
                     }
                     decodeIs91(bData);
                 } else {
-                    decodeUserDataPayload(bData.userData, bData.hasUserDataHeader);
+                    decodeUserDataPayload(bData.userData, bData.hasUserDataHeader, budget);
                 }
+                SmsCodecMetrics.countEncoding(bData.userData.msgEncoding);
             }
+            SmsCodecMetrics.countMessageType(bData.messageType);
+            SmsCodecMetrics.recordLatency(SmsCodecMetrics.OP_BEARER_DATA_DECODE, startNanos);
             return bData;
         } catch (BitwiseInputStream.AccessException ex) {
             Rlog.e(LOG_TAG, "BearerData decode failed: " + ex);
         } catch (CodingException ex) {
             Rlog.e(LOG_TAG, "BearerData decode failed: " + ex);
         }
+        SmsCodecMetrics.countMalformed(SmsCodecMetrics.MALFORMED_BEARER_DATA);
         return null;
     }
 }
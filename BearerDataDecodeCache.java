@@ -0,0 +1,141 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache of decoded bearer data, keyed by the encoded bytes and
+ * service category, so that retransmitted and bulk copies of a message
+ * are only decoded once.
+ *
+ * Like {@link SmsAddressCache}, this is a fixed size, two way set
+ * associative table of immutable entries, read without a lock.  Entries
+ * are found by a 64 bit hash of the key and then compared byte for byte,
+ * so a hash collision only costs a miss.  Results are shared
+ * {@link CompactBearerData} objects, which are immutable and expand into
+ * copies, so callers cannot alter what later hits return.
+ */
+public final class BearerDataDecodeCache {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final long C1 = 0x87C37B91114253D5L;
+    private static final long C2 = 0x4CF5AD432745937FL;
+
+    private static final class Entry {
+        final long hash;
+        final int serviceCategory;
+        final byte[] key;
+        final CompactBearerData value;
+
+        Entry(long hash, int serviceCategory, byte[] key, CompactBearerData value) {
+            this.hash = hash;
+            this.serviceCategory = serviceCategory;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final Entry[] mEntries;
+    private final int mMask;
+    private final DecodeLimits mLimits;
+
+    /**
+     * @param capacity maximum number of messages, rounded up to a power of two
+     * @param limits the limits bearer data is decoded with
+     */
+    public BearerDataDecodeCache(int capacity, DecodeLimits limits) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mEntries = new Entry[size];
+        mMask = size - 1;
+        mLimits = limits;
+    }
+
+    public BearerDataDecodeCache(int capacity) {
+        this(capacity, DecodeLimits.DEFAULT);
+    }
+
+    /**
+     * Decode bearer data, or return the result of an earlier decode of the
+     * same bytes and service category.
+     *
+     * @param smsData the encoded bearer data, which is copied if cached
+     * @param serviceCategory the envelope service category
+     * @return the decoded bearer data, or null if it cannot be decoded
+     *     within the limits.  Failures are not cached.
+     */
+    public CompactBearerData decode(byte[] smsData, int serviceCategory) {
+        long hash = hash(serviceCategory, smsData);
+        int set = (int) hash & mMask & ~1;
+        Entry entry = mEntries[set];
+        if (matches(entry, hash, serviceCategory, smsData)) return entry.value;
+        entry = mEntries[set + 1];
+        if (matches(entry, hash, serviceCategory, smsData)) return entry.value;
+
+        BearerData bData;
+        try {
+            bData = BearerData.decode(smsData, serviceCategory, mLimits);
+        } catch (RuntimeException ex) {
+            // Malformed data the decoder did not catch is still undecodable.
+            return null;
+        }
+        if (bData == null) return null;
+        CompactBearerData value = CompactBearerData.of(bData);
+        // Keep the most recent entry first, pushing out the older one.
+        mEntries[set + 1] = mEntries[set];
+        mEntries[set] = new Entry(hash, serviceCategory, smsData.clone(), value);
+        return value;
+    }
+
+    public void clear() {
+        Arrays.fill(mEntries, null);
+    }
+
+    private static boolean matches(Entry entry, long hash, int serviceCategory, byte[] data) {
+        return entry != null && entry.hash == hash && entry.serviceCategory == serviceCategory
+                && Arrays.equals(entry.key, data);
+    }
+
+    /**
+     * 64 bit hash of the service category and data, mixing eight bytes at
+     * a time in the manner of MurmurHash3.
+     */
+    static long hash(int serviceCategory, byte[] data) {
+        int length = data.length;
+        long h = ((long) serviceCategory << 32) ^ length;
+        int i = 0;
+        for (int end = length & ~7; i < end; i += 8) {
+            h = mixBlock(h, getLong(data, i));
+            h = Long.rotateLeft(h, 27) * 5 + 0x52DCE729;
+        }
+        if (i < length) {
+            long k = 0;
+            for (; i < length; i++) {
+                k = (k << 8) | (data[i] & 0xFF);
+            }
+            h = mixBlock(h, k);
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static long mixBlock(long h, long k) {
+        k *= C1;
+        k = Long.rotateLeft(k, 31);
+        k *= C2;
+        return h ^ k;
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        return ((long) data[offset] << 56)
+                | ((long) (data[offset + 1] & 0xFF) << 48)
+                | ((long) (data[offset + 2] & 0xFF) << 40)
+                | ((long) (data[offset + 3] & 0xFF) << 32)
+                | ((long) (data[offset + 4] & 0xFF) << 24)
+                | ((data[offset + 5] & 0xFF) << 16)
+                | ((data[offset + 6] & 0xFF) << 8)
+                | (data[offset + 7] & 0xFF);
+    }
+}
@@ -31,6 +31,40 @@ public class BitwiseInputStream {
         mPos = 0;
     }
 
+    /**
+     * Create object from a region of a byte array, without copying it.
+     *
+     * @param buf a byte array containing data
+     * @param offset the index of the first byte to read
+     * @param length the number of bytes that may be read
+     */
+    public BitwiseInputStream(byte buf[], int offset, int length) {
+        mBuf = buf;
+        mEnd = (offset + length) << 3;
+        mPos = offset << 3;
+    }
+
+    /**
+     * Point this object at a new region of a byte array, so that it can be
+     * reused without allocating.
+     *
+     * @param buf a byte array containing data
+     * @param offset the index of the first byte to read
+     * @param length the number of bytes that may be read
+     */
+    public void reset(byte buf[], int offset, int length) {
+        mBuf = buf;
+        mEnd = (offset + length) << 3;
+        mPos = offset << 3;
+    }
+
+    /**
+     * Return the current position, in bits, from the msb in byte 0.
+     */
+    public int getPosition() {
+        return mPos;
+    }
+
     /**
      * Return the number of bit still available for reading.
      */
@@ -5,11 +5,14 @@ public class BitwiseOutputStream {
     // The byte array being written to, which will be grown as needed.
     private byte[] mBuf;
 
-    // The current position offset, in bits, from the msb in byte 0.
-    private int mPos;
+    // The number of whole bytes written to mBuf.
+    private int mLen;
 
-    // The last bit offset, given the current buf length.
-    private int mEnd;
+    // Bits not yet written to mBuf, left aligned.
+    private long mAcc;
+
+    // The number of bits held in mAcc, always less than 64.
+    private int mAccBits;
 
     /**
      * An exception to report access problems.
@@ -26,9 +29,24 @@ public class BitwiseOutputStream {
      * @param startingLength initial internal byte array length in bytes
      */
     public BitwiseOutputStream(int startingLength) {
-        mBuf = new byte[startingLength];
-        mEnd = startingLength << 3;
-        mPos = 0;
+        mBuf = new byte[Math.max(startingLength, 8)];
+    }
+
+    /**
+     * Discard the data written so far, keeping the internal buffer, so that
+     * this object can be reused without allocating.
+     */
+    public void reset() {
+        mLen = 0;
+        mAcc = 0;
+        mAccBits = 0;
+    }
+
+    /**
+     * Return the number of bits written.
+     */
+    public int getBitLength() {
+        return (mLen << 3) + mAccBits;
     }
 
     /**
@@ -37,71 +55,144 @@ public class BitwiseOutputStream {
      * @return newly allocated byte array
      */
     public byte[] toByteArray() {
-        int len = (mPos >>> 3) + ((mPos & 0x07) > 0 ? 1 : 0);  // &7==%8
-        byte[] newBuf = new byte[len];
-        System.arraycopy(mBuf, 0, newBuf, 0, len);
+        int accBytes = (mAccBits + 7) >>> 3;
+        byte[] newBuf = new byte[mLen + accBytes];
+        System.arraycopy(mBuf, 0, newBuf, 0, mLen);
+        long acc = mAcc;
+        for (int i = mLen; i < newBuf.length; i++) {
+            newBuf[i] = (byte) (acc >>> 56);
+            acc <<= 8;
+        }
         return newBuf;
     }
 
     /**
-     * Allocate a new internal buffer, if needed.
+     * Allocate a new internal buffer, if needed, at least doubling its size.
      *
-     * @param bits additional bits to be accommodated
+     * @param bytes additional bytes to be accommodated
      */
-    private void possExpand(int bits) {
-        if ((mPos + bits) < mEnd) return;
-        byte[] newBuf = new byte[(mPos + bits) >>> 2];
-        System.arraycopy(mBuf, 0, newBuf, 0, mEnd >>> 3);
+    private void possExpand(int bytes) {
+        int needed = mLen + bytes;
+        if (needed <= mBuf.length) return;
+        byte[] newBuf = new byte[Math.max(needed, mBuf.length << 1)];
+        System.arraycopy(mBuf, 0, newBuf, 0, mLen);
         mBuf = newBuf;
-        mEnd = newBuf.length << 3;
+    }
+
+    // Write out the whole bytes held in the accumulator.
+    private void flushBytes() {
+        int bytes = mAccBits >>> 3;
+        possExpand(bytes);
+        for (int i = 0; i < bytes; i++) {
+            mBuf[mLen++] = (byte) (mAcc >>> 56);
+            mAcc <<= 8;
+        }
+        mAccBits &= 0x07;
     }
 
     /**
      * Write some data and increment the current position.
      *
-     * The 8-bit limit on access to bitwise streams is intentional to
-     * avoid endianness issues.
-     *
-     * @param bits the amount of data to write (gte 0, lte 8)
+     * @param bits the amount of data to write (gte 0, lte 32)
      * @param data to write, will be masked to expose only bits param from lsb
      */
     public void write(int bits, int data) throws AccessException {
-        if ((bits < 0) || (bits > 8)) {
+        if ((bits < 0) || (bits > 32)) {
+            throw new AccessException("illegal write (" + bits + " bits)");
+        }
+        put(bits, data & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Write some data and increment the current position.
+     *
+     * @param bits the amount of data to write (gte 0, lte 64)
+     * @param data to write, will be masked to expose only bits param from lsb
+     */
+    public void writeLong(int bits, long data) throws AccessException {
+        if ((bits < 0) || (bits > 64)) {
             throw new AccessException("illegal write (" + bits + " bits)");
         }
-        possExpand(bits);
-        data &= (-1 >>> (32 - bits));
-        int index = mPos >>> 3;
-        int offset = 16 - (mPos & 0x07) - bits;  // &7==%8
-        data <<= offset;
-        mPos += bits;
-        mBuf[index] |= data >>> 8;
-        if (offset < 8) mBuf[index + 1] |= data & 0xFF;
+        put(bits, data);
+    }
+
+    private void put(int bits, long data) {
+        if (bits == 0) return;
+        if (bits < 64) data &= (1L << bits) - 1;
+        int free = 64 - mAccBits;
+        if (bits < free) {
+            mAcc |= data << (free - bits);
+            mAccBits += bits;
+            return;
+        }
+        // Fill the accumulator and write it out as a whole word.
+        int rest = bits - free;
+        mAcc |= data >>> rest;
+        possExpand(8);
+        long acc = mAcc;
+        byte[] buf = mBuf;
+        int len = mLen;
+        buf[len] = (byte) (acc >>> 56);
+        buf[len + 1] = (byte) (acc >>> 48);
+        buf[len + 2] = (byte) (acc >>> 40);
+        buf[len + 3] = (byte) (acc >>> 32);
+        buf[len + 4] = (byte) (acc >>> 24);
+        buf[len + 5] = (byte) (acc >>> 16);
+        buf[len + 6] = (byte) (acc >>> 8);
+        buf[len + 7] = (byte) acc;
+        mLen = len + 8;
+        mAcc = rest == 0 ? 0 : data << (64 - rest);
+        mAccBits = rest;
     }
 
     /**
      * Write data in bulk from a byte array and increment the current position.
+     * Whole bytes are copied directly when the position is byte aligned.
      *
-     * @param bits the amount of data to write
+     * @param bits the amount of data to write, from the msb of byte 0
      * @param arr the byte array containing data to be written
      */
     public void writeByteArray(int bits, byte[] arr) throws AccessException {
-        for (int i = 0; i < arr.length; i++) {
-            int increment = Math.min(8, bits - (i << 3));
-            if (increment > 0) {
-                write(increment, (byte)(arr[i] >>> (8 - increment)));
+        bits = Math.min(bits, arr.length << 3);
+        if (bits <= 0) return;
+        int bytes = bits >>> 3;
+        int i = 0;
+        if ((mAccBits & 0x07) == 0) {
+            flushBytes();
+            possExpand(bytes);
+            System.arraycopy(arr, 0, mBuf, mLen, bytes);
+            mLen += bytes;
+            i = bytes;
+        } else {
+            for (int end = bytes & ~0x07; i < end; i += 8) {
+                put(64, ((long) arr[i] << 56)
+                        | ((long) (arr[i + 1] & 0xFF) << 48)
+                        | ((long) (arr[i + 2] & 0xFF) << 40)
+                        | ((long) (arr[i + 3] & 0xFF) << 32)
+                        | ((long) (arr[i + 4] & 0xFF) << 24)
+                        | ((arr[i + 5] & 0xFF) << 16)
+                        | ((arr[i + 6] & 0xFF) << 8)
+                        | (arr[i + 7] & 0xFF));
+            }
+            for (; i < bytes; i++) {
+                put(8, arr[i]);
             }
         }
+        int restBits = bits & 0x07;
+        if (restBits > 0) {
+            put(restBits, (arr[i] & 0xFF) >>> (8 - restBits));
+        }
     }
 
     /**
-     * Increment the current position, implicitly writing zeros.
+     * Increment the current position, writing zeros.
      *
      * @param bits the amount by which to increment the position
      */
     public void skip(int bits) {
-        possExpand(bits);
-        mPos += bits;
+        for (; bits > 64; bits -= 64) {
+            put(64, 0);
+        }
+        put(bits, 0);
     }
 }
-
@@ -0,0 +1,285 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suppresses repeated copies of a CMAS alert before they are decoded.
+ *
+ * Carriers rebroadcast the same alert many times.  An alert is identified
+ * by its service category, message identifier and a hash of the still
+ * encoded user data, found by walking the bearer data with
+ * {@link SmsTlvWalker}, so a repeat is recognized without
+ * {@link BearerData#decode(byte[], int)} ever running for it.
+ *
+ * Seen alerts are kept in a fixed size open addressing table of primitive
+ * keys, each entry expiring after a time to live.  Lookups probe a bounded
+ * number of slots; when those are all live, the entry closest to expiry is
+ * replaced, so a full table at worst lets a repeat through.
+ *
+ * Checking an alert does not remember it.  The caller marks it seen once
+ * it has been accepted, so that repeats can still deliver an alert whose
+ * first copy was dropped or failed to decode.
+ */
+public class CmasDuplicateFilter {
+    private static final String LOG_TAG = "CmasDuplicateFilter";
+
+    /** Default number of alerts remembered. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** Default time an alert is remembered for, in milliseconds. */
+    public static final long DEFAULT_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final int MAX_PROBES = 8;
+
+    // Key 0 marks a free slot.
+    private static final long EMPTY = 0;
+
+    /** Key of an alert that cannot be identified, never a duplicate. */
+    public static final long NO_KEY = EMPTY;
+
+    private final long[] mKeys;
+    private final long[] mExpiry;
+    private final int mMask;
+    private final long mTtlNanos;
+
+    private final SmsTlvWalker mWalker = new SmsTlvWalker();
+    private final KeyVisitor mVisitor = new KeyVisitor();
+
+    private final AtomicLong mSuppressed = new AtomicLong();
+    private final AtomicLong mPassed = new AtomicLong();
+
+    /**
+     * Collects the parts of the alert key while walking the bearer data.
+     */
+    private final class KeyVisitor extends SmsTlvVisitor.Simple {
+        int serviceCategory;
+        int messageId;
+        int payloadHash;
+        boolean hasMessageId;
+        boolean hasUserData;
+
+        void clear(int category) {
+            serviceCategory = category;
+            hasMessageId = false;
+            hasUserData = false;
+        }
+
+        @Override
+        public boolean onServiceCategory(int category) {
+            serviceCategory = category;
+            return true;
+        }
+
+        @Override
+        public boolean onBearerData(byte[] data, int offset, int length) {
+            return mWalker.walkBearerData(data, offset, length, this);
+        }
+
+        @Override
+        public boolean onMessageIdentifier(int messageType, int msgId,
+                boolean hasUserDataHeader) {
+            messageId = msgId;
+            hasMessageId = true;
+            return !hasUserData;
+        }
+
+        @Override
+        public boolean onUserData(int msgEncoding, int msgType, int numFields, byte[] data,
+                int bitOffset, int bitLength) {
+            payloadHash = hash(msgEncoding, data, bitOffset >>> 3,
+                    (bitOffset + bitLength + 7) >>> 3);
+            hasUserData = true;
+            return !hasMessageId;
+        }
+    }
+
+    public CmasDuplicateFilter() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param capacity number of alerts remembered, rounded up to a power of two
+     * @param ttlMillis time an alert is remembered for after it was last seen
+     */
+    public CmasDuplicateFilter(int capacity, long ttlMillis) {
+        if (capacity < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("capacity " + capacity + ", ttl " + ttlMillis);
+        }
+        int size = Integer.highestOneBit(Math.max(capacity, MAX_PROBES) - 1) << 1;
+        mKeys = new long[size];
+        mExpiry = new long[size];
+        mMask = size - 1;
+        mTtlNanos = ttlMillis * 1000000L;
+    }
+
+    /**
+     * Returns the key identifying an alert, for {@link #isDuplicate(long)}
+     * and {@link #markSeen(long)}.
+     *
+     * @param serviceCategory the envelope service category
+     * @param bearerData encoded bearer data of the alert
+     * @return the key, or {@link #NO_KEY} if the alert cannot be identified
+     *     (no message identifier or user data, or malformed bearer data)
+     */
+    public synchronized long alertKey(int serviceCategory, byte[] bearerData, int offset,
+            int length) {
+        mVisitor.clear(serviceCategory);
+        try {
+            mWalker.walkBearerData(bearerData, offset, length, mVisitor);
+        } catch (RuntimeException ex) {
+            Rlog.w(LOG_TAG, "alertKey: unable to walk bearer data: " + ex);
+        }
+        return visitedKey();
+    }
+
+    /**
+     * Same as {@link #alertKey(int, byte[], int, int)}, for a message laid
+     * out as for {@link SmsMessage#parsePduFromEfRecord(byte[])}.
+     */
+    public synchronized long alertKeyEfRecord(byte[] pdu, int offset, int length) {
+        mVisitor.clear(-1);
+        try {
+            mWalker.walkEfRecord(pdu, offset, length, mVisitor);
+        } catch (RuntimeException ex) {
+            Rlog.w(LOG_TAG, "alertKeyEfRecord: unable to walk pdu: " + ex);
+        }
+        return visitedKey();
+    }
+
+    /**
+     * Check whether an alert was already seen, without remembering it.
+     *
+     * @return true if the alert is a repeat and should be dropped
+     */
+    public boolean isDuplicate(int serviceCategory, byte[] bearerData, int offset, int length) {
+        return isDuplicate(alertKey(serviceCategory, bearerData, offset, length));
+    }
+
+    /**
+     * Same as {@link #isDuplicate(int, byte[], int, int)}, for a message laid
+     * out as for {@link SmsMessage#parsePduFromEfRecord(byte[])}.
+     */
+    public boolean isDuplicateEfRecord(byte[] pdu, int offset, int length) {
+        return isDuplicate(alertKeyEfRecord(pdu, offset, length));
+    }
+
+    /**
+     * Check whether the alert with a key was seen and has not expired.
+     * This does not remember the alert or refresh its time to live; call
+     * {@link #markSeen(long)} once it has been accepted, so that a copy
+     * that was dropped or failed to decode can be recovered from a repeat.
+     *
+     * @return true if the alert is a repeat and should be dropped; false if
+     *     it is new, or the key is {@link #NO_KEY}
+     */
+    public synchronized boolean isDuplicate(long key) {
+        if (key != NO_KEY && find(key, System.nanoTime()) >= 0) {
+            mSuppressed.incrementAndGet();
+            return true;
+        }
+        mPassed.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Remember an alert, or refresh its time to live.  Does nothing for
+     * {@link #NO_KEY}.
+     */
+    public synchronized void markSeen(long key) {
+        if (key == NO_KEY) return;
+        long now = System.nanoTime();
+        int index = find(key, now);
+        if (index < 0) index = slotFor(key, now);
+        mKeys[index] = key;
+        mExpiry[index] = now + mTtlNanos;
+    }
+
+    /**
+     * Forget an alert, e.g. when it could not be decoded after
+     * {@link #markSeen(long)}, so that a repeat is let through.
+     */
+    public synchronized void forget(long key) {
+        if (key == NO_KEY) return;
+        long now = System.nanoTime();
+        int index = find(key, now);
+        // Expire the entry rather than freeing it, to keep later probes intact.
+        if (index >= 0) mExpiry[index] = now;
+    }
+
+    private long visitedKey() {
+        KeyVisitor v = mVisitor;
+        if (!v.hasMessageId || !v.hasUserData) return NO_KEY;
+        long key = ((long) (v.serviceCategory & 0xFFFF) << 48)
+                | ((long) (v.messageId & 0xFFFF) << 32)
+                | (v.payloadHash & 0xFFFFFFFFL);
+        return key == EMPTY ? 1 : key;
+    }
+
+    /**
+     * Returns the slot of a live entry for the key, or -1.
+     */
+    private int find(long key, long now) {
+        int slot = mix(key) & mMask;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int index = (slot + i) & mMask;
+            long k = mKeys[index];
+            if (k == EMPTY) return -1;
+            if (k == key && mExpiry[index] - now > 0) return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the slot to store a new key in: the first free or expired
+     * one probed, else the one closest to expiry.
+     */
+    private int slotFor(long key, long now) {
+        int slot = mix(key) & mMask;
+        int oldest = -1;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int index = (slot + i) & mMask;
+            if (mKeys[index] == EMPTY || mExpiry[index] - now <= 0) return index;
+            if (oldest < 0 || mExpiry[index] - mExpiry[oldest] < 0) oldest = index;
+        }
+        return oldest;
+    }
+
+    /**
+     * Forget all alerts seen so far.  The counters are kept.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = EMPTY;
+        }
+    }
+
+    /** Number of alerts dropped as repeats. */
+    public long getSuppressedCount() {
+        return mSuppressed.get();
+    }
+
+    /** Number of alerts let through. */
+    public long getPassedCount() {
+        return mPassed.get();
+    }
+
+    private static int hash(int seed, byte[] data, int start, int end) {
+        // FNV-1a
+        int h = 0x811C9DC5 ^ seed;
+        for (int i = start; i < end; i++) {
+            h = (h ^ (data[i] & 0xFF)) * 0x01000193;
+        }
+        return h;
+    }
+
+    private static int mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "CmasDuplicateFilter{suppressed=" + getSuppressedCount()
+                + ", passed=" + getPassedCount() + '}';
+    }
+}
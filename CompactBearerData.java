@@ -0,0 +1,442 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compact, immutable form of a BearerData, for holding many decoded
+ * messages in memory.
+ *
+ * The small fields and their presence flags are packed into two longs and
+ * an int, time stamps are kept as packed longs, and the callback number as
+ * its digits and string.  Program data and results are held in arrays,
+ * allocated only when present.  A message with text thus takes one object
+ * plus its payload, text and digits, instead of a BearerData, UserData and
+ * CdmaSmsAddress with their lists.  The user data header is kept as
+ * decoded, since its encoding does not keep malformed elements.
+ *
+ * Getters of optional fields return {@link #NOT_SET} when absent.
+ * {@link #toBearerData()} expands it again, into copies, so one object can
+ * be shared by any number of threads.
+ */
+public final class CompactBearerData {
+
+    /** Value of an optional field that is not present. */
+    public static final int NOT_SET = -1;
+
+    // Fields of mBits0.
+    private static final int MESSAGE_TYPE_SHIFT      = 0;    // 4 bits
+    private static final int MESSAGE_ID_SHIFT        = 4;    // 16 bits
+    private static final int PRIORITY_SHIFT          = 20;   // 2 bits
+    private static final int PRIVACY_SHIFT           = 22;   // 2 bits
+    private static final int ALERT_SHIFT             = 24;   // 2 bits
+    private static final int DISPLAY_MODE_SHIFT      = 26;   // 2 bits
+    private static final int LANGUAGE_SHIFT          = 28;   // 8 bits
+    private static final int ERROR_CLASS_SHIFT       = 36;   // 8 bits
+    private static final int MESSAGE_STATUS_SHIFT    = 44;   // 8 bits
+    private static final long USER_ACK_REQ           = 1L << 52;
+    private static final long DELIVERY_ACK_REQ       = 1L << 53;
+    private static final long READ_ACK_REQ           = 1L << 54;
+    private static final long REPORT_REQ             = 1L << 55;
+    private static final long HAS_USER_DATA_HEADER   = 1L << 56;
+    private static final long PRIORITY_SET           = 1L << 57;
+    private static final long PRIVACY_SET            = 1L << 58;
+    private static final long ALERT_SET              = 1L << 59;
+    private static final long DISPLAY_MODE_SET       = 1L << 60;
+    private static final long LANGUAGE_SET           = 1L << 61;
+    private static final long MESSAGE_STATUS_SET     = 1L << 62;
+    private static final long USER_RESPONSE_CODE_SET = 1L << 63;
+
+    // Fields of mBits1.
+    private static final int USER_RESPONSE_CODE_SHIFT = 0;   // 8 bits
+    private static final int VALIDITY_REL_SHIFT       = 8;   // 8 bits
+    private static final int DEFERRED_REL_SHIFT       = 16;  // 8 bits
+    private static final int NUMBER_OF_MESSAGES_SHIFT = 24;  // 8 bits, signed
+    private static final int DEPOSIT_INDEX_SHIFT      = 32;  // 16 bits
+    private static final int MSG_ENCODING_SHIFT       = 48;  // 5 bits
+    private static final long VALIDITY_REL_SET        = 1L << 53;
+    private static final long DEFERRED_REL_SET        = 1L << 54;
+    private static final long USER_DATA_SET           = 1L << 55;
+    private static final int USER_DATA_MSG_TYPE_SHIFT = 56;  // 8 bits
+
+    // Fields of mBits2.
+    private static final int NUM_FIELDS_SHIFT         = 0;   // 10 bits
+    private static final int PADDING_BITS_SHIFT       = 10;  // 3 bits
+    private static final int CB_DIGIT_MODE_SHIFT      = 13;  // 1 bit
+    private static final int CB_NUMBER_MODE_SHIFT     = 14;  // 1 bit
+    private static final int CB_TON_SHIFT             = 15;  // 3 bits
+    private static final int CB_NUMBER_PLAN_SHIFT     = 18;  // 4 bits
+    private static final int CB_NUMBER_OF_DIGITS_SHIFT = 22; // 8 bits
+    private static final int CALLBACK_SET             = 1 << 30;
+
+    private final long mBits0;
+    private final long mBits1;
+    private final int mBits2;
+    private final long mMsgCenterTimeStamp;
+    private final long mValidityPeriodAbsolute;
+    private final long mDeferredDeliveryTimeAbsolute;
+    private final byte[] mPayload;
+    private final String mText;
+    private final SmsHeader mUserDataHeader;
+    private final byte[] mUserDataHeaderBytes;
+    private final byte[] mCallbackDigits;
+    private final String mCallbackAddress;
+    private final SmsCbCmasInfo mCmasWarningInfo;
+    private final CdmaSmsCbProgramData[] mProgramData;
+    private final CdmaSmsCbProgramResults[] mProgramResults;
+
+    private CompactBearerData(BearerData bData) {
+        long bits0 = field(bData.messageType, MESSAGE_TYPE_SHIFT, 4)
+                | field(bData.messageId, MESSAGE_ID_SHIFT, 16)
+                | field(bData.priority, PRIORITY_SHIFT, 2)
+                | field(bData.privacy, PRIVACY_SHIFT, 2)
+                | field(bData.alert, ALERT_SHIFT, 2)
+                | field(bData.displayMode, DISPLAY_MODE_SHIFT, 2)
+                | field(bData.language, LANGUAGE_SHIFT, 8)
+                | field(bData.errorClass, ERROR_CLASS_SHIFT, 8)
+                | field(bData.messageStatus, MESSAGE_STATUS_SHIFT, 8);
+        if (bData.userAckReq) bits0 |= USER_ACK_REQ;
+        if (bData.deliveryAckReq) bits0 |= DELIVERY_ACK_REQ;
+        if (bData.readAckReq) bits0 |= READ_ACK_REQ;
+        if (bData.reportReq) bits0 |= REPORT_REQ;
+        if (bData.hasUserDataHeader) bits0 |= HAS_USER_DATA_HEADER;
+        if (bData.priorityIndicatorSet) bits0 |= PRIORITY_SET;
+        if (bData.privacyIndicatorSet) bits0 |= PRIVACY_SET;
+        if (bData.alertIndicatorSet) bits0 |= ALERT_SET;
+        if (bData.displayModeSet) bits0 |= DISPLAY_MODE_SET;
+        if (bData.languageIndicatorSet) bits0 |= LANGUAGE_SET;
+        if (bData.messageStatusSet) bits0 |= MESSAGE_STATUS_SET;
+        if (bData.userResponseCodeSet) bits0 |= USER_RESPONSE_CODE_SET;
+        mBits0 = bits0;
+
+        long bits1 = field(bData.userResponseCode, USER_RESPONSE_CODE_SHIFT, 8)
+                | field(bData.validityPeriodRelative, VALIDITY_REL_SHIFT, 8)
+                | field(bData.deferredDeliveryTimeRelative, DEFERRED_REL_SHIFT, 8)
+                | field(bData.numberOfMessages, NUMBER_OF_MESSAGES_SHIFT, 8)
+                | field(bData.depositIndex, DEPOSIT_INDEX_SHIFT, 16);
+        if (bData.validityPeriodRelativeSet) bits1 |= VALIDITY_REL_SET;
+        if (bData.deferredDeliveryTimeRelativeSet) bits1 |= DEFERRED_REL_SET;
+        int bits2 = 0;
+        UserData userData = bData.userData;
+        if (userData != null) {
+            bits1 |= USER_DATA_SET
+                    | field(userData.msgEncoding, MSG_ENCODING_SHIFT, 5)
+                    | field(userData.msgType, USER_DATA_MSG_TYPE_SHIFT, 8);
+            bits2 |= (int) (field(userData.numFields, NUM_FIELDS_SHIFT, 10)
+                    | field(userData.paddingBits, PADDING_BITS_SHIFT, 3));
+            mPayload = userData.payload;
+            mText = userData.payloadStr;
+            mUserDataHeader = userData.userDataHeader;
+            mUserDataHeaderBytes = userData.userDataHeaderBytes;
+        } else {
+            mPayload = null;
+            mText = null;
+            mUserDataHeader = null;
+            mUserDataHeaderBytes = null;
+        }
+        mBits1 = bits1;
+
+        CdmaSmsAddress callback = bData.callbackNumber;
+        if (callback != null) {
+            bits2 |= CALLBACK_SET | (int) (field(callback.digitMode, CB_DIGIT_MODE_SHIFT, 1)
+                    | field(callback.numberMode, CB_NUMBER_MODE_SHIFT, 1)
+                    | field(callback.ton, CB_TON_SHIFT, 3)
+                    | field(callback.numberPlan, CB_NUMBER_PLAN_SHIFT, 4)
+                    | field(callback.numberOfDigits, CB_NUMBER_OF_DIGITS_SHIFT, 8));
+            mCallbackDigits = callback.origBytes;
+            mCallbackAddress = callback.address;
+        } else {
+            mCallbackDigits = null;
+            mCallbackAddress = null;
+        }
+        mBits2 = bits2;
+
+        mMsgCenterTimeStamp = bData.msgCenterTimeStamp;
+        mValidityPeriodAbsolute = bData.validityPeriodAbsolute;
+        mDeferredDeliveryTimeAbsolute = bData.deferredDeliveryTimeAbsolute;
+        mCmasWarningInfo = bData.cmasWarningInfo;
+        mProgramData = bData.serviceCategoryProgramData != null
+                ? bData.serviceCategoryProgramData.toArray(new CdmaSmsCbProgramData[0]) : null;
+        mProgramResults = bData.serviceCategoryProgramResults != null
+                ? bData.serviceCategoryProgramResults.toArray(new CdmaSmsCbProgramResults[0])
+                : null;
+    }
+
+    /**
+     * Pack a BearerData.  Its payload, digit arrays and user data header
+     * are taken over, not copied, so it must not be modified afterwards.
+     *
+     * Fields keep the width they have in the BearerData encoding, so every
+     * decoded message fits; wider values, which only hand built objects
+     * can hold, are truncated as {@link BearerData#encode} would.  The
+     * message count is signed, since IS-91 voicemail status carries it as
+     * text and may decode to a negative count.
+     */
+    public static CompactBearerData of(BearerData bData) {
+        return new CompactBearerData(bData);
+    }
+
+    /**
+     * Expand into a new BearerData, with its own copies of the payload,
+     * digit arrays and user data header.
+     */
+    public BearerData toBearerData() {
+        BearerData bData = new BearerData();
+        bData.messageType = getMessageType();
+        bData.messageId = getMessageId();
+        bData.priority = get(mBits0, PRIORITY_SHIFT, 2);
+        bData.priorityIndicatorSet = (mBits0 & PRIORITY_SET) != 0;
+        bData.privacy = get(mBits0, PRIVACY_SHIFT, 2);
+        bData.privacyIndicatorSet = (mBits0 & PRIVACY_SET) != 0;
+        bData.alert = get(mBits0, ALERT_SHIFT, 2);
+        bData.alertIndicatorSet = (mBits0 & ALERT_SET) != 0;
+        bData.displayMode = get(mBits0, DISPLAY_MODE_SHIFT, 2);
+        bData.displayModeSet = (mBits0 & DISPLAY_MODE_SET) != 0;
+        bData.language = get(mBits0, LANGUAGE_SHIFT, 8);
+        bData.languageIndicatorSet = (mBits0 & LANGUAGE_SET) != 0;
+        bData.errorClass = get(mBits0, ERROR_CLASS_SHIFT, 8);
+        bData.messageStatus = get(mBits0, MESSAGE_STATUS_SHIFT, 8);
+        bData.messageStatusSet = (mBits0 & MESSAGE_STATUS_SET) != 0;
+        bData.userResponseCode = get(mBits1, USER_RESPONSE_CODE_SHIFT, 8);
+        bData.userResponseCodeSet = (mBits0 & USER_RESPONSE_CODE_SET) != 0;
+        bData.userAckReq = isUserAckReq();
+        bData.deliveryAckReq = isDeliveryAckReq();
+        bData.readAckReq = isReadAckReq();
+        bData.reportReq = isReportReq();
+        bData.hasUserDataHeader = (mBits0 & HAS_USER_DATA_HEADER) != 0;
+        bData.validityPeriodRelative = get(mBits1, VALIDITY_REL_SHIFT, 8);
+        bData.validityPeriodRelativeSet = (mBits1 & VALIDITY_REL_SET) != 0;
+        bData.deferredDeliveryTimeRelative = get(mBits1, DEFERRED_REL_SHIFT, 8);
+        bData.deferredDeliveryTimeRelativeSet = (mBits1 & DEFERRED_REL_SET) != 0;
+        bData.numberOfMessages = getNumberOfMessages();
+        bData.depositIndex = getDepositIndex();
+        bData.msgCenterTimeStamp = mMsgCenterTimeStamp;
+        bData.validityPeriodAbsolute = mValidityPeriodAbsolute;
+        bData.deferredDeliveryTimeAbsolute = mDeferredDeliveryTimeAbsolute;
+        bData.cmasWarningInfo = mCmasWarningInfo;
+        if (mProgramData != null) {
+            bData.serviceCategoryProgramData =
+                    new ArrayList<CdmaSmsCbProgramData>(Arrays.asList(mProgramData));
+        }
+        if (mProgramResults != null) {
+            bData.serviceCategoryProgramResults =
+                    new ArrayList<CdmaSmsCbProgramResults>(Arrays.asList(mProgramResults));
+        }
+        if (hasUserData()) {
+            UserData userData = new UserData();
+            userData.msgEncoding = getMsgEncoding();
+            userData.msgEncodingSet = true;
+            userData.msgType = getUserDataMsgType();
+            userData.numFields = getNumFields();
+            userData.paddingBits = get(mBits2, PADDING_BITS_SHIFT, 3);
+            userData.payload = copy(mPayload);
+            userData.payloadStr = mText;
+            userData.userDataHeader = copy(mUserDataHeader);
+            userData.userDataHeaderBytes = copy(mUserDataHeaderBytes);
+            bData.userData = userData;
+        }
+        if ((mBits2 & CALLBACK_SET) != 0) {
+            CdmaSmsAddress callback = new CdmaSmsAddress();
+            callback.digitMode = get(mBits2, CB_DIGIT_MODE_SHIFT, 1);
+            callback.numberMode = get(mBits2, CB_NUMBER_MODE_SHIFT, 1);
+            callback.ton = get(mBits2, CB_TON_SHIFT, 3);
+            callback.numberPlan = get(mBits2, CB_NUMBER_PLAN_SHIFT, 4);
+            callback.numberOfDigits = get(mBits2, CB_NUMBER_OF_DIGITS_SHIFT, 8);
+            callback.origBytes = copy(mCallbackDigits);
+            callback.address = mCallbackAddress;
+            bData.callbackNumber = callback;
+        }
+        return bData;
+    }
+
+    private static byte[] copy(byte[] data) {
+        return data != null ? data.clone() : null;
+    }
+
+    // Deep copy, since SmsHeader and its elements are mutable.
+    private static SmsHeader copy(SmsHeader header) {
+        if (header == null) return null;
+        SmsHeader result = new SmsHeader();
+        if (header.portAddrs != null) {
+            result.portAddrs = new SmsHeader.PortAddrs();
+            result.portAddrs.destPort = header.portAddrs.destPort;
+            result.portAddrs.origPort = header.portAddrs.origPort;
+            result.portAddrs.areEightBits = header.portAddrs.areEightBits;
+        }
+        if (header.concatRef != null) {
+            result.concatRef = new SmsHeader.ConcatRef();
+            result.concatRef.refNumber = header.concatRef.refNumber;
+            result.concatRef.seqNumber = header.concatRef.seqNumber;
+            result.concatRef.msgCount = header.concatRef.msgCount;
+            result.concatRef.isEightBits = header.concatRef.isEightBits;
+        }
+        for (SmsHeader.SpecialSmsMsg msg : header.specialSmsMsgList) {
+            SmsHeader.SpecialSmsMsg msgCopy = new SmsHeader.SpecialSmsMsg();
+            msgCopy.msgIndType = msg.msgIndType;
+            msgCopy.msgCount = msg.msgCount;
+            result.specialSmsMsgList.add(msgCopy);
+        }
+        for (SmsHeader.MiscElt elt : header.miscEltList) {
+            SmsHeader.MiscElt eltCopy = new SmsHeader.MiscElt();
+            eltCopy.id = elt.id;
+            eltCopy.data = copy(elt.data);
+            result.miscEltList.add(eltCopy);
+        }
+        result.languageTable = header.languageTable;
+        result.languageShiftTable = header.languageShiftTable;
+        return result;
+    }
+
+    // Place the low width bits of a value in a bit field.
+    private static long field(int value, int shift, int width) {
+        return (long) (value & ((1 << width) - 1)) << shift;
+    }
+
+    private static int get(long bits, int shift, int width) {
+        return (int) (bits >>> shift) & ((1 << width) - 1);
+    }
+
+    private int getIfSet(long bits, long setBit, int shift, int width) {
+        return (bits & setBit) != 0 ? get(bits, shift, width) : NOT_SET;
+    }
+
+    public int getMessageType() {
+        return get(mBits0, MESSAGE_TYPE_SHIFT, 4);
+    }
+
+    public int getMessageId() {
+        return get(mBits0, MESSAGE_ID_SHIFT, 16);
+    }
+
+    public boolean hasUserDataHeader() {
+        return (mBits0 & HAS_USER_DATA_HEADER) != 0;
+    }
+
+    public int getPriority() {
+        return getIfSet(mBits0, PRIORITY_SET, PRIORITY_SHIFT, 2);
+    }
+
+    public int getPrivacy() {
+        return getIfSet(mBits0, PRIVACY_SET, PRIVACY_SHIFT, 2);
+    }
+
+    public int getAlert() {
+        return getIfSet(mBits0, ALERT_SET, ALERT_SHIFT, 2);
+    }
+
+    public int getDisplayMode() {
+        return getIfSet(mBits0, DISPLAY_MODE_SET, DISPLAY_MODE_SHIFT, 2);
+    }
+
+    public int getLanguage() {
+        return getIfSet(mBits0, LANGUAGE_SET, LANGUAGE_SHIFT, 8);
+    }
+
+    public int getErrorClass() {
+        return getIfSet(mBits0, MESSAGE_STATUS_SET, ERROR_CLASS_SHIFT, 8);
+    }
+
+    public int getMessageStatus() {
+        return getIfSet(mBits0, MESSAGE_STATUS_SET, MESSAGE_STATUS_SHIFT, 8);
+    }
+
+    public int getUserResponseCode() {
+        return (mBits0 & USER_RESPONSE_CODE_SET) != 0
+                ? get(mBits1, USER_RESPONSE_CODE_SHIFT, 8) : NOT_SET;
+    }
+
+    public boolean isUserAckReq() {
+        return (mBits0 & USER_ACK_REQ) != 0;
+    }
+
+    public boolean isDeliveryAckReq() {
+        return (mBits0 & DELIVERY_ACK_REQ) != 0;
+    }
+
+    public boolean isReadAckReq() {
+        return (mBits0 & READ_ACK_REQ) != 0;
+    }
+
+    public boolean isReportReq() {
+        return (mBits0 & REPORT_REQ) != 0;
+    }
+
+    public int getValidityPeriodRelative() {
+        return getIfSet(mBits1, VALIDITY_REL_SET, VALIDITY_REL_SHIFT, 8);
+    }
+
+    public int getDeferredDeliveryTimeRelative() {
+        return getIfSet(mBits1, DEFERRED_REL_SET, DEFERRED_REL_SHIFT, 8);
+    }
+
+    public int getNumberOfMessages() {
+        return (byte) get(mBits1, NUMBER_OF_MESSAGES_SHIFT, 8);
+    }
+
+    public int getDepositIndex() {
+        return get(mBits1, DEPOSIT_INDEX_SHIFT, 16);
+    }
+
+    /** Returns the packed time stamp, or {@link SmsTimeStamp#NONE}. */
+    public long getMsgCenterTimeStamp() {
+        return mMsgCenterTimeStamp;
+    }
+
+    /** Returns the packed time stamp, or {@link SmsTimeStamp#NONE}. */
+    public long getValidityPeriodAbsolute() {
+        return mValidityPeriodAbsolute;
+    }
+
+    /** Returns the packed time stamp, or {@link SmsTimeStamp#NONE}. */
+    public long getDeferredDeliveryTimeAbsolute() {
+        return mDeferredDeliveryTimeAbsolute;
+    }
+
+    public boolean hasUserData() {
+        return (mBits1 & USER_DATA_SET) != 0;
+    }
+
+    public int getMsgEncoding() {
+        return getIfSet(mBits1, USER_DATA_SET, MSG_ENCODING_SHIFT, 5);
+    }
+
+    public int getUserDataMsgType() {
+        return get(mBits1, USER_DATA_MSG_TYPE_SHIFT, 8);
+    }
+
+    public int getNumFields() {
+        return get(mBits2, NUM_FIELDS_SHIFT, 10);
+    }
+
+    /** Returns the decoded text, or null. */
+    public String getText() {
+        return mText;
+    }
+
+    /** Returns the callback number as a string, or null. */
+    public String getCallbackAddress() {
+        return mCallbackAddress;
+    }
+
+    public SmsCbCmasInfo getCmasWarningInfo() {
+        return mCmasWarningInfo;
+    }
+
+    /** Returns the number of SERVICE_CATEGORY_PROGRAM_DATA categories. */
+    public int getProgramDataCount() {
+        return mProgramData != null ? mProgramData.length : 0;
+    }
+
+    public CdmaSmsCbProgramData getProgramData(int index) {
+        return mProgramData[index];
+    }
+
+    /** Returns the number of SERVICE_CATEGORY_PROGRAM_RESULTS categories. */
+    public int getProgramResultsCount() {
+        return mProgramResults != null ? mProgramResults.length : 0;
+    }
+
+    public CdmaSmsCbProgramResults getProgramResults(int index) {
+        return mProgramResults[index];
+    }
+}
@@ -0,0 +1,66 @@
+package com.quectel.jnitestexec.cdma2;
+
+/**
+ * Limits for decoding bearer data from untrusted sources, see
+ * {@link BearerData#decode(byte[], int, DecodeLimits)}.
+ *
+ * The limits bound the work done per message regardless of its content:
+ * the number of subparameters, including reserved ones that are only
+ * skipped, the number of records in a SERVICE_CATEGORY_PROGRAM_DATA
+ * subparameter or CMAS user data, and the bytes allocated for payloads,
+ * addresses and decoded text.  Bearer data exceeding a limit fails to
+ * decode.
+ */
+public final class DecodeLimits {
+
+    /** No limits, as for {@link BearerData#decode(byte[], int)}. */
+    public static final DecodeLimits UNLIMITED = new DecodeLimits(Integer.MAX_VALUE,
+            Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    /**
+     * Limits that no well formed message comes near: each defined
+     * subparameter once plus a few reserved ones, and the allocation of a
+     * message with a full size payload.
+     */
+    public static final DecodeLimits DEFAULT = new DecodeLimits(32, 16, 16, 4096);
+
+    private final int mMaxSubparams;
+    private final int mMaxScpRecords;
+    private final int mMaxCmasRecords;
+    private final int mMaxAllocatedBytes;
+
+    public DecodeLimits(int maxSubparams, int maxScpRecords, int maxCmasRecords,
+            int maxAllocatedBytes) {
+        mMaxSubparams = maxSubparams;
+        mMaxScpRecords = maxScpRecords;
+        mMaxCmasRecords = maxCmasRecords;
+        mMaxAllocatedBytes = maxAllocatedBytes;
+    }
+
+    /** Maximum number of bearer data subparameters. */
+    public int getMaxSubparams() {
+        return mMaxSubparams;
+    }
+
+    /** Maximum number of categories in a SERVICE_CATEGORY_PROGRAM_DATA subparameter. */
+    public int getMaxScpRecords() {
+        return mMaxScpRecords;
+    }
+
+    /** Maximum number of records in CMAS user data. */
+    public int getMaxCmasRecords() {
+        return mMaxCmasRecords;
+    }
+
+    /** Maximum number of bytes allocated for the variable length fields of a message. */
+    public int getMaxAllocatedBytes() {
+        return mMaxAllocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "DecodeLimits{subparams=" + mMaxSubparams + ", scpRecords=" + mMaxScpRecords
+                + ", cmasRecords=" + mMaxCmasRecords + ", allocatedBytes="
+                + mMaxAllocatedBytes + "}";
+    }
+}
@@ -0,0 +1,583 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of a decoded message: its envelope and bearer data.
+ *
+ * All fields are final and collections unmodifiable, so a snapshot is
+ * safely published to other threads by any means, and can be handed to
+ * any number of consumers without copying.  Byte fields are returned as
+ * read-only views.
+ *
+ * Snapshots made by {@link #parsePdu(byte[], DecodeLimits)} and
+ * {@link #parsePduFromEfRecord(byte[], DecodeLimits)} take over the arrays
+ * the decoder allocated, which nothing else refers to.  Those made by
+ * {@link #copyOf(SmsEnvelope, BearerData)} copy them, since the source
+ * objects remain mutable.
+ */
+public final class DecodedSms {
+
+    /** Value of an optional field that is not present. */
+    public static final int NOT_SET = -1;
+
+    /**
+     * Immutable CdmaSmsAddress.
+     */
+    public static final class Address {
+        private final int mDigitMode;
+        private final int mNumberMode;
+        private final int mTon;
+        private final int mNumberPlan;
+        private final int mNumberOfDigits;
+        private final String mAddress;
+        private final byte[] mDigits;
+
+        Address(CdmaSmsAddress addr, boolean copy) {
+            mDigitMode = addr.digitMode;
+            mNumberMode = addr.numberMode;
+            mTon = addr.ton;
+            mNumberPlan = addr.numberPlan;
+            mNumberOfDigits = addr.numberOfDigits;
+            mAddress = addr.address;
+            mDigits = own(addr.origBytes, copy);
+        }
+
+        public int getDigitMode() {
+            return mDigitMode;
+        }
+
+        public int getNumberMode() {
+            return mNumberMode;
+        }
+
+        public int getTon() {
+            return mTon;
+        }
+
+        public int getNumberPlan() {
+            return mNumberPlan;
+        }
+
+        public int getNumberOfDigits() {
+            return mNumberOfDigits;
+        }
+
+        /** Returns the address as a string, or null if it was not decoded. */
+        public String getAddress() {
+            return mAddress;
+        }
+
+        /** Returns the raw digits, or null. */
+        public ByteBuffer getDigits() {
+            return view(mDigits);
+        }
+
+        @Override
+        public String toString() {
+            return "Address{" + mAddress + ", digitMode=" + mDigitMode + ", ton=" + mTon + '}';
+        }
+    }
+
+    /**
+     * Immutable CdmaSmsSubaddress.
+     */
+    public static final class Subaddress {
+        private final int mType;
+        private final byte mOdd;
+        private final byte[] mDigits;
+
+        Subaddress(CdmaSmsSubaddress subaddr, boolean copy) {
+            mType = subaddr.type;
+            mOdd = subaddr.odd;
+            mDigits = own(subaddr.origBytes, copy);
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        public byte getOdd() {
+            return mOdd;
+        }
+
+        /** Returns the digits, or null. */
+        public ByteBuffer getDigits() {
+            return view(mDigits);
+        }
+    }
+
+    /**
+     * Immutable summary of an SmsHeader: the concatenation and port
+     * elements, the language tables, and the whole header as received,
+     * from which the other elements can be parsed with
+     * {@link SmsHeader#fromByteArray(byte[])}.
+     */
+    public static final class UserDataHeader {
+        private final int mConcatRefNumber;
+        private final int mConcatSeqNumber;
+        private final int mConcatMsgCount;
+        private final boolean mConcatEightBits;
+        private final int mDestPort;
+        private final int mOrigPort;
+        private final boolean mPortsEightBits;
+        private final int mLanguageTable;
+        private final int mLanguageShiftTable;
+        private final byte[] mEncoded;
+
+        UserDataHeader(SmsHeader header, byte[] encoded) {
+            SmsHeader.ConcatRef concatRef = header.concatRef;
+            mConcatRefNumber = concatRef != null ? concatRef.refNumber : NOT_SET;
+            mConcatSeqNumber = concatRef != null ? concatRef.seqNumber : NOT_SET;
+            mConcatMsgCount = concatRef != null ? concatRef.msgCount : NOT_SET;
+            mConcatEightBits = concatRef != null && concatRef.isEightBits;
+            SmsHeader.PortAddrs portAddrs = header.portAddrs;
+            mDestPort = portAddrs != null ? portAddrs.destPort : NOT_SET;
+            mOrigPort = portAddrs != null ? portAddrs.origPort : NOT_SET;
+            mPortsEightBits = portAddrs != null && portAddrs.areEightBits;
+            mLanguageTable = header.languageTable;
+            mLanguageShiftTable = header.languageShiftTable;
+            mEncoded = encoded;
+        }
+
+        public boolean hasConcatRef() {
+            return mConcatRefNumber != NOT_SET;
+        }
+
+        public int getConcatRefNumber() {
+            return mConcatRefNumber;
+        }
+
+        public int getConcatSeqNumber() {
+            return mConcatSeqNumber;
+        }
+
+        public int getConcatMsgCount() {
+            return mConcatMsgCount;
+        }
+
+        public boolean isConcatEightBits() {
+            return mConcatEightBits;
+        }
+
+        public boolean hasPorts() {
+            return mDestPort != NOT_SET;
+        }
+
+        public int getDestPort() {
+            return mDestPort;
+        }
+
+        public int getOrigPort() {
+            return mOrigPort;
+        }
+
+        public boolean arePortsEightBits() {
+            return mPortsEightBits;
+        }
+
+        public int getLanguageTable() {
+            return mLanguageTable;
+        }
+
+        public int getLanguageShiftTable() {
+            return mLanguageShiftTable;
+        }
+
+        /**
+         * Returns the header bytes without their length byte, as received
+         * if the message was decoded, else as SmsHeader would encode them.
+         */
+        public ByteBuffer getEncoded() {
+            return view(mEncoded);
+        }
+    }
+
+    // Envelope.
+    private final int mEnvelopeMessageType;
+    private final int mTeleService;
+    private final int mServiceCategory;
+    private final Address mOrigAddress;
+    private final Address mDestAddress;
+    private final Subaddress mOrigSubaddress;
+    private final int mBearerReply;
+    private final byte mReplySeqNo;
+    private final byte mEnvelopeErrorClass;
+    private final byte mCauseCode;
+    private final byte[] mRawBearerData;
+
+    // Bearer data; mHasBearerData is false if it was not decoded.
+    private final boolean mHasBearerData;
+    private final int mMessageType;
+    private final int mMessageId;
+    private final int mPriority;
+    private final int mPrivacy;
+    private final int mAlert;
+    private final int mDisplayMode;
+    private final int mLanguage;
+    private final int mErrorClass;
+    private final int mMessageStatus;
+    private final int mUserResponseCode;
+    private final long mMsgCenterTimeStamp;
+    private final long mValidityPeriodAbsolute;
+    private final long mDeferredDeliveryTimeAbsolute;
+    private final int mValidityPeriodRelative;
+    private final int mDeferredDeliveryTimeRelative;
+    private final boolean mUserAckReq;
+    private final boolean mDeliveryAckReq;
+    private final boolean mReadAckReq;
+    private final boolean mReportReq;
+    private final int mNumberOfMessages;
+    private final int mDepositIndex;
+    private final Address mCallbackNumber;
+    private final SmsCbCmasInfo mCmasWarningInfo;
+    private final List<CdmaSmsCbProgramData> mProgramData;
+    private final List<CdmaSmsCbProgramResults> mProgramResults;
+
+    // User data; mMsgEncoding is NOT_SET if there is none.
+    private final int mMsgEncoding;
+    private final int mUserDataMsgType;
+    private final int mNumFields;
+    private final int mPaddingBits;
+    private final byte[] mPayload;
+    private final String mText;
+    private final UserDataHeader mUserDataHeader;
+
+    private DecodedSms(SmsEnvelope env, BearerData bData, boolean copy) {
+        mEnvelopeMessageType = env.messageType;
+        mTeleService = env.teleService;
+        mServiceCategory = env.serviceCategory;
+        mOrigAddress = env.origAddress != null ? new Address(env.origAddress, copy) : null;
+        if (env.destAddress == null) {
+            mDestAddress = null;
+        } else if (env.destAddress == env.origAddress) {
+            mDestAddress = mOrigAddress;
+        } else {
+            mDestAddress = new Address(env.destAddress, copy);
+        }
+        mOrigSubaddress = env.origSubaddress != null
+                ? new Subaddress(env.origSubaddress, copy) : null;
+        mBearerReply = env.bearerReply;
+        mReplySeqNo = env.replySeqNo;
+        mEnvelopeErrorClass = env.errorClass;
+        mCauseCode = env.causeCode;
+        mRawBearerData = own(env.bearerData, copy);
+
+        mHasBearerData = bData != null;
+        if (bData == null) bData = new BearerData();
+        mMessageType = bData.messageType;
+        mMessageId = bData.messageId;
+        mPriority = bData.priorityIndicatorSet ? bData.priority : NOT_SET;
+        mPrivacy = bData.privacyIndicatorSet ? bData.privacy : NOT_SET;
+        mAlert = bData.alertIndicatorSet ? bData.alert : NOT_SET;
+        mDisplayMode = bData.displayModeSet ? bData.displayMode : NOT_SET;
+        mLanguage = bData.languageIndicatorSet ? bData.language : NOT_SET;
+        mErrorClass = bData.messageStatusSet ? bData.errorClass : NOT_SET;
+        mMessageStatus = bData.messageStatusSet ? bData.messageStatus : NOT_SET;
+        mUserResponseCode = bData.userResponseCodeSet ? bData.userResponseCode : NOT_SET;
+        mMsgCenterTimeStamp = bData.msgCenterTimeStamp;
+        mValidityPeriodAbsolute = bData.validityPeriodAbsolute;
+        mDeferredDeliveryTimeAbsolute = bData.deferredDeliveryTimeAbsolute;
+        mValidityPeriodRelative = bData.validityPeriodRelativeSet
+                ? bData.validityPeriodRelative : NOT_SET;
+        mDeferredDeliveryTimeRelative = bData.deferredDeliveryTimeRelativeSet
+                ? bData.deferredDeliveryTimeRelative : NOT_SET;
+        mUserAckReq = bData.userAckReq;
+        mDeliveryAckReq = bData.deliveryAckReq;
+        mReadAckReq = bData.readAckReq;
+        mReportReq = bData.reportReq;
+        mNumberOfMessages = bData.numberOfMessages;
+        mDepositIndex = bData.depositIndex;
+        mCallbackNumber = bData.callbackNumber != null
+                ? new Address(bData.callbackNumber, copy) : null;
+        // Both element types are immutable.
+        mCmasWarningInfo = bData.cmasWarningInfo;
+        mProgramData = ownList(bData.serviceCategoryProgramData, copy);
+        mProgramResults = ownList(bData.serviceCategoryProgramResults, copy);
+
+        UserData userData = bData.userData;
+        if (userData != null) {
+            mMsgEncoding = userData.msgEncoding;
+            mUserDataMsgType = userData.msgType;
+            mNumFields = userData.numFields;
+            mPaddingBits = userData.paddingBits;
+            mPayload = own(userData.payload, copy);
+            mText = userData.payloadStr;
+            mUserDataHeader = userData.userDataHeader != null
+                    ? new UserDataHeader(userData.userDataHeader, ownHeader(userData, copy))
+                    : null;
+        } else {
+            mMsgEncoding = NOT_SET;
+            mUserDataMsgType = 0;
+            mNumFields = 0;
+            mPaddingBits = 0;
+            mPayload = null;
+            mText = null;
+            mUserDataHeader = null;
+        }
+    }
+
+    /**
+     * Decode a PDU laid out as for {@link SmsMessage#parsePdu(byte[])}.
+     *
+     * @throws RuntimeException if it cannot be decoded
+     */
+    public static DecodedSms parsePdu(byte[] pdu, DecodeLimits limits) {
+        SmsMessage msg = new SmsMessage();
+        msg.setDecodeLimits(limits);
+        msg.parsePdu(pdu);
+        return new DecodedSms(msg.mEnvelope, msg.getBearerData(), false);
+    }
+
+    /**
+     * Decode a PDU laid out as for {@link SmsMessage#parsePduFromEfRecord(byte[])}.
+     *
+     * @throws RuntimeException if it cannot be decoded
+     */
+    public static DecodedSms parsePduFromEfRecord(byte[] pdu, DecodeLimits limits) {
+        SmsMessage msg = new SmsMessage();
+        msg.setDecodeLimits(limits);
+        msg.parsePduFromEfRecord(pdu);
+        return new DecodedSms(msg.mEnvelope, msg.getBearerData(), false);
+    }
+
+    /**
+     * Snapshot a message decoded elsewhere, copying its arrays and lists.
+     *
+     * @param bData the decoded bearer data, or null
+     */
+    public static DecodedSms copyOf(SmsEnvelope env, BearerData bData) {
+        return new DecodedSms(env, bData, true);
+    }
+
+    private static byte[] own(byte[] data, boolean copy) {
+        return copy && data != null ? data.clone() : data;
+    }
+
+    // The decoder's copy of the header bytes, which only UserData refers to.
+    private static byte[] ownHeader(UserData userData, boolean copy) {
+        if (userData.userDataHeaderBytes == null) {
+            return SmsHeader.toByteArray(userData.userDataHeader);
+        }
+        return own(userData.userDataHeaderBytes, copy);
+    }
+
+    private static <T> List<T> ownList(List<T> list, boolean copy) {
+        if (list == null) return null;
+        return Collections.unmodifiableList(copy ? new ArrayList<T>(list) : list);
+    }
+
+    private static ByteBuffer view(byte[] data) {
+        return data != null ? ByteBuffer.wrap(data).asReadOnlyBuffer() : null;
+    }
+
+    public int getEnvelopeMessageType() {
+        return mEnvelopeMessageType;
+    }
+
+    public int getTeleService() {
+        return mTeleService;
+    }
+
+    public int getServiceCategory() {
+        return mServiceCategory;
+    }
+
+    public Address getOrigAddress() {
+        return mOrigAddress;
+    }
+
+    public Address getDestAddress() {
+        return mDestAddress;
+    }
+
+    public Subaddress getOrigSubaddress() {
+        return mOrigSubaddress;
+    }
+
+    public int getBearerReply() {
+        return mBearerReply;
+    }
+
+    public byte getReplySeqNo() {
+        return mReplySeqNo;
+    }
+
+    public byte getEnvelopeErrorClass() {
+        return mEnvelopeErrorClass;
+    }
+
+    public byte getCauseCode() {
+        return mCauseCode;
+    }
+
+    /** Returns the encoded bearer data, or null. */
+    public ByteBuffer getRawBearerData() {
+        return view(mRawBearerData);
+    }
+
+    /** Returns false if the message had no bearer data decoded. */
+    public boolean hasBearerData() {
+        return mHasBearerData;
+    }
+
+    public int getMessageType() {
+        return mMessageType;
+    }
+
+    public int getMessageId() {
+        return mMessageId;
+    }
+
+    /** Returns the priority, or {@link #NOT_SET}. */
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /** Returns the privacy, or {@link #NOT_SET}. */
+    public int getPrivacy() {
+        return mPrivacy;
+    }
+
+    /** Returns the alert priority, or {@link #NOT_SET}. */
+    public int getAlert() {
+        return mAlert;
+    }
+
+    /** Returns the display mode, or {@link #NOT_SET}. */
+    public int getDisplayMode() {
+        return mDisplayMode;
+    }
+
+    /** Returns the language, or {@link #NOT_SET}. */
+    public int getLanguage() {
+        return mLanguage;
+    }
+
+    /** Returns the error class of the message status, or {@link #NOT_SET}. */
+    public int getErrorClass() {
+        return mErrorClass;
+    }
+
+    /** Returns the message status, or {@link #NOT_SET}. */
+    public int getMessageStatus() {
+        return mMessageStatus;
+    }
+
+    /** Returns the user response code, or {@link #NOT_SET}. */
+    public int getUserResponseCode() {
+        return mUserResponseCode;
+    }
+
+    /** Returns the packed time stamp, or {@link SmsTimeStamp#NONE}. */
+    public long getMsgCenterTimeStamp() {
+        return mMsgCenterTimeStamp;
+    }
+
+    /** Returns the packed time stamp, or {@link SmsTimeStamp#NONE}. */
+    public long getValidityPeriodAbsolute() {
+        return mValidityPeriodAbsolute;
+    }
+
+    /** Returns the packed time stamp, or {@link SmsTimeStamp#NONE}. */
+    public long getDeferredDeliveryTimeAbsolute() {
+        return mDeferredDeliveryTimeAbsolute;
+    }
+
+    /** Returns the relative validity period, or {@link #NOT_SET}. */
+    public int getValidityPeriodRelative() {
+        return mValidityPeriodRelative;
+    }
+
+    /** Returns the relative deferred delivery time, or {@link #NOT_SET}. */
+    public int getDeferredDeliveryTimeRelative() {
+        return mDeferredDeliveryTimeRelative;
+    }
+
+    public boolean isUserAckReq() {
+        return mUserAckReq;
+    }
+
+    public boolean isDeliveryAckReq() {
+        return mDeliveryAckReq;
+    }
+
+    public boolean isReadAckReq() {
+        return mReadAckReq;
+    }
+
+    public boolean isReportReq() {
+        return mReportReq;
+    }
+
+    public int getNumberOfMessages() {
+        return mNumberOfMessages;
+    }
+
+    public int getDepositIndex() {
+        return mDepositIndex;
+    }
+
+    public Address getCallbackNumber() {
+        return mCallbackNumber;
+    }
+
+    public SmsCbCmasInfo getCmasWarningInfo() {
+        return mCmasWarningInfo;
+    }
+
+    /** Returns the SERVICE_CATEGORY_PROGRAM_DATA categories, or null. */
+    public List<CdmaSmsCbProgramData> getServiceCategoryProgramData() {
+        return mProgramData;
+    }
+
+    /** Returns the SERVICE_CATEGORY_PROGRAM_RESULTS categories, or null. */
+    public List<CdmaSmsCbProgramResults> getServiceCategoryProgramResults() {
+        return mProgramResults;
+    }
+
+    public boolean hasUserData() {
+        return mMsgEncoding != NOT_SET;
+    }
+
+    /** Returns the user data encoding, or {@link #NOT_SET} if there is no user data. */
+    public int getMsgEncoding() {
+        return mMsgEncoding;
+    }
+
+    public int getUserDataMsgType() {
+        return mUserDataMsgType;
+    }
+
+    public int getNumFields() {
+        return mNumFields;
+    }
+
+    public int getPaddingBits() {
+        return mPaddingBits;
+    }
+
+    /** Returns the user data payload, or null. */
+    public ByteBuffer getPayload() {
+        return view(mPayload);
+    }
+
+    /** Returns the decoded text, or null. */
+    public String getText() {
+        return mText;
+    }
+
+    public UserDataHeader getUserDataHeader() {
+        return mUserDataHeader;
+    }
+
+    @Override
+    public String toString() {
+        return "DecodedSms{teleService=" + mTeleService + ", serviceCategory="
+                + mServiceCategory + ", orig=" + mOrigAddress + ", messageId=" + mMessageId
+                + ", encoding=" + mMsgEncoding + ", text=" + mText + '}';
+    }
+}
@@ -0,0 +1,128 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.util.Arrays;
+
+/**
+ * Table driven codec for 4-bit DTMF address digits.
+ * (See 3GPP2 C.S0005-D, v2.0, table 2.7.1.3.2.4-4)
+ *
+ * Digits are packed two per byte, first digit in the high nibble.  Each
+ * byte is looked up in a 256 entry table holding both of its ASCII
+ * characters, so two digits are decoded per lookup.
+ */
+public final class DtmfCodec {
+
+    // ASCII character of each DTMF code, 0 being 'D' and 10 being '0'.
+    private static final byte[] DTMF_TO_ASCII = {
+        'D', '1', '2', '3', '4', '5', '6', '7', '8', '9', '0', '*', '#', 'A', 'B', 'C'
+    };
+
+    // Character of each DTMF code valid in an SMS address, 0 for the others.
+    private static final char[] SMS_ADDRESS_DIGITS = {
+        0, '1', '2', '3', '4', '5', '6', '7', '8', '9', '0', '*', '#', 0, 0, 0
+    };
+
+    // Both ASCII characters of each byte value, high nibble first.
+    private static final byte[] PAIR_TO_ASCII = new byte[512];
+
+    // DTMF code of each ASCII character, -1 for characters with none.
+    private static final byte[] ASCII_TO_DTMF = new byte[128];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            PAIR_TO_ASCII[b << 1] = DTMF_TO_ASCII[b >>> 4];
+            PAIR_TO_ASCII[(b << 1) + 1] = DTMF_TO_ASCII[b & 0x0F];
+        }
+        Arrays.fill(ASCII_TO_DTMF, (byte) -1);
+        for (int code = 0; code < DTMF_TO_ASCII.length; code++) {
+            ASCII_TO_DTMF[DTMF_TO_ASCII[code]] = (byte) code;
+        }
+    }
+
+    /** Returned by {@link #toAscii(int)} for a value that is not a DTMF code. */
+    public static final byte INVALID_ASCII = ' ';
+
+    private DtmfCodec() {
+    }
+
+    /**
+     * Convert a DTMF code to its ASCII character, or
+     * {@link #INVALID_ASCII} if out of range.
+     */
+    public static byte toAscii(int dtmfDigit) {
+        return (dtmfDigit & ~0x0F) == 0 ? DTMF_TO_ASCII[dtmfDigit] : INVALID_ASCII;
+    }
+
+    /**
+     * Convert an ASCII character to its DTMF code, the inverse of
+     * {@link #toAscii(int)}.
+     *
+     * @return the code, or -1 if the character has none
+     */
+    public static int fromAscii(int c) {
+        return (c & ~0x7F) == 0 ? ASCII_TO_DTMF[c] : -1;
+    }
+
+    /**
+     * Read DTMF digits from a bit stream as ASCII characters, reading two
+     * digits at a time.
+     *
+     * @param dst receives numDigits characters, starting at dstOffset
+     */
+    public static void readAscii(BitwiseInputStream inStream, int numDigits, byte[] dst,
+            int dstOffset) throws BitwiseInputStream.AccessException {
+        int j = dstOffset;
+        for (int pairs = numDigits >> 1; pairs > 0; pairs--) {
+            int index = inStream.read(8) << 1;
+            dst[j++] = PAIR_TO_ASCII[index];
+            dst[j++] = PAIR_TO_ASCII[index + 1];
+        }
+        if ((numDigits & 1) != 0) {
+            dst[j] = DTMF_TO_ASCII[inStream.read(4)];
+        }
+    }
+
+    /**
+     * Decode packed DTMF digits into ASCII characters.
+     *
+     * @param dst receives numDigits characters, starting at dstOffset
+     */
+    public static void decodeAscii(byte[] packed, int offset, int numDigits, byte[] dst,
+            int dstOffset) {
+        int j = dstOffset;
+        int i = offset;
+        for (int pairs = numDigits >> 1; pairs > 0; pairs--) {
+            int index = (packed[i++] & 0xFF) << 1;
+            dst[j++] = PAIR_TO_ASCII[index];
+            dst[j++] = PAIR_TO_ASCII[index + 1];
+        }
+        if ((numDigits & 1) != 0) {
+            dst[j] = DTMF_TO_ASCII[(packed[i] >>> 4) & 0x0F];
+        }
+    }
+
+    /**
+     * Decode packed DTMF digits of an SMS address, which may only be the
+     * digits 0-9, '*' and '#'.
+     *
+     * @return the address, interned in {@link SmsAddressCache#getDefault()}
+     * @throws IllegalArgumentException on any other code, with the code as message
+     */
+    public static String decodeSmsAddress(byte[] packed, int numDigits) {
+        SmsAddressCache cache = SmsAddressCache.getDefault();
+        int length = (numDigits + 1) >> 1;
+        String address = cache.get(SmsAddressCache.KIND_DTMF, numDigits, packed, 0, length);
+        if (address != null) return address;
+
+        char[] chars = new char[numDigits];
+        for (int i = 0; i < numDigits; i++) {
+            int code = (packed[i >> 1] >>> (4 - ((i & 1) << 2))) & 0x0F;
+            char c = SMS_ADDRESS_DIGITS[code];
+            if (c == 0) throw new IllegalArgumentException(Integer.toString(code));
+            chars[i] = c;
+        }
+        address = new String(chars);
+        cache.put(SmsAddressCache.KIND_DTMF, numDigits, packed, 0, length, address);
+        return address;
+    }
+}
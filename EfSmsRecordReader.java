@@ -0,0 +1,219 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk reader for dumps of the RUIM/CSIM EF_SMS file, i.e. a sequence of
+ * fixed-size records as read from the card.
+ * (See 3GPP2 C.S0023-D, 3.4.27)
+ *
+ * Each record starts with a status byte and a message length byte,
+ * followed by the SMS transport layer message in the layout expected by
+ * {@link SmsMessage#parsePduFromEfRecord(byte[])}.  Free records are
+ * skipped by looking at the status byte only, and the remaining records
+ * are decoded in parallel on a caller supplied executor.
+ */
+public class EfSmsRecordReader {
+    private static final String LOG_TAG = "EfSmsRecordReader";
+
+    /** Record size used by most cards for EF_SMS. */
+    public static final int DEFAULT_RECORD_SIZE = 255;
+
+    /**
+     * Record status values.  Bit 0 clear means the record is free.
+     * (See 3GPP2 C.S0023-D, 3.4.27)
+     */
+    public static final int STATUS_FREE                 = 0x00;
+    public static final int STATUS_RECEIVED_READ        = 0x01;
+    public static final int STATUS_RECEIVED_UNREAD      = 0x03;
+    public static final int STATUS_SENT                 = 0x05;
+    public static final int STATUS_UNSENT               = 0x07;
+
+    /** Erased flash, as found in never written records. */
+    public static final int STATUS_ERASED               = 0xFF;
+
+    private static final int STATUS_OFFSET  = 0;
+    private static final int LENGTH_OFFSET  = 1;
+    private static final int MESSAGE_OFFSET = 2;
+
+    /** Number of records handed to a single decode task. */
+    private static final int RECORDS_PER_TASK = 64;
+
+    /**
+     * Receives the decoded records.  Called from the executor threads, in no
+     * particular order.
+     */
+    public interface Callback {
+        void onRecord(int index, int status, SmsMessage message);
+
+        void onRecordError(int index, int status, RuntimeException ex);
+    }
+
+    private final ByteBuffer mBuffer;
+    private final int mRecordSize;
+    private final int mRecordCount;
+
+    /**
+     * Create a reader over a buffer holding whole records.  A trailing
+     * partial record is ignored.
+     *
+     * @param buffer the records, from position 0 to the limit
+     * @param recordSize the size of a single record in bytes
+     */
+    public EfSmsRecordReader(ByteBuffer buffer, int recordSize) {
+        if (recordSize <= MESSAGE_OFFSET) {
+            throw new IllegalArgumentException("invalid record size " + recordSize);
+        }
+        mBuffer = buffer;
+        mRecordSize = recordSize;
+        mRecordCount = buffer.limit() / recordSize;
+    }
+
+    /**
+     * Memory-map a dump file read-only.  The mapping stays valid after the
+     * file has been closed.
+     */
+    public static EfSmsRecordReader open(File file, int recordSize) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new EfSmsRecordReader(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), recordSize);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Returns the status byte of a record without touching the rest of it.
+     */
+    public int getStatus(int index) {
+        return mBuffer.get(index * mRecordSize + STATUS_OFFSET) & 0xFF;
+    }
+
+    /**
+     * Returns true if a record with the given status holds a message.
+     */
+    public static boolean isUsed(int status) {
+        return (status & 0x01) != 0 && status != STATUS_ERASED;
+    }
+
+    /**
+     * Decode a single record.
+     *
+     * @return the message, or null if the record is free or empty
+     * @throws RuntimeException if the record is malformed
+     */
+    public SmsMessage readRecord(int index) {
+        return readRecord(mBuffer.duplicate(), index);
+    }
+
+    private SmsMessage readRecord(ByteBuffer buffer, int index) {
+        int base = index * mRecordSize;
+        if (!isUsed(buffer.get(base + STATUS_OFFSET) & 0xFF)) return null;
+        int length = buffer.get(base + LENGTH_OFFSET) & 0xFF;
+        if (length == 0) return null;
+        if (length > mRecordSize - MESSAGE_OFFSET) {
+            throw new RuntimeException("readRecord: record " + index + " message length "
+                    + length + " exceeds record size " + mRecordSize);
+        }
+        // The message keeps the pdu, so this is the only copy made of it.
+        byte[] pdu = new byte[length];
+        buffer.position(base + MESSAGE_OFFSET);
+        buffer.get(pdu, 0, length);
+        SmsMessage msg = new SmsMessage();
+        msg.parsePduFromEfRecord(pdu);
+        return msg;
+    }
+
+    /**
+     * Decode all used records in parallel and report them to the callback.
+     * Returns once every record has been handled.
+     *
+     * @param executor runs the decode tasks
+     * @param callback receives each decoded or failed record
+     * @return the number of successfully decoded records
+     */
+    public int decodeAll(ExecutorService executor, final Callback callback)
+            throws InterruptedException {
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int start = 0; start < mRecordCount; start += RECORDS_PER_TASK) {
+            final int first = start;
+            final int last = Math.min(start + RECORDS_PER_TASK, mRecordCount);
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return decodeRange(first, last, callback);
+                }
+            }));
+        }
+        int decoded = 0;
+        try {
+            for (Future<Integer> future : futures) {
+                decoded += future.get();
+            }
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("decodeAll: decode task failed: " + ex.getCause(),
+                    ex.getCause());
+        }
+        return decoded;
+    }
+
+    /**
+     * Decode all used records in parallel.
+     *
+     * @return an array indexed by record number, with null for free,
+     *     empty and malformed records
+     */
+    public SmsMessage[] decodeAll(ExecutorService executor) throws InterruptedException {
+        final SmsMessage[] messages = new SmsMessage[mRecordCount];
+        decodeAll(executor, new Callback() {
+            @Override
+            public void onRecord(int index, int status, SmsMessage message) {
+                messages[index] = message;
+            }
+
+            @Override
+            public void onRecordError(int index, int status, RuntimeException ex) {
+                Rlog.w(LOG_TAG, "skipping record " + index + ": " + ex);
+            }
+        });
+        return messages;
+    }
+
+    private int decodeRange(int first, int last, Callback callback) {
+        // Each task gets its own view so that positions are not shared.
+        ByteBuffer buffer = mBuffer.duplicate();
+        int decoded = 0;
+        for (int i = first; i < last; i++) {
+            int status = buffer.get(i * mRecordSize + STATUS_OFFSET) & 0xFF;
+            if (!isUsed(status)) continue;
+            SmsMessage msg;
+            try {
+                msg = readRecord(buffer, i);
+            } catch (RuntimeException ex) {
+                callback.onRecordError(i, status, ex);
+                continue;
+            }
+            if (msg != null) {
+                callback.onRecord(i, status, msg);
+                decoded++;
+            }
+        }
+        return decoded;
+    }
+}
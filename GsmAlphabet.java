@@ -353,6 +353,25 @@ public class GsmAlphabet {
     public static byte[] stringToGsm7BitPacked(String data, int startingSeptetOffset,
                                                boolean throwException, int languageTable, int languageShiftTable)
             throws EncodeException {
+        if (!SmsCodecTrace.begin(SmsCodecMetrics.OP_GSM7_PACK, data.length())) {
+            return packGsm7Bit(data, startingSeptetOffset, throwException, languageTable,
+                    languageShiftTable);
+        }
+        byte[] packed = null;
+        try {
+            packed = packGsm7Bit(data, startingSeptetOffset, throwException, languageTable,
+                    languageShiftTable);
+            return packed;
+        } finally {
+            SmsCodecTrace.end(packed != null, UserData.ENCODING_GSM_7BIT_ALPHABET,
+                    SmsCodecTrace.UNKNOWN);
+        }
+    }
+
+    private static byte[] packGsm7Bit(String data, int startingSeptetOffset,
+            boolean throwException, int languageTable, int languageShiftTable)
+            throws EncodeException {
+        long startNanos = System.nanoTime();
         int dataLen = data.length();
         int septetCount = countGsmSeptetsUsingTables(data, !throwException,
                 languageTable, languageShiftTable);
@@ -391,6 +410,7 @@ public class GsmAlphabet {
             septets++;
         }
         ret[0] = (byte) (septetCount);  // Validated by check above.
+        SmsCodecMetrics.recordLatency(SmsCodecMetrics.OP_GSM7_PACK, startNanos);
         return ret;
     }
 
@@ -448,6 +468,24 @@ public class GsmAlphabet {
      */
     public static String gsm7BitPackedToString(byte[] pdu, int offset,
                                                int lengthSeptets, int numPaddingBits, int languageTable, int shiftTable) {
+        if (!SmsCodecTrace.begin(SmsCodecMetrics.OP_GSM7_UNPACK, lengthSeptets)) {
+            return unpackGsm7Bit(pdu, offset, lengthSeptets, numPaddingBits, languageTable,
+                    shiftTable);
+        }
+        String unpacked = null;
+        try {
+            unpacked = unpackGsm7Bit(pdu, offset, lengthSeptets, numPaddingBits, languageTable,
+                    shiftTable);
+            return unpacked;
+        } finally {
+            SmsCodecTrace.end(unpacked != null, UserData.ENCODING_GSM_7BIT_ALPHABET,
+                    SmsCodecTrace.UNKNOWN);
+        }
+    }
+
+    private static String unpackGsm7Bit(byte[] pdu, int offset, int lengthSeptets,
+            int numPaddingBits, int languageTable, int shiftTable) {
+        long startNanos = System.nanoTime();
         StringBuilder ret = new StringBuilder(lengthSeptets);
 
         if (languageTable < 0 || languageTable > sLanguageTables.length) {
@@ -513,6 +551,7 @@ public class GsmAlphabet {
             return null;
         }
 
+        SmsCodecMetrics.recordLatency(SmsCodecMetrics.OP_GSM7_UNPACK, startNanos);
         return ret.toString();
     }
 
@@ -0,0 +1,200 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Table driven hex encoding and decoding, shared by {@link IccUtils} and
+ * {@link HexDump}.
+ *
+ * Encoding looks each byte up in a 512 entry table holding both of its hex
+ * characters.  Besides the String returning methods, bytes can be encoded
+ * straight into an {@link Appendable}, a char array or a {@link ByteBuffer}
+ * (as ASCII), and decoded into a caller supplied byte array, so that a
+ * PDU can be logged or parsed without intermediate objects.
+ */
+public final class HexCodec {
+
+    // Two characters per byte value, high nibble first.
+    private static final char[] UPPER_CASE_TABLE = buildTable("0123456789ABCDEF");
+    private static final char[] LOWER_CASE_TABLE = buildTable("0123456789abcdef");
+
+    // Value of each ASCII hex digit, -1 for other characters.
+    private static final byte[] DIGIT_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(DIGIT_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            DIGIT_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            DIGIT_VALUES['A' + i] = (byte) (10 + i);
+            DIGIT_VALUES['a' + i] = (byte) (10 + i);
+        }
+    }
+
+    private HexCodec() {
+    }
+
+    private static char[] buildTable(String digits) {
+        char[] table = new char[512];
+        for (int b = 0; b < 256; b++) {
+            table[b << 1] = digits.charAt(b >>> 4);
+            table[(b << 1) + 1] = digits.charAt(b & 0x0F);
+        }
+        return table;
+    }
+
+    /**
+     * Returns the value of a hex digit, or -1 if the character is not one.
+     */
+    public static int digitValue(char c) {
+        return c < 128 ? DIGIT_VALUES[c] : -1;
+    }
+
+    /**
+     * Convert a region of a byte array to a hex String.
+     */
+    public static String toHexString(byte[] src, int offset, int length, boolean upperCase) {
+        char[] chars = new char[length << 1];
+        encode(src, offset, length, chars, 0, upperCase);
+        return new String(chars);
+    }
+
+    /**
+     * Encode a region of a byte array into a char array.
+     *
+     * @param dst receives 2 * length characters, starting at dstOffset
+     * @return the index in dst after the last character written
+     */
+    public static int encode(byte[] src, int offset, int length, char[] dst, int dstOffset,
+            boolean upperCase) {
+        char[] table = upperCase ? UPPER_CASE_TABLE : LOWER_CASE_TABLE;
+        int j = dstOffset;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int index = (src[i] & 0xFF) << 1;
+            dst[j++] = table[index];
+            dst[j++] = table[index + 1];
+        }
+        return j;
+    }
+
+    /**
+     * Encode a region of a byte array into a StringBuilder.
+     */
+    public static StringBuilder encode(byte[] src, int offset, int length, StringBuilder dst,
+            boolean upperCase) {
+        char[] table = upperCase ? UPPER_CASE_TABLE : LOWER_CASE_TABLE;
+        dst.ensureCapacity(dst.length() + (length << 1));
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int index = (src[i] & 0xFF) << 1;
+            dst.append(table[index]).append(table[index + 1]);
+        }
+        return dst;
+    }
+
+    /**
+     * Encode a region of a byte array into any Appendable, such as a Writer.
+     */
+    public static void encode(byte[] src, int offset, int length, Appendable dst,
+            boolean upperCase) throws IOException {
+        if (dst instanceof StringBuilder) {
+            encode(src, offset, length, (StringBuilder) dst, upperCase);
+            return;
+        }
+        char[] table = upperCase ? UPPER_CASE_TABLE : LOWER_CASE_TABLE;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int index = (src[i] & 0xFF) << 1;
+            dst.append(table[index]).append(table[index + 1]);
+        }
+    }
+
+    /**
+     * Encode the remaining bytes of src as ASCII hex characters into dst.
+     * Both buffers' positions are advanced.
+     *
+     * @throws BufferOverflowException if dst has less than twice
+     *     src.remaining() bytes left; no bytes are consumed from src then
+     */
+    public static void encode(ByteBuffer src, ByteBuffer dst, boolean upperCase) {
+        char[] table = upperCase ? UPPER_CASE_TABLE : LOWER_CASE_TABLE;
+        if (dst.remaining() < (src.remaining() << 1)) {
+            throw new BufferOverflowException();
+        }
+        while (src.hasRemaining()) {
+            int index = (src.get() & 0xFF) << 1;
+            dst.put((byte) table[index]);
+            dst.put((byte) table[index + 1]);
+        }
+    }
+
+    /**
+     * Append the two hex characters of a byte.
+     */
+    public static StringBuilder appendByte(StringBuilder dst, byte b, boolean upperCase) {
+        char[] table = upperCase ? UPPER_CASE_TABLE : LOWER_CASE_TABLE;
+        int index = (b & 0xFF) << 1;
+        return dst.append(table[index]).append(table[index + 1]);
+    }
+
+    /**
+     * Decode hex characters into a byte array, validating them as they are
+     * read.  Upper and lower case digits are accepted.
+     *
+     * @param src the characters from start (inclusive) to end (exclusive)
+     *     are decoded; there must be an even number of them
+     * @param dst receives (end - start) / 2 bytes, starting at dstOffset
+     * @return the number of bytes written
+     * @throws RuntimeException on an odd number of characters or a
+     *     character that is not a hex digit; dst may then have been
+     *     partially written
+     */
+    public static int decode(CharSequence src, int start, int end, byte[] dst, int dstOffset) {
+        if (((end - start) & 1) != 0) {
+            throw new RuntimeException("odd number of hex chars (" + (end - start) + ")");
+        }
+        int j = dstOffset;
+        for (int i = start; i < end; i += 2) {
+            int high = digitValue(src.charAt(i));
+            int low = digitValue(src.charAt(i + 1));
+            if ((high | low) < 0) {
+                char c = high < 0 ? src.charAt(i) : src.charAt(i + 1);
+                throw new RuntimeException("invalid hex char '" + c + "'");
+            }
+            dst[j++] = (byte) ((high << 4) | low);
+        }
+        return j - dstOffset;
+    }
+
+    /**
+     * Decode a whole hex string into a new byte array.
+     *
+     * @throws RuntimeException on invalid format
+     */
+    public static byte[] decode(CharSequence src) {
+        byte[] bytes = new byte[src.length() >> 1];
+        decode(src, 0, src.length(), bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Decode a whole hex string, failing as the loops IccUtils and HexDump
+     * used to: RuntimeException for a character that is not a hex digit,
+     * and StringIndexOutOfBoundsException for a valid odd last character,
+     * whose pair was read past the end of the string.
+     */
+    static byte[] decodeCompat(String src) {
+        int length = src.length();
+        byte[] bytes = new byte[length >> 1];
+        int even = length & ~1;
+        decode(src, 0, even, bytes, 0);
+        if (even != length) {
+            char c = src.charAt(even);
+            if (digitValue(c) < 0) throw new RuntimeException("invalid hex char '" + c + "'");
+            throw new StringIndexOutOfBoundsException(length);
+        }
+        return bytes;
+    }
+}
@@ -5,7 +5,6 @@ import androidx.annotation.Nullable;
 public class HexDump
 {
     private final static char[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
-    private final static char[] HEX_LOWER_CASE_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
 
     public static String dumpHexString(@Nullable byte[] array) {
         if (array == null) return "(null)";
@@ -33,7 +32,7 @@ public class HexDump
                 {
                     if (line[j] > ' ' && line[j] < '~')
                     {
-                        result.append(new String(line, j, 1));
+                        result.append((char) line[j]);
                     }
                     else
                     {
@@ -67,7 +66,7 @@ public class HexDump
             {
                 if (line[i] > ' ' && line[i] < '~')
                 {
-                    result.append(new String(line, i, 1));
+                    result.append((char) line[i]);
                 }
                 else
                 {
@@ -101,18 +100,7 @@ public class HexDump
 
     public static String toHexString(byte[] array, int offset, int length, boolean upperCase)
     {
-        char[] digits = upperCase ? HEX_DIGITS : HEX_LOWER_CASE_DIGITS;
-        char[] buf = new char[length * 2];
-
-        int bufIndex = 0;
-        for (int i = offset ; i < offset + length; i++)
-        {
-            byte b = array[i];
-            buf[bufIndex++] = digits[(b >>> 4) & 0x0F];
-            buf[bufIndex++] = digits[b & 0x0F];
-        }
-
-        return new String(buf);
+        return HexCodec.toHexString(array, offset, length, upperCase);
     }
 
     public static String toHexString(int i)
@@ -139,33 +127,13 @@ public class HexDump
         return array;
     }
 
-    private static int toByte(char c)
-    {
-        if (c >= '0' && c <= '9') return (c - '0');
-        if (c >= 'A' && c <= 'F') return (c - 'A' + 10);
-        if (c >= 'a' && c <= 'f') return (c - 'a' + 10);
-
-        throw new RuntimeException ("Invalid hex char '" + c + "'");
-    }
-
     public static byte[] hexStringToByteArray(String hexString)
     {
-        int length = hexString.length();
-        byte[] buffer = new byte[length / 2];
-
-        for (int i = 0 ; i < length ; i += 2)
-        {
-            buffer[i / 2] = (byte)((toByte(hexString.charAt(i)) << 4) | toByte(hexString.charAt(i+1)));
-        }
-
-        return buffer;
+        return HexCodec.decodeCompat(hexString);
     }
 
     public static StringBuilder appendByteAsHex(StringBuilder sb, byte b, boolean upperCase) {
-        char[] digits = upperCase ? HEX_DIGITS : HEX_LOWER_CASE_DIGITS;
-        sb.append(digits[(b >> 4) & 0xf]);
-        sb.append(digits[b & 0xf]);
-        return sb;
+        return HexCodec.appendByte(sb, b, upperCase);
     }
 
 }
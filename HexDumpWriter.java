@@ -0,0 +1,208 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Writes a hex dump in the layout of {@link HexDump#dumpHexString(byte[])}
+ * to a Writer or OutputStream as the data comes in, in constant memory.
+ *
+ * Each line is built from a precomputed template into a fixed buffer,
+ * which is handed to the underlying stream whenever it fills up.  Data can
+ * be given in any number of pieces, from byte arrays, ByteBuffers or a
+ * file, which is memory mapped a window at a time.
+ *
+ * Unlike dumpHexString(), the characters of the last line are printed
+ * even when it is full, offsets past 4 GB are printed with 16 digits, and
+ * empty input writes nothing, where dumpHexString() prints a line with
+ * offset 0 and no bytes.
+ */
+public class HexDumpWriter implements Closeable, Flushable {
+
+    private static final int BYTES_PER_LINE = 16;
+
+    private static final String HEX_DIGITS = "0123456789ABCDEF";
+
+    // " XX" for every byte, then a space before the characters.
+    private static final int HEX_COLUMNS = BYTES_PER_LINE * 3 + 1;
+    private static final char[] HEX_TEMPLATE = new char[HEX_COLUMNS];
+
+    // "\n0x", a 16 digit offset at most, hex columns, characters.
+    private static final int MAX_LINE_LENGTH = 3 + 16 + HEX_COLUMNS + BYTES_PER_LINE;
+
+    private static final int BUFFER_LINES = 64;
+
+    // Size of the file regions mapped at once.
+    private static final long MAP_WINDOW = 64L << 20;
+
+    static {
+        Arrays.fill(HEX_TEMPLATE, ' ');
+    }
+
+    private final Writer mWriter;
+    private final OutputStream mOutputStream;
+
+    private final char[] mChars = new char[MAX_LINE_LENGTH * BUFFER_LINES];
+    private final byte[] mBytes;
+    private int mCharCount;
+
+    private final byte[] mLine = new byte[BYTES_PER_LINE];
+    private int mLineCount;
+    private long mOffset;
+
+    /**
+     * @param out receives the dump as characters
+     */
+    public HexDumpWriter(Writer out) {
+        mWriter = out;
+        mOutputStream = null;
+        mBytes = null;
+    }
+
+    /**
+     * @param out receives the dump as ASCII bytes
+     */
+    public HexDumpWriter(OutputStream out) {
+        mWriter = null;
+        mOutputStream = out;
+        mBytes = new byte[mChars.length];
+    }
+
+    /**
+     * Set the offset printed for the next byte, e.g. when dumping part of
+     * a capture.  Only allowed at the start of a line.
+     */
+    public void setOffset(long offset) {
+        if (mLineCount != 0) {
+            throw new IllegalStateException("setOffset in the middle of a line");
+        }
+        mOffset = offset;
+    }
+
+    public void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        for (int i = offset; i < end; ) {
+            int count = Math.min(BYTES_PER_LINE - mLineCount, end - i);
+            System.arraycopy(data, i, mLine, mLineCount, count);
+            mLineCount += count;
+            i += count;
+            if (mLineCount == BYTES_PER_LINE) writeLine();
+        }
+    }
+
+    /**
+     * Dump the remaining bytes of a buffer, and advance its position.
+     */
+    public void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = Math.min(BYTES_PER_LINE - mLineCount, buffer.remaining());
+            buffer.get(mLine, mLineCount, count);
+            mLineCount += count;
+            if (mLineCount == BYTES_PER_LINE) writeLine();
+        }
+    }
+
+    /**
+     * Dump a whole file, mapping it into memory a window at a time.
+     */
+    public void write(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_WINDOW, size - position));
+                write(window);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeLine() throws IOException {
+        if (mCharCount + MAX_LINE_LENGTH > mChars.length) flushBuffer();
+        char[] chars = mChars;
+        int pos = mCharCount;
+        chars[pos++] = '\n';
+        chars[pos++] = '0';
+        chars[pos++] = 'x';
+        for (int shift = (mOffset >>> 32) != 0 ? 60 : 28; shift >= 0; shift -= 4) {
+            chars[pos++] = HEX_DIGITS.charAt((int) (mOffset >>> shift) & 0x0F);
+        }
+        int hexStart = pos;
+        System.arraycopy(HEX_TEMPLATE, 0, chars, pos, HEX_COLUMNS);
+        for (int i = 0; i < mLineCount; i++) {
+            HexCodec.encode(mLine, i, 1, chars, hexStart + i * 3 + 1, true);
+        }
+        pos += HEX_COLUMNS;
+        for (int i = 0; i < mLineCount; i++) {
+            byte b = mLine[i];
+            chars[pos++] = (b > ' ' && b < '~') ? (char) b : '.';
+        }
+        mCharCount = pos;
+        mOffset += mLineCount;
+        mLineCount = 0;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mCharCount == 0) return;
+        if (mWriter != null) {
+            mWriter.write(mChars, 0, mCharCount);
+        } else {
+            for (int i = 0; i < mCharCount; i++) {
+                mBytes[i] = (byte) mChars[i];
+            }
+            mOutputStream.write(mBytes, 0, mCharCount);
+        }
+        mCharCount = 0;
+    }
+
+    /**
+     * Write out the last, partial line if any, and flush the underlying
+     * stream.  More data may be written afterwards, starting a new line.
+     */
+    public void finish() throws IOException {
+        if (mLineCount > 0) writeLine();
+        flush();
+    }
+
+    /**
+     * Flush the complete lines written so far.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        if (mWriter != null) {
+            mWriter.flush();
+        } else {
+            mOutputStream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            if (mWriter != null) {
+                mWriter.close();
+            } else {
+                mOutputStream.close();
+            }
+        }
+    }
+}
@@ -26,23 +26,9 @@ public class IccUtils {
      */
     public static String
     bcdToString(byte[] data, int offset, int length) {
-        StringBuilder ret = new StringBuilder(length*2);
-
-        for (int i = offset ; i < offset + length ; i++) {
-            int v;
-
-            v = data[i] & 0xf;
-            if (v > 9)  break;
-            ret.append((char)('0' + v));
-
-            v = (data[i] >> 4) & 0xf;
-            // Some PLMNs have 'f' as high nibble, ignore it
-            if (v == 0xf) continue;
-            if (v > 9)  break;
-            ret.append((char)('0' + v));
-        }
-
-        return ret.toString();
+        char[] ret = new char[length*2];
+        int count = BcdCodec.decodeBcd(data, offset, length, ret, 0);
+        return new String(ret, 0, count);
     }
 
     /**
@@ -83,13 +69,9 @@ public class IccUtils {
      * @param offset the offset into the bytes[] to fill the data
      */
     public static void bcdToBytes(String bcd, byte[] bytes, int offset) {
-        if (bcd.length() % 2 != 0) {
-            bcd += "0";
-        }
+        // An odd length string is padded with "0" by the codec.
         int size = Math.min((bytes.length - offset) * 2, bcd.length());
-        for (int i = 0, j = offset; i + 1 < size; i += 2, j++) {
-            bytes[j] = (byte) (charToByte(bcd.charAt(i + 1)) << 4 | charToByte(bcd.charAt(i)));
-        }
+        BcdCodec.encodeBcd(bcd, 0, size, bytes, offset);
     }
 
     /**
@@ -133,19 +115,9 @@ public class IccUtils {
      */
     public static String
     bchToString(byte[] data, int offset, int length) {
-        StringBuilder ret = new StringBuilder(length*2);
-
-        for (int i = offset ; i < offset + length ; i++) {
-            int v;
-
-            v = data[i] & 0xf;
-            ret.append(HEX_CHARS[v]);
-
-            v = (data[i] >> 4) & 0xf;
-            ret.append(HEX_CHARS[v]);
-        }
-
-        return ret.toString();
+        char[] ret = new char[length*2];
+        BcdCodec.decodeBch(data, offset, length, ret, 0);
+        return new String(ret);
     }
 
     /**
@@ -153,23 +125,9 @@ public class IccUtils {
      */
     public static String
     cdmaBcdToString(byte[] data, int offset, int length) {
-        StringBuilder ret = new StringBuilder(length);
-
-        int count = 0;
-        for (int i = offset; count < length; i++) {
-            int v;
-            v = data[i] & 0xf;
-            if (v > 9)  v = 0;
-            ret.append((char)('0' + v));
-
-            if (++count == length) break;
-
-            v = (data[i] >> 4) & 0xf;
-            if (v > 9)  v = 0;
-            ret.append((char)('0' + v));
-            ++count;
-        }
-        return ret.toString();
+        char[] ret = new char[length];
+        BcdCodec.decodeCdmaBcd(data, offset, length, ret, 0);
+        return new String(ret);
     }
 
     /**
@@ -188,18 +146,8 @@ public class IccUtils {
      */
     public static int
     gsmBcdByteToInt(byte b) {
-        int ret = 0;
-
         // treat out-of-range BCD values as 0
-        if ((b & 0xf0) <= 0x90) {
-            ret = (b >> 4) & 0xf;
-        }
-
-        if ((b & 0x0f) <= 0x09) {
-            ret +=  (b & 0xf) * 10;
-        }
-
-        return ret;
+        return BcdCodec.gsmByteToInt(b);
     }
 
     /**
@@ -210,18 +158,8 @@ public class IccUtils {
      */
     public static int
     cdmaBcdByteToInt(byte b) {
-        int ret = 0;
-
         // treat out-of-range BCD values as 0
-        if ((b & 0xf0) <= 0x90) {
-            ret = ((b >> 4) & 0xf) * 10;
-        }
-
-        if ((b & 0x0f) <= 0x09) {
-            ret +=  (b & 0xf);
-        }
-
-        return ret;
+        return BcdCodec.cdmaByteToInt(b);
     }
 
     /**
@@ -351,9 +289,8 @@ public class IccUtils {
 
     public static int
     hexCharToInt(char c) {
-        if (c >= '0' && c <= '9') return (c - '0');
-        if (c >= 'A' && c <= 'F') return (c - 'A' + 10);
-        if (c >= 'a' && c <= 'f') return (c - 'a' + 10);
+        int v = HexCodec.digitValue(c);
+        if (v >= 0) return v;
 
         throw new RuntimeException ("invalid hex char '" + c + "'");
     }
@@ -374,14 +311,7 @@ public class IccUtils {
 
         if (s == null) return null;
 
-        int sz = s.length();
-
-        ret = new byte[sz/2];
-
-        for (int i=0 ; i <sz ; i+=2) {
-            ret[i/2] = (byte) ((hexCharToInt(s.charAt(i)) << 4)
-                    | hexCharToInt(s.charAt(i+1)));
-        }
+        ret = HexCodec.decodeCompat(s);
 
         return ret;
     }
@@ -398,21 +328,7 @@ public class IccUtils {
     bytesToHexString(byte[] bytes) {
         if (bytes == null) return null;
 
-        StringBuilder ret = new StringBuilder(2*bytes.length);
-
-        for (int i = 0 ; i < bytes.length ; i++) {
-            int b;
-
-            b = 0x0f & (bytes[i] >> 4);
-
-            ret.append(HEX_CHARS[b]);
-
-            b = 0x0f & bytes[i];
-
-            ret.append(HEX_CHARS[b]);
-        }
-
-        return ret.toString();
+        return HexCodec.toHexString(bytes, 0, bytes.length, true);
     }
 
 
@@ -0,0 +1,159 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of
+ * HdrHistogram.
+ *
+ * Values below 32 get a bucket each; above that every power of two is
+ * split in 16 buckets, so a value is reported within about 6% of what was
+ * recorded.  The whole positive long range fits in 960 buckets.
+ *
+ * Buckets are striped by thread, like a {@link LongAdder}: each thread
+ * increments a bucket array of its own stripe, allocated on first use,
+ * and the stripes are summed when read.  The count is derived from the
+ * buckets, the sum is a LongAdder, and the maximum is only written when a
+ * value exceeds it, so recording touches little memory shared between
+ * threads.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT << 1;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private static final int STRIPE_COUNT =
+            Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), 8) * 2 - 1);
+
+    private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    private final AtomicReferenceArray<AtomicLongArray> mStripes =
+            new AtomicReferenceArray<AtomicLongArray>(STRIPE_COUNT);
+    private final LongAdder mSum = new LongAdder();
+    private final LongAccumulator mMax = new LongAccumulator(MAX, 0);
+
+    private static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    private static long bucketLowestValue(int index) {
+        if (index < LINEAR_LIMIT) return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return (long) ((index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT) << shift;
+    }
+
+    private static long bucketHighestValue(int index) {
+        if (index < LINEAR_LIMIT) return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return bucketLowestValue(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * Record a single value, e.g. a duration in nanoseconds.  Negative
+     * values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        stripe().incrementAndGet(bucketIndex(value));
+        mSum.add(value);
+        if (value > mMax.get()) mMax.accumulate(value);
+    }
+
+    private AtomicLongArray stripe() {
+        int index = (int) Thread.currentThread().getId() & (STRIPE_COUNT - 1);
+        AtomicLongArray stripe = mStripes.get(index);
+        if (stripe == null) {
+            mStripes.compareAndSet(index, null, new AtomicLongArray(BUCKET_COUNT));
+            stripe = mStripes.get(index);
+        }
+        return stripe;
+    }
+
+    // Sum of the stripes of each bucket.
+    private long[] bucketCounts() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int s = 0; s < STRIPE_COUNT; s++) {
+            AtomicLongArray stripe = mStripes.get(s);
+            if (stripe == null) continue;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Record the time elapsed since a {@link System#nanoTime()} reading.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (long bucket : bucketCounts()) count += bucket;
+        return count;
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) mSum.sum() / count;
+    }
+
+    /**
+     * Returns the value at the given percentile, as the highest value of
+     * the bucket it falls in.
+     *
+     * @param percentile between 0 and 100
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] counts = bucketCounts();
+        long total = 0;
+        for (long count : counts) total += count;
+        if (total == 0) return 0;
+        long target = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total);
+        if (target < 1) target = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) return Math.min(bucketHighestValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int s = 0; s < STRIPE_COUNT; s++) {
+            AtomicLongArray stripe = mStripes.get(s);
+            if (stripe == null) continue;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                stripe.set(i, 0);
+            }
+        }
+        mSum.reset();
+        mMax.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + getCount() + ", mean=" + (long) getMean()
+                + ", p50=" + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99)
+                + ", max=" + getMax() + '}';
+    }
+}
@@ -0,0 +1,243 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The set of enabled broadcast service categories, as programmed over the
+ * air by Service Category Program Teleservice (SCPT) messages.
+ * (See 3GPP2 C.S0015-B, v2, 4.5.19 and 4.5.20)
+ *
+ * The registry is an immutable snapshot published through a volatile
+ * field: a bitset over the 16-bit category space, plus the language,
+ * maximum number of messages and alert option of each enabled category.
+ * {@link #isEnabled(int)} is a single volatile read and bit test, so it can
+ * be called for every inbound broadcast without locking.  Program data is
+ * applied to a copy, which replaces the snapshot once all operations of
+ * the message are done, so readers never see a half applied message.
+ */
+public class ServiceCategoryRegistry {
+    private static final String LOG_TAG = "ServiceCategoryRegistry";
+
+    private static final int CATEGORY_COUNT = 1 << 16;
+
+    // Per-category settings, packed in an int.
+    private static final int LANGUAGE_SHIFT     = 16;
+    private static final int MAX_MESSAGES_SHIFT = 8;
+
+    /** No limit on the number of enabled categories. */
+    public static final int NO_CATEGORY_LIMIT = Integer.MAX_VALUE;
+
+    private static final class Snapshot {
+        final long[] enabled;
+        // Sorted enabled categories, and their packed settings.
+        final int[] categories;
+        final int[] settings;
+
+        Snapshot(long[] enabled, int[] categories, int[] settings) {
+            this.enabled = enabled;
+            this.categories = categories;
+            this.settings = settings;
+        }
+
+        int indexOf(int category) {
+            return Arrays.binarySearch(categories, category);
+        }
+    }
+
+    private static final Snapshot EMPTY_SNAPSHOT =
+            new Snapshot(new long[CATEGORY_COUNT >>> 6], new int[0], new int[0]);
+
+    private final int mCategoryLimit;
+    private volatile Snapshot mSnapshot = EMPTY_SNAPSHOT;
+
+    public ServiceCategoryRegistry() {
+        this(NO_CATEGORY_LIMIT);
+    }
+
+    /**
+     * @param categoryLimit maximum number of categories enabled at once;
+     *     additions beyond it fail with
+     *     {@link CdmaSmsCbProgramResults#RESULT_CATEGORY_LIMIT_EXCEEDED}
+     */
+    public ServiceCategoryRegistry(int categoryLimit) {
+        mCategoryLimit = categoryLimit;
+    }
+
+    /**
+     * Returns whether broadcasts of a service category should be received.
+     */
+    public boolean isEnabled(int category) {
+        if ((category & ~0xFFFF) != 0) return false;
+        return (mSnapshot.enabled[category >>> 6] & (1L << category)) != 0;
+    }
+
+    /**
+     * Returns the language of an enabled category (BearerData.LANGUAGE_*),
+     * or -1 if the category is not enabled.
+     */
+    public int getLanguage(int category) {
+        Snapshot snapshot = mSnapshot;
+        int index = snapshot.indexOf(category);
+        return index < 0 ? -1 : snapshot.settings[index] >>> LANGUAGE_SHIFT;
+    }
+
+    /**
+     * Returns the maximum number of messages to store for an enabled
+     * category, or -1 if the category is not enabled.
+     */
+    public int getMaxMessages(int category) {
+        Snapshot snapshot = mSnapshot;
+        int index = snapshot.indexOf(category);
+        return index < 0 ? -1 : (snapshot.settings[index] >>> MAX_MESSAGES_SHIFT) & 0xFF;
+    }
+
+    /**
+     * Returns the alert option of an enabled category
+     * (CdmaSmsCbProgramData.ALERT_OPTION_*), or -1 if the category is not
+     * enabled.
+     */
+    public int getAlertOption(int category) {
+        Snapshot snapshot = mSnapshot;
+        int index = snapshot.indexOf(category);
+        return index < 0 ? -1 : snapshot.settings[index] & 0xFF;
+    }
+
+    /**
+     * Returns the enabled categories, in increasing order.
+     */
+    public int[] getEnabledCategories() {
+        return mSnapshot.categories.clone();
+    }
+
+    public int size() {
+        return mSnapshot.categories.length;
+    }
+
+    /**
+     * Apply the operations of a SCPT message, in order, and publish the
+     * result at once.
+     *
+     * @param programData the decoded BearerData.serviceCategoryProgramData
+     * @return the result of each add and delete operation, for the
+     *     BearerData.serviceCategoryProgramResults of the reply
+     */
+    public synchronized ArrayList<CdmaSmsCbProgramResults> apply(
+            List<CdmaSmsCbProgramData> programData) {
+        ArrayList<CdmaSmsCbProgramResults> results = new ArrayList<CdmaSmsCbProgramResults>();
+        Snapshot current = mSnapshot;
+        long[] enabled = current.enabled.clone();
+        // Enabled categories and their settings, sorted again at the end if needed.
+        int count = current.categories.length;
+        int[] categories = Arrays.copyOf(current.categories, count + programData.size());
+        int[] settings = Arrays.copyOf(current.settings, count + programData.size());
+        boolean sorted = true;
+
+        for (CdmaSmsCbProgramData data : programData) {
+            int category = data.getCategory();
+            int result;
+            switch (data.getOperation()) {
+                case CdmaSmsCbProgramData.OPERATION_ADD_CATEGORY:
+                    result = checkAdd(data, enabled, count);
+                    if (result == CdmaSmsCbProgramResults.RESULT_SUCCESS) {
+                        enabled[category >>> 6] |= 1L << category;
+                        categories[count] = category;
+                        settings[count] = pack(data);
+                        if (count > 0 && categories[count - 1] > category) sorted = false;
+                        count++;
+                    }
+                    break;
+                case CdmaSmsCbProgramData.OPERATION_DELETE_CATEGORY:
+                    if ((category & ~0xFFFF) != 0
+                            || (enabled[category >>> 6] & (1L << category)) == 0) {
+                        result = CdmaSmsCbProgramResults.RESULT_CATEGORY_ALREADY_DELETED;
+                    } else {
+                        enabled[category >>> 6] &= ~(1L << category);
+                        count = remove(categories, settings, count, category);
+                        result = CdmaSmsCbProgramResults.RESULT_SUCCESS;
+                    }
+                    break;
+                case CdmaSmsCbProgramData.OPERATION_CLEAR_CATEGORIES:
+                    Arrays.fill(enabled, 0);
+                    count = 0;
+                    sorted = true;
+                    result = CdmaSmsCbProgramResults.RESULT_SUCCESS;
+                    break;
+                default:
+                    Rlog.w(LOG_TAG, "apply: unsupported operation " + data.getOperation());
+                    result = CdmaSmsCbProgramResults.RESULT_UNSPECIFIED_FAILURE;
+                    break;
+            }
+            results.add(new CdmaSmsCbProgramResults(category, data.getLanguage(), result));
+        }
+
+        categories = Arrays.copyOf(categories, count);
+        settings = Arrays.copyOf(settings, count);
+        if (!sorted) sortByCategory(categories, settings);
+        mSnapshot = new Snapshot(enabled, categories, settings);
+        return results;
+    }
+
+    private int checkAdd(CdmaSmsCbProgramData data, long[] enabled, int count) {
+        int category = data.getCategory();
+        if ((category & ~0xFFFF) != 0) {
+            return CdmaSmsCbProgramResults.RESULT_UNSPECIFIED_FAILURE;
+        }
+        if ((enabled[category >>> 6] & (1L << category)) != 0) {
+            return CdmaSmsCbProgramResults.RESULT_CATEGORY_ALREADY_ADDED;
+        }
+        if (data.getMaxMessages() < 1 || data.getMaxMessages() > 0xFF) {
+            return CdmaSmsCbProgramResults.RESULT_INVALID_MAX_MESSAGES;
+        }
+        if (data.getAlertOption() < CdmaSmsCbProgramData.ALERT_OPTION_NO_ALERT
+                || data.getAlertOption()
+                        > CdmaSmsCbProgramData.ALERT_OPTION_HIGH_PRIORITY_REPEAT) {
+            return CdmaSmsCbProgramResults.RESULT_INVALID_ALERT_OPTION;
+        }
+        if (count >= mCategoryLimit) {
+            return CdmaSmsCbProgramResults.RESULT_CATEGORY_LIMIT_EXCEEDED;
+        }
+        return CdmaSmsCbProgramResults.RESULT_SUCCESS;
+    }
+
+    private static int pack(CdmaSmsCbProgramData data) {
+        return ((data.getLanguage() & 0xFFFF) << LANGUAGE_SHIFT)
+                | (data.getMaxMessages() << MAX_MESSAGES_SHIFT) | data.getAlertOption();
+    }
+
+    private static int remove(int[] categories, int[] settings, int count, int category) {
+        for (int i = 0; i < count; i++) {
+            if (categories[i] == category) {
+                System.arraycopy(categories, i + 1, categories, i, count - i - 1);
+                System.arraycopy(settings, i + 1, settings, i, count - i - 1);
+                return count - 1;
+            }
+        }
+        return count;
+    }
+
+    private static void sortByCategory(int[] categories, int[] settings) {
+        // Categories are unique, so sort them as keys of (category, settings) pairs.
+        long[] pairs = new long[categories.length];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = ((long) categories[i] << 32) | (settings[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(pairs);
+        for (int i = 0; i < pairs.length; i++) {
+            categories[i] = (int) (pairs[i] >>> 32);
+            settings[i] = (int) pairs[i];
+        }
+    }
+
+    @Override
+    public String toString() {
+        Snapshot snapshot = mSnapshot;
+        StringBuilder builder = new StringBuilder("ServiceCategoryRegistry{");
+        for (int i = 0; i < snapshot.categories.length; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(snapshot.categories[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,136 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache interning decoded address strings by their raw digit
+ * bytes, so that the addresses of frequent originators, such as short
+ * codes, are only allocated once.
+ *
+ * The cache is a fixed size, two way set associative table of immutable
+ * entries; a new entry replaces one of the two in its set.  Lookups take
+ * no lock: entries are safely published through their final fields, and
+ * a lost update only costs a later miss.
+ */
+public final class SmsAddressCache {
+
+    /** Digits as ASCII bytes, used as is. */
+    public static final int KIND_ASCII               = 0;
+    /** Digits as ASCII bytes, with a '+' prefix for international numbers. */
+    public static final int KIND_ASCII_INTERNATIONAL = 1;
+    /** Digits as packed DTMF codes. */
+    public static final int KIND_DTMF                = 2;
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final SmsAddressCache sDefault = new SmsAddressCache(DEFAULT_CAPACITY);
+
+    private static final class Entry {
+        final int tag;
+        final byte[] key;
+        final int hash;
+        final String value;
+
+        Entry(int tag, byte[] key, int hash, String value) {
+            this.tag = tag;
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    private final Entry[] mEntries;
+    private final int mMask;
+
+    /**
+     * @param capacity maximum number of addresses, rounded up to a power of two
+     */
+    public SmsAddressCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mEntries = new Entry[size];
+        mMask = size - 1;
+    }
+
+    public static SmsAddressCache getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Look up the address for some raw digits.
+     *
+     * @param kind one of the KIND_* values
+     * @param numDigits number of digits, for kinds where it is not the key length
+     * @return the address, or null if not cached
+     */
+    public String get(int kind, int numDigits, byte[] data, int offset, int length) {
+        int tag = tag(kind, numDigits);
+        int hash = hash(tag, data, offset, length);
+        int set = hash & mMask & ~1;
+        Entry entry = mEntries[set];
+        if (matches(entry, tag, hash, data, offset, length)) return entry.value;
+        entry = mEntries[set + 1];
+        if (matches(entry, tag, hash, data, offset, length)) return entry.value;
+        return null;
+    }
+
+    /**
+     * Remember the address for some raw digits, which are copied.
+     */
+    public void put(int kind, int numDigits, byte[] data, int offset, int length,
+            String address) {
+        int tag = tag(kind, numDigits);
+        int hash = hash(tag, data, offset, length);
+        int set = hash & mMask & ~1;
+        Entry entry = new Entry(tag, Arrays.copyOfRange(data, offset, offset + length), hash,
+                address);
+        // Keep the most recent entry first, pushing out the older one.
+        mEntries[set + 1] = mEntries[set];
+        mEntries[set] = entry;
+    }
+
+    /**
+     * Returns the display address of ASCII digits, as decoded by
+     * SmsMessage: with a '+' prefix for international numbers, unless
+     * the digits already start with one.
+     */
+    public String internAscii(byte[] digits, boolean international) {
+        int kind = international ? KIND_ASCII_INTERNATIONAL : KIND_ASCII;
+        String address = get(kind, digits.length, digits, 0, digits.length);
+        if (address != null) return address;
+        address = new String(digits);
+        if (international && (digits.length == 0 || digits[0] != '+')) {
+            address = "+" + address;
+        }
+        put(kind, digits.length, digits, 0, digits.length, address);
+        return address;
+    }
+
+    public void clear() {
+        Arrays.fill(mEntries, null);
+    }
+
+    private static int tag(int kind, int numDigits) {
+        return (kind << 16) | (numDigits & 0xFFFF);
+    }
+
+    private static boolean matches(Entry entry, int tag, int hash, byte[] data, int offset,
+            int length) {
+        if (entry == null || entry.hash != hash || entry.tag != tag
+                || entry.key.length != length) {
+            return false;
+        }
+        byte[] key = entry.key;
+        for (int i = 0; i < length; i++) {
+            if (key[i] != data[offset + i]) return false;
+        }
+        return true;
+    }
+
+    private static int hash(int tag, byte[] data, int offset, int length) {
+        int h = tag;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = 31 * h + data[i];
+        }
+        return h ^ (h >>> 16);
+    }
+}
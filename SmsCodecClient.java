@@ -0,0 +1,97 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Blocking client for {@link SmsCodecServer}, sending one request at a
+ * time.  Not thread-safe; use one client per thread.
+ */
+public class SmsCodecClient implements Closeable {
+
+    private final SocketChannel mChannel;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(SmsCodecServer.RESPONSE_HEADER_LENGTH);
+    private int mNextRequestId;
+
+    /**
+     * Connect to a server on a loopback port.
+     */
+    public SmsCodecClient(int port) throws IOException {
+        mChannel = SocketChannel.open(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        mChannel.socket().setTcpNoDelay(true);
+    }
+
+    /**
+     * Decode a PDU laid out as for {@link SmsMessage#parsePdu(byte[])}.
+     *
+     * @throws RuntimeException if the server could not decode it
+     */
+    public SmsFlatView decodePdu(byte[] pdu) throws IOException {
+        return SmsFlatView.wrap(call(SmsCodecServer.OP_DECODE_PDU, pdu));
+    }
+
+    /**
+     * Decode a PDU laid out as for {@link SmsMessage#parsePduFromEfRecord(byte[])}.
+     *
+     * @throws RuntimeException if the server could not decode it
+     */
+    public SmsFlatView decodeEfRecord(byte[] pdu) throws IOException {
+        return SmsFlatView.wrap(call(SmsCodecServer.OP_DECODE_EF_RECORD, pdu));
+    }
+
+    /**
+     * Encode bearer data as {@link BearerData#encode(BearerData)} does.
+     *
+     * @throws RuntimeException if the server could not encode it
+     */
+    public byte[] encode(BearerData bData) throws IOException {
+        return call(SmsCodecServer.OP_ENCODE_BEARER_DATA,
+                SmsFlatFormat.toByteArray(new SmsEnvelope(), bData));
+    }
+
+    private byte[] call(int op, byte[] payload) throws IOException {
+        int requestId = mNextRequestId++;
+        ByteBuffer request = ByteBuffer.allocate(SmsCodecServer.REQUEST_HEADER_LENGTH
+                + payload.length);
+        request.putInt(SmsCodecServer.REQUEST_HEADER_LENGTH - 4 + payload.length);
+        request.put((byte) op);
+        request.putInt(requestId);
+        request.put(payload);
+        request.flip();
+        while (request.hasRemaining()) mChannel.write(request);
+
+        mHeader.clear();
+        readFully(mHeader);
+        mHeader.flip();
+        int length = mHeader.getInt();
+        int responseId = mHeader.getInt();
+        int status = mHeader.get();
+        if (responseId != requestId) {
+            throw new IOException("response " + responseId + " to request " + requestId);
+        }
+        ByteBuffer result = ByteBuffer.allocate(length - (SmsCodecServer.RESPONSE_HEADER_LENGTH - 4));
+        readFully(result);
+        if (status != SmsCodecServer.STATUS_OK) {
+            throw new RuntimeException("SmsCodecServer: "
+                    + new String(result.array(), StandardCharsets.UTF_8));
+        }
+        return result.array();
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer) < 0) throw new IOException("connection closed");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+}
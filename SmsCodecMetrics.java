@@ -0,0 +1,285 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide latency histograms and counters for the SMS codecs.
+ *
+ * Recording is cheap enough to stay on in production: latencies go to a
+ * lock-free {@link LatencyHistogram} per operation, and counters are
+ * {@link LongAdder}s, which stripe their updates across threads.  All
+ * recording can be turned off with {@link #setEnabled(boolean)}.
+ * {@link #snapshot()} copies everything out for export.
+ */
+public final class SmsCodecMetrics {
+
+    /*
+     * Timed operations.
+     */
+    public static final int OP_BEARER_DATA_DECODE = 0;
+    public static final int OP_BEARER_DATA_ENCODE = 1;
+    public static final int OP_PARSE_PDU          = 2;
+    public static final int OP_PARSE_EF_RECORD    = 3;
+    public static final int OP_GSM7_PACK          = 4;
+    public static final int OP_GSM7_UNPACK        = 5;
+    public static final int OP_COUNT              = 6;
+
+    private static final String[] OP_NAMES = {
+        "bearerDataDecode", "bearerDataEncode", "parsePdu", "parseEfRecord", "gsm7Pack",
+        "gsm7Unpack"
+    };
+
+    /*
+     * Malformed input events.
+     */
+    /** User data shorter than its number of fields, decoded truncated. */
+    public static final int MALFORMED_TRUNCATED_PAYLOAD   = 0;
+    /** Reserved bearer data subparameter, skipped. */
+    public static final int MALFORMED_RESERVED_SUBPARAM   = 1;
+    /** Bearer data subparameter present twice, decode failed. */
+    public static final int MALFORMED_DUPLICATE_SUBPARAM  = 2;
+    /** Bearer data that could not be decoded. */
+    public static final int MALFORMED_BEARER_DATA         = 3;
+    /** Transport layer message that could not be parsed. */
+    public static final int MALFORMED_ENVELOPE            = 4;
+    /** Bearer data exceeding its DecodeLimits, decode failed. */
+    public static final int MALFORMED_LIMIT_EXCEEDED      = 5;
+    public static final int MALFORMED_COUNT               = 6;
+
+    private static final String[] MALFORMED_NAMES = {
+        "truncatedPayload", "reservedSubparam", "duplicateSubparam", "bearerData", "envelope",
+        "limitExceeded"
+    };
+
+    /** Teleservices counted separately; others are counted together. */
+    private static final int[] TELESERVICES = {
+        SmsEnvelope.TELESERVICE_NOT_SET, SmsEnvelope.TELESERVICE_WMT,
+        SmsEnvelope.TELESERVICE_VMN, SmsEnvelope.TELESERVICE_WAP,
+        SmsEnvelope.TELESERVICE_WEMT, SmsEnvelope.TELESERVICE_SCPT,
+        SmsEnvelope.TELESERVICE_CT_WAP, SmsEnvelope.TELESERVICE_MWI
+    };
+
+    // UserData.ENCODING_* and BearerData.MESSAGE_TYPE_* field sizes.
+    private static final int ENCODING_COUNT     = 1 << 5;
+    private static final int MESSAGE_TYPE_COUNT = 1 << 4;
+
+    private static volatile boolean sEnabled = true;
+
+    private static final LatencyHistogram[] sLatency = new LatencyHistogram[OP_COUNT];
+    private static final LongAdder[] sEncodings = newAdders(ENCODING_COUNT);
+    private static final LongAdder[] sTeleservices = newAdders(TELESERVICES.length + 1);
+    private static final LongAdder[] sMessageTypes = newAdders(MESSAGE_TYPE_COUNT);
+    private static final LongAdder[] sMalformed = newAdders(MALFORMED_COUNT);
+
+    static {
+        for (int i = 0; i < OP_COUNT; i++) {
+            sLatency[i] = new LatencyHistogram();
+        }
+    }
+
+    private SmsCodecMetrics() {
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Returns a short name for an OP_* value, for logs and traces.
+     */
+    public static String getOpName(int op) {
+        return OP_NAMES[op];
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Record the time taken by an operation.
+     *
+     * @param op one of the OP_* values
+     * @param startNanos {@link System#nanoTime()} at the start of the operation
+     */
+    public static void recordLatency(int op, long startNanos) {
+        if (sEnabled) sLatency[op].recordSince(startNanos);
+    }
+
+    /**
+     * Count a user data payload of the given UserData.ENCODING_* value.
+     */
+    public static void countEncoding(int msgEncoding) {
+        if (sEnabled) sEncodings[msgEncoding & (ENCODING_COUNT - 1)].increment();
+    }
+
+    /**
+     * Count a message of the given SmsEnvelope.TELESERVICE_* value.
+     */
+    public static void countTeleservice(int teleService) {
+        if (sEnabled) sTeleservices[teleserviceIndex(teleService)].increment();
+    }
+
+    /**
+     * Count bearer data of the given BearerData.MESSAGE_TYPE_* value.
+     */
+    public static void countMessageType(int messageType) {
+        if (sEnabled) sMessageTypes[messageType & (MESSAGE_TYPE_COUNT - 1)].increment();
+    }
+
+    /**
+     * Count a malformed input event.
+     *
+     * @param event one of the MALFORMED_* values
+     */
+    public static void countMalformed(int event) {
+        if (sEnabled) sMalformed[event].increment();
+    }
+
+    private static int teleserviceIndex(int teleService) {
+        for (int i = 0; i < TELESERVICES.length; i++) {
+            if (TELESERVICES[i] == teleService) return i;
+        }
+        return TELESERVICES.length;
+    }
+
+    /**
+     * Clear all histograms and counters.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : sLatency) histogram.reset();
+        for (LongAdder adder : sEncodings) adder.reset();
+        for (LongAdder adder : sTeleservices) adder.reset();
+        for (LongAdder adder : sMessageTypes) adder.reset();
+        for (LongAdder adder : sMalformed) adder.reset();
+    }
+
+    /**
+     * Copy the current histograms and counters out.  Updates made while
+     * copying may or may not be included.
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /**
+     * Point in time copy of the metrics.
+     */
+    public static final class Snapshot {
+        private final long[] mOpCount = new long[OP_COUNT];
+        private final long[] mOpMean = new long[OP_COUNT];
+        private final long[] mOpP50 = new long[OP_COUNT];
+        private final long[] mOpP99 = new long[OP_COUNT];
+        private final long[] mOpMax = new long[OP_COUNT];
+        private final long[] mEncodings = sum(sEncodings);
+        private final long[] mTeleservices = sum(sTeleservices);
+        private final long[] mMessageTypes = sum(sMessageTypes);
+        private final long[] mMalformed = sum(sMalformed);
+
+        private Snapshot() {
+            for (int i = 0; i < OP_COUNT; i++) {
+                LatencyHistogram histogram = sLatency[i];
+                mOpCount[i] = histogram.getCount();
+                mOpMean[i] = (long) histogram.getMean();
+                mOpP50[i] = histogram.getValueAtPercentile(50);
+                mOpP99[i] = histogram.getValueAtPercentile(99);
+                mOpMax[i] = histogram.getMax();
+            }
+        }
+
+        private static long[] sum(LongAdder[] adders) {
+            long[] values = new long[adders.length];
+            for (int i = 0; i < adders.length; i++) {
+                values[i] = adders[i].sum();
+            }
+            return values;
+        }
+
+        /** Number of times an operation was timed. */
+        public long getCount(int op) {
+            return mOpCount[op];
+        }
+
+        /** Mean duration of an operation, in nanoseconds. */
+        public long getMeanNanos(int op) {
+            return mOpMean[op];
+        }
+
+        /** Median duration of an operation, in nanoseconds. */
+        public long getP50Nanos(int op) {
+            return mOpP50[op];
+        }
+
+        /** 99th percentile duration of an operation, in nanoseconds. */
+        public long getP99Nanos(int op) {
+            return mOpP99[op];
+        }
+
+        /** Longest duration of an operation, in nanoseconds. */
+        public long getMaxNanos(int op) {
+            return mOpMax[op];
+        }
+
+        /** Number of user data payloads of a UserData.ENCODING_* value. */
+        public long getEncodingCount(int msgEncoding) {
+            return mEncodings[msgEncoding & (ENCODING_COUNT - 1)];
+        }
+
+        /** Number of messages of a SmsEnvelope.TELESERVICE_* value. */
+        public long getTeleserviceCount(int teleService) {
+            return mTeleservices[teleserviceIndex(teleService)];
+        }
+
+        /** Number of bearer data of a BearerData.MESSAGE_TYPE_* value. */
+        public long getMessageTypeCount(int messageType) {
+            return mMessageTypes[messageType & (MESSAGE_TYPE_COUNT - 1)];
+        }
+
+        /** Number of malformed input events of a MALFORMED_* value. */
+        public long getMalformedCount(int event) {
+            return mMalformed[event];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("SmsCodecMetrics{");
+            for (int i = 0; i < OP_COUNT; i++) {
+                if (mOpCount[i] == 0) continue;
+                builder.append(OP_NAMES[i]).append("={count=").append(mOpCount[i])
+                        .append(", mean=").append(mOpMean[i])
+                        .append(", p50=").append(mOpP50[i])
+                        .append(", p99=").append(mOpP99[i])
+                        .append(", max=").append(mOpMax[i]).append("}, ");
+            }
+            builder.append("encodings={");
+            appendNonZero(builder, mEncodings, null);
+            builder.append("}, teleservices={");
+            for (int i = 0; i < mTeleservices.length; i++) {
+                if (mTeleservices[i] == 0) continue;
+                builder.append(i < TELESERVICES.length
+                        ? "0x" + Integer.toHexString(TELESERVICES[i]) : "other")
+                        .append('=').append(mTeleservices[i]).append(' ');
+            }
+            builder.append("}, messageTypes={");
+            appendNonZero(builder, mMessageTypes, null);
+            builder.append("}, malformed={");
+            appendNonZero(builder, mMalformed, MALFORMED_NAMES);
+            return builder.append("}}").toString();
+        }
+
+        private static void appendNonZero(StringBuilder builder, long[] values, String[] names) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == 0) continue;
+                builder.append(names != null ? names[i] : Integer.toString(i))
+                        .append('=').append(values[i]).append(' ');
+            }
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local decode service, so that processes can share one warmed up codec
+ * instead of each embedding their own.
+ *
+ * The server listens on a loopback TCP port.  A few selector threads
+ * handle the connections with non-blocking I/O, and a worker pool does the
+ * decoding and encoding.  Connection read buffers come from a shared pool;
+ * request payloads and responses are allocated per request.  Each
+ * connection has at most {@link #MAX_IN_FLIGHT} requests being processed
+ * or answered, and is not read from while at that limit, so a client
+ * sending faster than it is served is held back by TCP flow control
+ * instead of queueing work and responses without bound.
+ *
+ * Requests and responses are framed, all values big endian:
+ *
+ *   request:  int length, byte op (OP_*), int request id, payload
+ *   response: int length, int request id, byte status (STATUS_*), payload
+ *
+ * where length counts the bytes after it.  A decode request carries a PDU
+ * and is answered with the message in {@link SmsFlatFormat}; an encode
+ * request carries bearer data in SmsFlatFormat and is answered with the
+ * encoded bearer data.  Failures are answered with STATUS_ERROR and a UTF-8
+ * message.  Responses on a connection may come out of request order.
+ *
+ * See {@link SmsCodecClient} for a client.
+ */
+public class SmsCodecServer implements Closeable {
+    private static final String LOG_TAG = "SmsCodecServer";
+
+    /** Decode a PDU laid out as for {@link SmsMessage#parsePdu(byte[])}. */
+    public static final int OP_DECODE_PDU         = 1;
+    /** Decode a PDU laid out as for {@link SmsMessage#parsePduFromEfRecord(byte[])}. */
+    public static final int OP_DECODE_EF_RECORD   = 2;
+    /** Encode bearer data given in SmsFlatFormat with {@link BearerData#encode}. */
+    public static final int OP_ENCODE_BEARER_DATA = 3;
+
+    public static final int STATUS_OK    = 0;
+    public static final int STATUS_ERROR = 1;
+
+    /** Largest frame accepted, counting the length field. */
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    /** Most requests per connection not yet answered in full. */
+    public static final int MAX_IN_FLIGHT = 32;
+
+    static final int REQUEST_HEADER_LENGTH  = 4 + 1 + 4;
+    static final int RESPONSE_HEADER_LENGTH = 4 + 4 + 1;
+
+    private final ServerSocketChannel mServerChannel;
+    private final SelectorThread[] mSelectors;
+    private final ExecutorService mWorkers;
+    private final BufferPool mBufferPool = new BufferPool();
+    private final AtomicInteger mNextSelector = new AtomicInteger();
+    private volatile DecodeLimits mDecodeLimits = DecodeLimits.DEFAULT;
+    private volatile boolean mClosed;
+
+    /**
+     * Create a server on a loopback port.
+     *
+     * @param port the port, or 0 for any free one, see {@link #getPort()}
+     * @param selectorThreads number of threads doing socket I/O
+     * @param workerThreads number of threads decoding and encoding
+     */
+    public SmsCodecServer(int port, int selectorThreads, int workerThreads) throws IOException {
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        mServerChannel.configureBlocking(false);
+        mSelectors = new SelectorThread[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++) {
+            mSelectors[i] = new SelectorThread(LOG_TAG + "-selector-" + i);
+        }
+        mServerChannel.register(mSelectors[0].mSelector, SelectionKey.OP_ACCEPT);
+        mWorkers = Executors.newFixedThreadPool(workerThreads);
+    }
+
+    public void start() {
+        for (SelectorThread selector : mSelectors) selector.mThread.start();
+    }
+
+    public int getPort() {
+        return mServerChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Set the limits for decoding bearer data; {@link DecodeLimits#DEFAULT}
+     * unless set.
+     */
+    public void setDecodeLimits(DecodeLimits limits) {
+        mDecodeLimits = limits;
+    }
+
+    /**
+     * Stop accepting and serving requests, and close all connections.
+     */
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        mServerChannel.close();
+        for (SelectorThread selector : mSelectors) selector.mSelector.wakeup();
+        mWorkers.shutdownNow();
+    }
+
+    /**
+     * Handle one request.  Called on a worker thread.
+     *
+     * @return the response payload
+     */
+    static byte[] process(int op, byte[] payload, DecodeLimits limits) {
+        switch (op) {
+            case OP_DECODE_PDU:
+            case OP_DECODE_EF_RECORD: {
+                SmsMessage msg = new SmsMessage();
+                msg.setDecodeLimits(limits);
+                if (op == OP_DECODE_PDU) {
+                    msg.parsePdu(payload);
+                } else {
+                    msg.parsePduFromEfRecord(payload);
+                }
+                return SmsFlatFormat.toByteArray(msg.mEnvelope, msg.getBearerData());
+            }
+            case OP_ENCODE_BEARER_DATA: {
+                BearerData bData = SmsFlatView.wrap(payload).toBearerData();
+                if (bData == null) throw new RuntimeException("no bearer data to encode");
+                byte[] encoded = BearerData.encode(bData);
+                if (encoded == null) throw new RuntimeException("bearer data encode failed");
+                return encoded;
+            }
+            default:
+                throw new RuntimeException("unknown op " + op);
+        }
+    }
+
+    /**
+     * Pool of connection read buffers, each holding a whole frame.
+     */
+    private static final class BufferPool {
+        private static final int MAX_POOLED = 64;
+        private final ConcurrentLinkedQueue<ByteBuffer> mBuffers =
+                new ConcurrentLinkedQueue<ByteBuffer>();
+        private final AtomicInteger mPooled = new AtomicInteger();
+
+        ByteBuffer acquire() {
+            ByteBuffer buffer = mBuffers.poll();
+            if (buffer == null) return ByteBuffer.allocateDirect(MAX_FRAME_LENGTH);
+            mPooled.decrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+
+        void release(ByteBuffer buffer) {
+            if (mPooled.incrementAndGet() <= MAX_POOLED) {
+                mBuffers.offer(buffer);
+            } else {
+                mPooled.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A client connection, served by one selector thread.
+     */
+    private final class Connection {
+        final SocketChannel channel;
+        final SelectorThread selector;
+        SelectionKey key;
+        ByteBuffer readBuffer = mBufferPool.acquire();
+        // Written by the selector thread only; responses are handed over
+        // through the selector's queue.
+        final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+        // Requests submitted whose responses are not yet written; selector
+        // thread only.
+        int inFlight;
+
+        Connection(SocketChannel channel, SelectorThread selector) {
+            this.channel = channel;
+            this.selector = selector;
+        }
+
+        void onReadable() throws IOException {
+            if (channel.read(readBuffer) < 0) {
+                close();
+                return;
+            }
+            processFrames();
+        }
+
+        // Submit the whole frames in the read buffer, up to MAX_IN_FLIGHT.
+        private void processFrames() {
+            readBuffer.flip();
+            while (inFlight < MAX_IN_FLIGHT && readBuffer.remaining() >= 4) {
+                int start = readBuffer.position();
+                int length = readBuffer.getInt(start);
+                if (length < REQUEST_HEADER_LENGTH - 4 || length > MAX_FRAME_LENGTH - 4) {
+                    Rlog.w(LOG_TAG, "bad frame length " + length + ", closing connection");
+                    close();
+                    return;
+                }
+                if (readBuffer.remaining() < 4 + length) break;
+                readBuffer.position(start + 4);
+                final int op = readBuffer.get();
+                final int requestId = readBuffer.getInt();
+                final byte[] payload = new byte[length - (REQUEST_HEADER_LENGTH - 4)];
+                readBuffer.get(payload);
+                inFlight++;
+                submit(op, requestId, payload);
+            }
+            readBuffer.compact();
+            updateInterestOps();
+        }
+
+        // Read only below the in-flight limit, write while responses are queued.
+        void updateInterestOps() {
+            int ops = inFlight < MAX_IN_FLIGHT ? SelectionKey.OP_READ : 0;
+            if (!writeQueue.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            key.interestOps(ops);
+        }
+
+        private void submit(final int op, final int requestId, final byte[] payload) {
+            final DecodeLimits limits = mDecodeLimits;
+            try {
+                mWorkers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        respond(requestId, op, payload, limits);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // Shutting down.
+            }
+        }
+
+        private void respond(int requestId, int op, byte[] payload, DecodeLimits limits) {
+            int status = STATUS_OK;
+            byte[] result;
+            try {
+                result = process(op, payload, limits);
+            } catch (RuntimeException ex) {
+                status = STATUS_ERROR;
+                result = String.valueOf(ex.getMessage()).getBytes(StandardCharsets.UTF_8);
+            }
+            ByteBuffer response = ByteBuffer.allocate(RESPONSE_HEADER_LENGTH + result.length);
+            response.putInt(RESPONSE_HEADER_LENGTH - 4 + result.length);
+            response.putInt(requestId);
+            response.put((byte) status);
+            response.put(result);
+            response.flip();
+            selector.queueResponse(this, response);
+        }
+
+        void onWritable() throws IOException {
+            int written = 0;
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer response = writeQueue.peek();
+                channel.write(response);
+                if (response.hasRemaining()) break;
+                writeQueue.poll();
+                written++;
+            }
+            boolean wasBlocked = inFlight >= MAX_IN_FLIGHT;
+            inFlight -= written;
+            if (wasBlocked && inFlight < MAX_IN_FLIGHT) {
+                // Frames received while at the limit get no new read event.
+                processFrames();
+            } else {
+                updateInterestOps();
+            }
+        }
+
+        void close() {
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // Closing anyway.
+            }
+            if (readBuffer != null) {
+                mBufferPool.release(readBuffer);
+                readBuffer = null;
+            }
+        }
+    }
+
+    private static final class PendingResponse {
+        final Connection connection;
+        final ByteBuffer response;
+
+        PendingResponse(Connection connection, ByteBuffer response) {
+            this.connection = connection;
+            this.response = response;
+        }
+    }
+
+    private final class SelectorThread implements Runnable {
+        final Selector mSelector;
+        final Thread mThread;
+        private final ConcurrentLinkedQueue<SocketChannel> mNewChannels =
+                new ConcurrentLinkedQueue<SocketChannel>();
+        private final ConcurrentLinkedQueue<PendingResponse> mResponses =
+                new ConcurrentLinkedQueue<PendingResponse>();
+
+        SelectorThread(String name) throws IOException {
+            mSelector = Selector.open();
+            mThread = new Thread(this, name);
+            mThread.setDaemon(true);
+        }
+
+        void addChannel(SocketChannel channel) {
+            mNewChannels.offer(channel);
+            mSelector.wakeup();
+        }
+
+        void queueResponse(Connection connection, ByteBuffer response) {
+            mResponses.offer(new PendingResponse(connection, response));
+            mSelector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!mClosed) {
+                    mSelector.select();
+                    registerNewChannels();
+                    flushResponses();
+                    Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                }
+            } catch (IOException ex) {
+                Rlog.e(LOG_TAG, "selector failed: " + ex);
+            } finally {
+                for (SelectionKey key : mSelector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                try {
+                    mSelector.close();
+                } catch (IOException ex) {
+                    // Closing anyway.
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            if (!key.isValid()) return;
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) connection.onReadable();
+                if (key.isValid() && key.isWritable()) connection.onWritable();
+            } catch (IOException ex) {
+                connection.close();
+            }
+        }
+
+        private void accept() {
+            try {
+                SocketChannel channel;
+                while ((channel = mServerChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    mSelectors[Math.floorMod(mNextSelector.getAndIncrement(), mSelectors.length)]
+                            .addChannel(channel);
+                }
+            } catch (IOException ex) {
+                Rlog.e(LOG_TAG, "accept failed: " + ex);
+            }
+        }
+
+        private void registerNewChannels() {
+            SocketChannel channel;
+            while ((channel = mNewChannels.poll()) != null) {
+                Connection connection = new Connection(channel, this);
+                try {
+                    connection.key = channel.register(mSelector, SelectionKey.OP_READ,
+                            connection);
+                } catch (ClosedChannelException ex) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void flushResponses() {
+            PendingResponse pending;
+            while ((pending = mResponses.poll()) != null) {
+                Connection connection = pending.connection;
+                if (connection.key == null || !connection.key.isValid()) continue;
+                connection.writeQueue.offer(pending.response);
+                connection.updateInterestOps();
+            }
+        }
+    }
+}
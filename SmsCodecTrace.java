@@ -0,0 +1,76 @@
+package com.quectel.jnitestexec.cdma2;
+
+import android.os.Trace;
+
+/**
+ * Emits system trace sections for the SMS codec operations, so that they
+ * show up in Perfetto/systrace recordings next to GC, lock contention and
+ * scheduling events.
+ *
+ * Each operation is one section named after the operation and its input
+ * size, holding a zero length section that reports the outcome, user data
+ * encoding and number of bearer data subparameters.  Sections are only
+ * built while tracing is enabled; otherwise the cost is one
+ * {@link Trace#isEnabled()} check per operation.
+ *
+ * Usage:
+ * <pre>
+ *     boolean traced = SmsCodecTrace.begin(SmsCodecMetrics.OP_PARSE_PDU, pdu.length);
+ *     ...
+ *     if (traced) SmsCodecTrace.end(success, msgEncoding, subparamCount);
+ * </pre>
+ * and end() must be called on every path once begin() returned true.
+ */
+public final class SmsCodecTrace {
+
+    /** Value to pass to {@link #end} for an unknown encoding or count. */
+    public static final int UNKNOWN = -1;
+
+    private SmsCodecTrace() {
+    }
+
+    /**
+     * Start the section of an operation, if tracing is enabled.
+     *
+     * @param op one of the SmsCodecMetrics.OP_* values
+     * @param size the size of the input, in bytes or characters
+     * @return true if a section was started and {@link #end} must be called
+     */
+    public static boolean begin(int op, int size) {
+        if (!Trace.isEnabled()) return false;
+        Trace.beginSection("sms:" + SmsCodecMetrics.getOpName(op) + " size=" + size);
+        return true;
+    }
+
+    /**
+     * End the section started by the last {@link #begin} on this thread.
+     *
+     * @param msgEncoding the UserData.ENCODING_* value, or {@link #UNKNOWN}
+     * @param subparamCount number of bearer data subparameters, or {@link #UNKNOWN}
+     */
+    public static void end(boolean success, int msgEncoding, int subparamCount) {
+        StringBuilder builder = new StringBuilder(success ? "ok" : "failed");
+        if (msgEncoding != UNKNOWN) builder.append(" encoding=").append(msgEncoding);
+        if (subparamCount != UNKNOWN) builder.append(" subparams=").append(subparamCount);
+        Trace.beginSection(builder.toString());
+        Trace.endSection();
+        Trace.endSection();
+    }
+
+    /**
+     * Count the subparameters of encoded bearer data, without decoding them.
+     *
+     * @return the number of complete subparameters
+     */
+    public static int countSubparams(byte[] data) {
+        if (data == null) return UNKNOWN;
+        int count = 0;
+        int pos = 0;
+        while (pos + 2 <= data.length) {
+            pos += 2 + (data[pos + 1] & 0xFF);
+            if (pos > data.length) break;
+            count++;
+        }
+        return count;
+    }
+}
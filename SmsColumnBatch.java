@@ -0,0 +1,298 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A batch of decoded messages stored column by column, for analytics
+ * that scan many messages for a few fields.
+ *
+ * Numeric columns are primitive arrays with one entry per row.  String
+ * columns are dictionary encoded: each row holds the index of its value in
+ * a per batch list of distinct values, or -1 for null.  Unset optional
+ * fields are stored as -1, and unset time stamps as
+ * {@link SmsTimeStamp#NONE}.
+ *
+ * Batches are written and read with {@link SmsColumnWriter} and
+ * {@link SmsColumnReader}; a batch read back only holds the columns asked
+ * for, see {@link #isLoaded(int)}.
+ */
+public class SmsColumnBatch {
+
+    public static final int TYPE_INT    = 0;
+    public static final int TYPE_LONG   = 1;
+    public static final int TYPE_STRING = 2;
+
+    // Columns of the message schema.
+    public static final int COL_ENV_MESSAGE_TYPE    = 0;
+    public static final int COL_TELESERVICE         = 1;
+    public static final int COL_SERVICE_CATEGORY    = 2;
+    public static final int COL_ORIG_ADDRESS        = 3;
+    public static final int COL_MESSAGE_TYPE        = 4;
+    public static final int COL_MESSAGE_ID          = 5;
+    public static final int COL_PRIORITY            = 6;
+    public static final int COL_PRIVACY             = 7;
+    public static final int COL_LANGUAGE            = 8;
+    public static final int COL_MSG_CENTER_TIME     = 9;
+    public static final int COL_VALIDITY_ABSOLUTE   = 10;
+    public static final int COL_DEFERRED_ABSOLUTE   = 11;
+    public static final int COL_MSG_ENCODING        = 12;
+    public static final int COL_TEXT                = 13;
+
+    public static final String[] MESSAGE_COLUMN_NAMES = {
+        "envMessageType", "teleService", "serviceCategory", "origAddress",
+        "messageType", "messageId", "priority", "privacy", "language",
+        "msgCenterTimeStamp", "validityPeriodAbsolute", "deferredDeliveryTimeAbsolute",
+        "msgEncoding", "text"
+    };
+
+    public static final int[] MESSAGE_COLUMN_TYPES = {
+        TYPE_INT, TYPE_INT, TYPE_INT, TYPE_STRING,
+        TYPE_INT, TYPE_INT, TYPE_INT, TYPE_INT, TYPE_INT,
+        TYPE_LONG, TYPE_LONG, TYPE_LONG,
+        TYPE_INT, TYPE_STRING
+    };
+
+    /**
+     * Dictionary encoded string column.
+     */
+    static final class StringColumn {
+        final int[] codes;
+        final ArrayList<String> values = new ArrayList<String>();
+        private final HashMap<String, Integer> mIndex = new HashMap<String, Integer>();
+
+        StringColumn(int capacity) {
+            codes = new int[capacity];
+        }
+
+        int encode(String value) {
+            if (value == null) return -1;
+            Integer code = mIndex.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                mIndex.put(value, code);
+            }
+            return code;
+        }
+
+        void clear() {
+            values.clear();
+            mIndex.clear();
+        }
+    }
+
+    private final String[] mNames;
+    private final int[] mTypes;
+    private final int mCapacity;
+    private final boolean mMessageSchema;
+
+    // int[], long[] or StringColumn per column; null if not loaded.
+    private final Object[] mColumns;
+
+    private int mSize;
+
+    /**
+     * Create a batch with an arbitrary schema and all columns loaded.
+     */
+    public SmsColumnBatch(String[] names, int[] types, int capacity) {
+        this(names, types, capacity, null);
+    }
+
+    /**
+     * @param loaded the columns to allocate, or null for all of them
+     */
+    SmsColumnBatch(String[] names, int[] types, int capacity, boolean[] loaded) {
+        if (names.length != types.length) {
+            throw new IllegalArgumentException("column names and types differ in length");
+        }
+        mNames = names.clone();
+        mTypes = types.clone();
+        mCapacity = capacity;
+        mMessageSchema = Arrays.equals(mNames, MESSAGE_COLUMN_NAMES)
+                && Arrays.equals(mTypes, MESSAGE_COLUMN_TYPES);
+        mColumns = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            if (loaded != null && !loaded[i]) continue;
+            switch (types[i]) {
+                case TYPE_INT:
+                    mColumns[i] = new int[capacity];
+                    break;
+                case TYPE_LONG:
+                    mColumns[i] = new long[capacity];
+                    break;
+                case TYPE_STRING:
+                    mColumns[i] = new StringColumn(capacity);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown column type " + types[i]);
+            }
+        }
+    }
+
+    /**
+     * Create a batch with the message schema, for {@link #add}.
+     */
+    public static SmsColumnBatch forMessages(int capacity) {
+        return new SmsColumnBatch(MESSAGE_COLUMN_NAMES, MESSAGE_COLUMN_TYPES, capacity);
+    }
+
+    /**
+     * Append a decoded message as a row.  Only for batches with the message
+     * schema.
+     *
+     * @param bData the decoded bearer data, or null
+     * @return false if the batch is full
+     */
+    public boolean add(SmsEnvelope env, BearerData bData) {
+        if (!mMessageSchema) {
+            throw new IllegalStateException("add() needs the message schema");
+        }
+        if (mSize == mCapacity) return false;
+        int row = mSize++;
+        setInt(COL_ENV_MESSAGE_TYPE, row, env.messageType);
+        setInt(COL_TELESERVICE, row, env.teleService);
+        setInt(COL_SERVICE_CATEGORY, row, env.serviceCategory);
+        setString(COL_ORIG_ADDRESS, row,
+                env.origAddress != null ? env.origAddress.address : null);
+
+        UserData userData = bData != null ? bData.userData : null;
+        setInt(COL_MESSAGE_TYPE, row, bData != null ? bData.messageType : -1);
+        setInt(COL_MESSAGE_ID, row, bData != null ? bData.messageId : -1);
+        setInt(COL_PRIORITY, row,
+                bData != null && bData.priorityIndicatorSet ? bData.priority : -1);
+        setInt(COL_PRIVACY, row,
+                bData != null && bData.privacyIndicatorSet ? bData.privacy : -1);
+        setInt(COL_LANGUAGE, row,
+                bData != null && bData.languageIndicatorSet ? bData.language : -1);
+        setLong(COL_MSG_CENTER_TIME, row,
+                bData != null ? bData.msgCenterTimeStamp : SmsTimeStamp.NONE);
+        setLong(COL_VALIDITY_ABSOLUTE, row,
+                bData != null ? bData.validityPeriodAbsolute : SmsTimeStamp.NONE);
+        setLong(COL_DEFERRED_ABSOLUTE, row,
+                bData != null ? bData.deferredDeliveryTimeAbsolute : SmsTimeStamp.NONE);
+        setInt(COL_MSG_ENCODING, row,
+                userData != null && userData.msgEncodingSet ? userData.msgEncoding : -1);
+        setString(COL_TEXT, row, userData != null ? userData.payloadStr : null);
+        return true;
+    }
+
+    private void setInt(int column, int row, int value) {
+        ((int[]) mColumns[column])[row] = value;
+    }
+
+    private void setLong(int column, int row, long value) {
+        ((long[]) mColumns[column])[row] = value;
+    }
+
+    private void setString(int column, int row, String value) {
+        StringColumn strings = (StringColumn) mColumns[column];
+        strings.codes[row] = strings.encode(value);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    void setSize(int size) {
+        mSize = size;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public boolean isFull() {
+        return mSize == mCapacity;
+    }
+
+    /**
+     * Remove all rows, keeping the arrays for reuse.
+     */
+    public void clear() {
+        mSize = 0;
+        for (Object column : mColumns) {
+            if (column instanceof StringColumn) ((StringColumn) column).clear();
+        }
+    }
+
+    public int getColumnCount() {
+        return mNames.length;
+    }
+
+    public String getColumnName(int column) {
+        return mNames[column];
+    }
+
+    public int getColumnType(int column) {
+        return mTypes[column];
+    }
+
+    /**
+     * @return the index of a column, or -1 if there is none by that name
+     */
+    public int findColumn(String name) {
+        for (int i = 0; i < mNames.length; i++) {
+            if (mNames[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /** Returns whether a column holds data. */
+    public boolean isLoaded(int column) {
+        return mColumns[column] != null;
+    }
+
+    /**
+     * Returns the values of an int column; only the first {@link #size()}
+     * entries are rows.
+     */
+    public int[] getInts(int column) {
+        return (int[]) loaded(column, TYPE_INT);
+    }
+
+    /**
+     * Returns the values of a long column; only the first {@link #size()}
+     * entries are rows.
+     */
+    public long[] getLongs(int column) {
+        return (long[]) loaded(column, TYPE_LONG);
+    }
+
+    /**
+     * Returns the dictionary codes of a string column, -1 for null; only the
+     * first {@link #size()} entries are rows.
+     */
+    public int[] getCodes(int column) {
+        return getStringColumn(column).codes;
+    }
+
+    /** Returns the distinct values of a string column, indexed by code. */
+    public List<String> getDictionary(int column) {
+        return getStringColumn(column).values;
+    }
+
+    public String getString(int column, int row) {
+        StringColumn strings = getStringColumn(column);
+        int code = strings.codes[row];
+        return code < 0 ? null : strings.values.get(code);
+    }
+
+    StringColumn getStringColumn(int column) {
+        return (StringColumn) loaded(column, TYPE_STRING);
+    }
+
+    private Object loaded(int column, int type) {
+        if (mTypes[column] != type) {
+            throw new IllegalArgumentException("column " + mNames[column] + " has type "
+                    + mTypes[column]);
+        }
+        Object data = mColumns[column];
+        if (data == null) {
+            throw new IllegalStateException("column " + mNames[column] + " not loaded");
+        }
+        return data;
+    }
+}
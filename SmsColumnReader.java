@@ -0,0 +1,150 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads a columnar file written by {@link SmsColumnWriter}, a batch at a
+ * time, decoding only the columns asked for and skipping over the others.
+ */
+public class SmsColumnReader implements Closeable {
+
+    private final DataInputStream mIn;
+    private final String[] mNames;
+    private final int[] mTypes;
+    private boolean mEnd;
+
+    public SmsColumnReader(File file) throws IOException {
+        this(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    /**
+     * @throws IOException if the stream does not start with a valid header
+     */
+    public SmsColumnReader(InputStream in) throws IOException {
+        mIn = new DataInputStream(in);
+        if (mIn.readInt() != SmsColumnWriter.MAGIC) {
+            throw new IOException("not a columnar SMS file");
+        }
+        int version = mIn.readShort();
+        if (version != SmsColumnWriter.VERSION) {
+            throw new IOException("unsupported columnar SMS file version " + version);
+        }
+        int count = mIn.readShort();
+        mNames = new String[count];
+        mTypes = new int[count];
+        for (int i = 0; i < count; i++) {
+            mNames[i] = mIn.readUTF();
+            mTypes[i] = mIn.readByte();
+        }
+    }
+
+    public int getColumnCount() {
+        return mNames.length;
+    }
+
+    public String getColumnName(int column) {
+        return mNames[column];
+    }
+
+    public int getColumnType(int column) {
+        return mTypes[column];
+    }
+
+    /**
+     * @return the index of a column, or -1 if there is none by that name
+     */
+    public int findColumn(String name) {
+        for (int i = 0; i < mNames.length; i++) {
+            if (mNames[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Read the next batch with the named columns loaded; names not in the
+     * file are ignored.
+     *
+     * @return the batch, or null at the end of the file
+     */
+    public SmsColumnBatch readBatch(String... columns) throws IOException {
+        boolean[] loaded = new boolean[mNames.length];
+        for (String name : columns) {
+            int index = findColumn(name);
+            if (index >= 0) loaded[index] = true;
+        }
+        return readBatch(loaded);
+    }
+
+    /**
+     * Read the next batch with every column loaded.
+     *
+     * @return the batch, or null at the end of the file
+     */
+    public SmsColumnBatch readBatch() throws IOException {
+        boolean[] loaded = new boolean[mNames.length];
+        Arrays.fill(loaded, true);
+        return readBatch(loaded);
+    }
+
+    private SmsColumnBatch readBatch(boolean[] loaded) throws IOException {
+        if (mEnd) return null;
+        DataInputStream in = mIn;
+        int rows = in.readInt();
+        if (rows <= 0) {
+            mEnd = true;
+            return null;
+        }
+        SmsColumnBatch batch = new SmsColumnBatch(mNames, mTypes, rows, loaded);
+        for (int col = 0; col < mNames.length; col++) {
+            int length = in.readInt();
+            if (!loaded[col]) {
+                skipFully(in, length);
+                continue;
+            }
+            switch (mTypes[col]) {
+                case SmsColumnBatch.TYPE_INT: {
+                    int[] values = batch.getInts(col);
+                    for (int i = 0; i < rows; i++) values[i] = in.readInt();
+                    break;
+                }
+                case SmsColumnBatch.TYPE_LONG: {
+                    long[] values = batch.getLongs(col);
+                    for (int i = 0; i < rows; i++) values[i] = in.readLong();
+                    break;
+                }
+                default: {
+                    SmsColumnBatch.StringColumn strings = batch.getStringColumn(col);
+                    for (int i = in.readInt(); i > 0; i--) strings.values.add(in.readUTF());
+                    for (int i = 0; i < rows; i++) strings.codes[i] = in.readInt();
+                    break;
+                }
+            }
+        }
+        batch.setSize(rows);
+        return batch;
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes(length);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException("truncated column chunk");
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+}
@@ -0,0 +1,140 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes decoded messages to a self-describing columnar file, read back
+ * with {@link SmsColumnReader}.
+ *
+ * File layout, big endian as written by DataOutputStream:
+ *
+ *   int magic, short version, short column count,
+ *   per column: name (writeUTF), type (byte);
+ *   per batch: int row count, then per column: int chunk length, chunk;
+ *   int 0 to end the file.
+ *
+ * An int chunk holds one int per row, a long chunk one long per row, and a
+ * string chunk the dictionary size, the distinct values (writeUTF) and one
+ * int code per row.  Chunk lengths let a reader skip the columns it does
+ * not need.
+ */
+public class SmsColumnWriter implements Closeable {
+
+    public static final int MAGIC   = 0x434D5343; // "CMSC"
+    public static final int VERSION = 1;
+
+    public static final int DEFAULT_BATCH_SIZE = 8192;
+
+    private final DataOutputStream mOut;
+    private final SmsColumnBatch mBatch;
+    private final ByteArrayOutputStream mChunk = new ByteArrayOutputStream();
+    private final DataOutputStream mChunkOut = new DataOutputStream(mChunk);
+    private boolean mClosed;
+
+    /**
+     * Write messages with the message schema, in batches of
+     * {@link #DEFAULT_BATCH_SIZE}.
+     */
+    public SmsColumnWriter(File file) throws IOException {
+        this(new BufferedOutputStream(new FileOutputStream(file), 1 << 16),
+                SmsColumnBatch.forMessages(DEFAULT_BATCH_SIZE));
+    }
+
+    /**
+     * @param batch buffers the rows given to {@link #add}, and gives the
+     *     schema of the file
+     */
+    public SmsColumnWriter(OutputStream out, SmsColumnBatch batch) throws IOException {
+        mOut = new DataOutputStream(out);
+        mBatch = batch;
+        mOut.writeInt(MAGIC);
+        mOut.writeShort(VERSION);
+        mOut.writeShort(batch.getColumnCount());
+        for (int i = 0; i < batch.getColumnCount(); i++) {
+            mOut.writeUTF(batch.getColumnName(i));
+            mOut.writeByte(batch.getColumnType(i));
+        }
+    }
+
+    /**
+     * Append a decoded message, writing out the buffered batch when full.
+     *
+     * @param bData the decoded bearer data, or null
+     */
+    public void add(SmsEnvelope env, BearerData bData) throws IOException {
+        if (!mBatch.add(env, bData)) {
+            flushBatch();
+            mBatch.add(env, bData);
+        }
+    }
+
+    /**
+     * Write out the rows buffered so far as a batch.
+     */
+    public void flushBatch() throws IOException {
+        if (mBatch.size() == 0) return;
+        writeBatch(mBatch);
+        mBatch.clear();
+    }
+
+    /**
+     * Write a batch built by the caller, which must have the schema of the
+     * file.
+     */
+    public void writeBatch(SmsColumnBatch batch) throws IOException {
+        int rows = batch.size();
+        if (rows == 0) return;
+        DataOutputStream out = mOut;
+        out.writeInt(rows);
+        for (int col = 0; col < batch.getColumnCount(); col++) {
+            switch (batch.getColumnType(col)) {
+                case SmsColumnBatch.TYPE_INT: {
+                    int[] values = batch.getInts(col);
+                    out.writeInt(rows * 4);
+                    for (int i = 0; i < rows; i++) out.writeInt(values[i]);
+                    break;
+                }
+                case SmsColumnBatch.TYPE_LONG: {
+                    long[] values = batch.getLongs(col);
+                    out.writeInt(rows * 8);
+                    for (int i = 0; i < rows; i++) out.writeLong(values[i]);
+                    break;
+                }
+                default: {
+                    List<String> dictionary = batch.getDictionary(col);
+                    int[] codes = batch.getCodes(col);
+                    mChunk.reset();
+                    mChunkOut.writeInt(dictionary.size());
+                    for (String value : dictionary) mChunkOut.writeUTF(value);
+                    for (int i = 0; i < rows; i++) mChunkOut.writeInt(codes[i]);
+                    out.writeInt(mChunk.size());
+                    mChunk.writeTo(out);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write out the buffered rows and end the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        try {
+            flushBatch();
+            mOut.writeInt(0);
+        } finally {
+            mOut.close();
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decodes incoming PDUs on background threads, with a dedicated lane for
+ * CMAS emergency alerts.
+ *
+ * Each submitted PDU is classified by peeking at its envelope message type
+ * and service category only.  CMAS broadcasts
+ * (SmsEnvelope.SERVICE_CATEGORY_CMAS_*) go to the alert lane, which has its
+ * own high priority thread and bounded queue, so that alerts are never
+ * stuck behind a backlog of ordinary messages.  Within the alert lane,
+ * presidential and extreme threat alerts are decoded ahead of the others,
+ * each kind in arrival order, and when the lane is full an urgent alert
+ * displaces the newest queued other alert instead of being rejected.  The
+ * displaced alert is reported to {@link Listener#onDecodeFailed} with a
+ * RejectedExecutionException.  Everything else goes to the bulk lane.
+ *
+ * If a {@link ServiceCategoryRegistry} is set, other broadcasts are dropped
+ * unless their category is enabled in it.  CMAS alerts are always received.
+ * If a {@link CmasDuplicateFilter} is set, repeated alerts are dropped
+ * on submission, before taking a place in the alert queue.  An alert is
+ * only marked seen once queued, and forgotten again if it fails to decode
+ * or is displaced, so a rebroadcast can still deliver it.
+ *
+ * Both lanes record the latency from submission to decoded message, which
+ * is what an alert latency objective is measured against.  Exceptions
+ * thrown by the listener are logged and counted, and do not stop the lane.
+ */
+public class SmsDecodeDispatcher {
+    private static final String LOG_TAG = "SmsDecodeDispatcher";
+
+    /** PDU laid out as for {@link SmsMessage#parsePdu(byte[])}. */
+    public static final int FORMAT_PDU          = 0;
+
+    /** PDU laid out as for {@link SmsMessage#parsePduFromEfRecord(byte[])}. */
+    public static final int FORMAT_EF_RECORD    = 1;
+
+    // Offsets of the envelope ints in the parsePdu layout.
+    private static final int PDU_MESSAGE_TYPE_OFFSET     = 0;
+    private static final int PDU_SERVICE_CATEGORY_OFFSET = 8;
+    private static final int PDU_NUMBER_OF_DIGITS_OFFSET = 16;
+    // Bytes between the last address digit and the bearer data length.
+    private static final int PDU_REPLY_AND_CAUSE_LENGTH  = 7;
+
+    /**
+     * Receives decode results.  Called on the lane threads; alerts and bulk
+     * messages may be delivered concurrently.
+     */
+    public interface Listener {
+        void onMessageDecoded(SmsMessage message, boolean isAlert);
+
+        void onDecodeFailed(byte[] pdu, boolean isAlert, RuntimeException ex);
+    }
+
+    private static final class Task {
+        final byte[] pdu;
+        final int format;
+        final long submitNanos;
+        // Filter to mark this alert seen in, and its key, if any.
+        final CmasDuplicateFilter filter;
+        final long alertKey;
+        private boolean mFailed;
+
+        Task(byte[] pdu, int format, long submitNanos, CmasDuplicateFilter filter,
+                long alertKey) {
+            this.pdu = pdu;
+            this.format = format;
+            this.submitNanos = submitNanos;
+            this.filter = filter;
+            this.alertKey = alertKey;
+        }
+
+        // Called once queued.  The decode may already have failed.
+        synchronized void markSeen() {
+            if (filter != null && !mFailed) filter.markSeen(alertKey);
+        }
+
+        synchronized void markFailed() {
+            mFailed = true;
+            if (filter != null) filter.forget(alertKey);
+        }
+    }
+
+    /**
+     * A decode queue with its worker threads and metrics.
+     */
+    public final class Lane {
+        private final String mName;
+        private final boolean mIsAlert;
+        private final int mCapacity;
+        // Queued urgent and other tasks, each in arrival order, guarded by mLock.
+        private final ArrayDeque<Task> mUrgent = new ArrayDeque<Task>();
+        private final ArrayDeque<Task> mNormal = new ArrayDeque<Task>();
+        private final ReentrantLock mLock = new ReentrantLock();
+        private final Condition mNotEmpty = mLock.newCondition();
+        private final Thread[] mThreads;
+        private final LatencyHistogram mLatency = new LatencyHistogram();
+        private final LatencyHistogram mDecodeTime = new LatencyHistogram();
+        private final AtomicLong mSubmitted = new AtomicLong();
+        private final AtomicLong mRejected = new AtomicLong();
+        private final AtomicLong mFailed = new AtomicLong();
+        private final AtomicLong mEvicted = new AtomicLong();
+        private final AtomicLong mListenerErrors = new AtomicLong();
+
+        Lane(String name, boolean isAlert, int capacity, int threads, int priority) {
+            mName = name;
+            mIsAlert = isAlert;
+            mCapacity = capacity;
+            mThreads = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                mThreads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runWorker();
+                    }
+                }, LOG_TAG + "-" + name + "-" + i);
+                mThreads[i].setPriority(priority);
+                mThreads[i].setDaemon(true);
+            }
+        }
+
+        /**
+         * Queue a task, urgent ones ahead of the others.  When full, an
+         * urgent task displaces the newest other task, which is reported
+         * to the listener as failed.
+         */
+        boolean offer(Task task, boolean urgent) {
+            Task evicted = null;
+            mLock.lock();
+            try {
+                if (mUrgent.size() + mNormal.size() >= mCapacity) {
+                    if (!urgent || mNormal.isEmpty()) {
+                        mRejected.incrementAndGet();
+                        Rlog.w(LOG_TAG, mName + " lane full, rejected pdu");
+                        return false;
+                    }
+                    evicted = mNormal.pollLast();
+                    mEvicted.incrementAndGet();
+                    Rlog.w(LOG_TAG, mName + " lane full, evicted pdu for urgent one");
+                }
+                (urgent ? mUrgent : mNormal).addLast(task);
+                mSubmitted.incrementAndGet();
+                mNotEmpty.signal();
+            } finally {
+                mLock.unlock();
+            }
+            if (evicted != null) onEvicted(evicted);
+            return true;
+        }
+
+        // Forget the evicted alert, so a rebroadcast is not taken for a
+        // duplicate, and tell the listener it was dropped.
+        private void onEvicted(Task task) {
+            task.markFailed();
+            try {
+                mListener.onDecodeFailed(task.pdu, mIsAlert,
+                        new RejectedExecutionException(mName + " lane full, evicted pdu"));
+            } catch (RuntimeException ex) {
+                mListenerErrors.incrementAndGet();
+                Rlog.e(LOG_TAG, mName + " lane listener failed: " + ex);
+            }
+        }
+
+        private Task take() throws InterruptedException {
+            mLock.lockInterruptibly();
+            try {
+                while (mUrgent.isEmpty() && mNormal.isEmpty()) {
+                    mNotEmpty.await();
+                }
+                return !mUrgent.isEmpty() ? mUrgent.pollFirst() : mNormal.pollFirst();
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        private void runWorker() {
+            while (!mShutdown) {
+                Task task;
+                try {
+                    task = take();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                try {
+                    decode(task);
+                } catch (RuntimeException ex) {
+                    mListenerErrors.incrementAndGet();
+                    Rlog.e(LOG_TAG, mName + " lane listener failed: " + ex);
+                }
+            }
+        }
+
+        private void decode(Task task) {
+            long startNanos = System.nanoTime();
+            SmsMessage msg = new SmsMessage();
+            msg.setDecodeLimits(mDecodeLimits);
+            try {
+                if (task.format == FORMAT_EF_RECORD) {
+                    msg.parsePduFromEfRecord(task.pdu);
+                } else {
+                    msg.parsePdu(task.pdu);
+                }
+            } catch (RuntimeException ex) {
+                mFailed.incrementAndGet();
+                task.markFailed();
+                mListener.onDecodeFailed(task.pdu, mIsAlert, ex);
+                return;
+            }
+            mDecodeTime.recordSince(startNanos);
+            mLatency.recordSince(task.submitNanos);
+            mListener.onMessageDecoded(msg, mIsAlert);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /** Time from submission until the message was decoded, in nanoseconds. */
+        public LatencyHistogram getLatency() {
+            return mLatency;
+        }
+
+        /** Time spent decoding only, in nanoseconds. */
+        public LatencyHistogram getDecodeTime() {
+            return mDecodeTime;
+        }
+
+        public long getSubmittedCount() {
+            return mSubmitted.get();
+        }
+
+        public long getRejectedCount() {
+            return mRejected.get();
+        }
+
+        public long getFailedCount() {
+            return mFailed.get();
+        }
+
+        /** Number of queued tasks dropped to make room for urgent ones. */
+        public long getEvictedCount() {
+            return mEvicted.get();
+        }
+
+        /** Number of exceptions thrown by the listener. */
+        public long getListenerErrorCount() {
+            return mListenerErrors.get();
+        }
+
+        public int getQueueSize() {
+            mLock.lock();
+            try {
+                return mUrgent.size() + mNormal.size();
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Lane{" + mName + ", submitted=" + getSubmittedCount()
+                    + ", rejected=" + getRejectedCount() + ", evicted=" + getEvictedCount()
+                    + ", failed=" + getFailedCount()
+                    + ", listenerErrors=" + getListenerErrorCount()
+                    + ", queued=" + getQueueSize() + ", latency=" + mLatency + '}';
+        }
+    }
+
+    private final Listener mListener;
+    private final Lane mAlertLane;
+    private final Lane mBulkLane;
+    private volatile CmasDuplicateFilter mDuplicateFilter;
+    private volatile ServiceCategoryRegistry mCategoryRegistry;
+    private volatile DecodeLimits mDecodeLimits = DecodeLimits.UNLIMITED;
+    private final AtomicLong mDisabledCategory = new AtomicLong();
+    private volatile boolean mShutdown;
+
+    /**
+     * @param alertCapacity maximum number of queued alerts
+     * @param bulkCapacity maximum number of queued other messages
+     * @param bulkThreads number of threads decoding other messages
+     * @param listener receives the decoded messages
+     */
+    public SmsDecodeDispatcher(int alertCapacity, int bulkCapacity, int bulkThreads,
+            Listener listener) {
+        mListener = listener;
+        mAlertLane = new Lane("alert", true, alertCapacity, 1, Thread.MAX_PRIORITY);
+        mBulkLane = new Lane("bulk", false, bulkCapacity, bulkThreads, Thread.NORM_PRIORITY);
+    }
+
+    public void start() {
+        for (Thread thread : mAlertLane.mThreads) thread.start();
+        for (Thread thread : mBulkLane.mThreads) thread.start();
+    }
+
+    /**
+     * Stop the lane threads.  Messages still queued are not decoded.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        for (Thread thread : mAlertLane.mThreads) thread.interrupt();
+        for (Thread thread : mBulkLane.mThreads) thread.interrupt();
+    }
+
+    /**
+     * Drop alerts already seen by the filter, or keep all of them if null.
+     */
+    public void setDuplicateFilter(CmasDuplicateFilter filter) {
+        mDuplicateFilter = filter;
+    }
+
+    public CmasDuplicateFilter getDuplicateFilter() {
+        return mDuplicateFilter;
+    }
+
+    /**
+     * Drop broadcasts of categories not enabled in the registry, or keep
+     * all of them if null.
+     */
+    public void setCategoryRegistry(ServiceCategoryRegistry registry) {
+        mCategoryRegistry = registry;
+    }
+
+    public ServiceCategoryRegistry getCategoryRegistry() {
+        return mCategoryRegistry;
+    }
+
+    /**
+     * Set the limits for decoding bearer data, such as
+     * {@link DecodeLimits#DEFAULT} for PDUs from untrusted sources.  PDUs
+     * exceeding them are reported as failed.
+     */
+    public void setDecodeLimits(DecodeLimits limits) {
+        mDecodeLimits = limits;
+    }
+
+    public DecodeLimits getDecodeLimits() {
+        return mDecodeLimits;
+    }
+
+    /** Number of broadcasts dropped because their category is not enabled. */
+    public long getDisabledCategoryCount() {
+        return mDisabledCategory.get();
+    }
+
+    public Lane getAlertLane() {
+        return mAlertLane;
+    }
+
+    public Lane getBulkLane() {
+        return mBulkLane;
+    }
+
+    public boolean submit(byte[] pdu) {
+        return submit(pdu, FORMAT_PDU);
+    }
+
+    /**
+     * Queue a PDU for decoding on the lane matching its service category.
+     *
+     * @param format {@link #FORMAT_PDU} or {@link #FORMAT_EF_RECORD}
+     * @return false if the lane queue was full and the PDU was dropped;
+     *     repeated alerts and broadcasts of disabled categories, which are
+     *     dropped on purpose, return true
+     */
+    public boolean submit(byte[] pdu, int format) {
+        long submitNanos = System.nanoTime();
+        if (peekMessageType(pdu, format) == SmsEnvelope.MESSAGE_TYPE_BROADCAST) {
+            int category = peekServiceCategory(pdu, format);
+            if (BearerData.isCmasAlertCategory(category)) {
+                CmasDuplicateFilter filter = mDuplicateFilter;
+                long key = filter != null ? alertKey(filter, pdu, format, category)
+                        : CmasDuplicateFilter.NO_KEY;
+                if (filter != null && filter.isDuplicate(key)) return true;
+                Task task = new Task(pdu, format, submitNanos,
+                        key != CmasDuplicateFilter.NO_KEY ? filter : null, key);
+                if (!mAlertLane.offer(task, isUrgentAlertCategory(category))) return false;
+                task.markSeen();
+                return true;
+            }
+            ServiceCategoryRegistry registry = mCategoryRegistry;
+            if (registry != null && !registry.isEnabled(category)) {
+                mDisabledCategory.incrementAndGet();
+                return true;
+            }
+        }
+        return mBulkLane.offer(new Task(pdu, format, submitNanos, null,
+                CmasDuplicateFilter.NO_KEY), false);
+    }
+
+    private static long alertKey(CmasDuplicateFilter filter, byte[] pdu, int format,
+            int category) {
+        if (format == FORMAT_EF_RECORD) {
+            return filter.alertKeyEfRecord(pdu, 0, pdu.length);
+        }
+        if (pdu.length <= PDU_NUMBER_OF_DIGITS_OFFSET) return CmasDuplicateFilter.NO_KEY;
+        int lengthOffset = PDU_NUMBER_OF_DIGITS_OFFSET + 1
+                + (pdu[PDU_NUMBER_OF_DIGITS_OFFSET] & 0xFF) + PDU_REPLY_AND_CAUSE_LENGTH;
+        if (pdu.length < lengthOffset + 4) return CmasDuplicateFilter.NO_KEY;
+        int bearerDataLength = readInt(pdu, lengthOffset);
+        int bearerDataOffset = lengthOffset + 4;
+        if (bearerDataLength < 0 || bearerDataLength > pdu.length - bearerDataOffset) {
+            return CmasDuplicateFilter.NO_KEY;
+        }
+        return filter.alertKey(category, pdu, bearerDataOffset, bearerDataLength);
+    }
+
+    private static boolean isUrgentAlertCategory(int category) {
+        return category == SmsEnvelope.SERVICE_CATEGORY_CMAS_PRESIDENTIAL_LEVEL_ALERT
+                || category == SmsEnvelope.SERVICE_CATEGORY_CMAS_EXTREME_THREAT;
+    }
+
+    /**
+     * Read the envelope message type without parsing the PDU.
+     *
+     * @return the message type, or -1 if the PDU is too short
+     */
+    public static int peekMessageType(byte[] pdu, int format) {
+        if (format == FORMAT_EF_RECORD) {
+            return pdu.length > 0 ? pdu[0] : -1;
+        }
+        if (pdu.length < PDU_MESSAGE_TYPE_OFFSET + 4) return -1;
+        return readInt(pdu, PDU_MESSAGE_TYPE_OFFSET);
+    }
+
+    /**
+     * Read the envelope service category without parsing the PDU.
+     *
+     * @return the service category, or -1 if the PDU does not carry one
+     */
+    public static int peekServiceCategory(byte[] pdu, int format) {
+        if (format == FORMAT_EF_RECORD) {
+            int pos = 1;
+            while (pos + 2 <= pdu.length) {
+                int parameterId = pdu[pos];
+                int parameterLen = pdu[pos + 1] & 0xFF;
+                pos += 2;
+                if (parameterId == SmsMessage.SERVICE_CATEGORY) {
+                    if (parameterLen < 2 || pos + 2 > pdu.length) return -1;
+                    return ((pdu[pos] & 0xFF) << 8) | (pdu[pos + 1] & 0xFF);
+                }
+                pos += parameterLen;
+            }
+            return -1;
+        }
+        if (pdu.length < PDU_SERVICE_CATEGORY_OFFSET + 4) return -1;
+        return readInt(pdu, PDU_SERVICE_CATEGORY_OFFSET);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+}
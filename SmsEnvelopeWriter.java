@@ -0,0 +1,302 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes an SmsEnvelope in the layouts read by
+ * {@link SmsMessage#parsePdu(byte[])} and
+ * {@link SmsMessage#parsePduFromEfRecord(byte[])}.
+ *
+ * The bearer data is written as found in {@link SmsEnvelope#bearerData},
+ * e.g. as returned by {@link BearerData#encode(BearerData)}.  The size of
+ * either layout is computed up front, and the envelope is then written
+ * straight into the buffer.  Fields are expected in the form the matching
+ * parse method leaves them in, so that parsed envelopes are written back
+ * unchanged.
+ */
+public final class SmsEnvelopeWriter {
+
+    private SmsEnvelopeWriter() {
+    }
+
+    /**
+     * Returns the size of an envelope in the parsePdu layout.
+     *
+     * @throws IllegalArgumentException if the address has over 255 digits
+     */
+    public static int pduSize(SmsEnvelope env) {
+        // messageType, teleService, serviceCategory, 4 address bytes and
+        // the digit count, bearerReply, 3 cause code bytes, bearer data length
+        return 12 + 5 + pduDigits(env.origAddress).length + 4 + 3 + 4 + bytesLength(env.bearerData);
+    }
+
+    /**
+     * Write an envelope in the parsePdu layout into a new array.
+     */
+    public static byte[] toPdu(SmsEnvelope env) {
+        ByteBuffer dst = ByteBuffer.allocate(pduSize(env));
+        writePdu(env, dst);
+        return dst.array();
+    }
+
+    /**
+     * Write an envelope in the parsePdu layout at the position of a buffer,
+     * and advance the position past it.  Of the addresses, only the
+     * originating address is part of the layout.
+     *
+     * @return the number of bytes written
+     * @throws BufferOverflowException if the envelope does not fit
+     */
+    public static int writePdu(SmsEnvelope env, ByteBuffer dst) {
+        int size = pduSize(env);
+        if (dst.remaining() < size) throw new BufferOverflowException();
+        ByteOrder order = dst.order();
+        dst.order(ByteOrder.BIG_ENDIAN);
+        dst.putInt(env.messageType);
+        dst.putInt(env.teleService);
+        dst.putInt(env.serviceCategory);
+        CdmaSmsAddress addr = env.origAddress;
+        byte[] digits = pduDigits(addr);
+        if (addr != null) {
+            dst.put((byte) addr.digitMode);
+            dst.put((byte) addr.numberMode);
+            dst.put((byte) addr.ton);
+            dst.put((byte) addr.numberPlan);
+        } else {
+            dst.putInt(0);
+        }
+        dst.put((byte) digits.length);
+        dst.put(digits);
+        dst.putInt(env.bearerReply);
+        dst.put(env.replySeqNo);
+        dst.put(env.errorClass);
+        dst.put(env.causeCode);
+        if (env.bearerData != null) {
+            dst.putInt(env.bearerData.length);
+            dst.put(env.bearerData);
+        } else {
+            dst.putInt(0);
+        }
+        dst.order(order);
+        return size;
+    }
+
+    /**
+     * Returns the size of an envelope in the EF record layout.
+     *
+     * @throws IllegalArgumentException if a parameter is too long for its
+     *     one byte length, or the teleservice does not fit 16 bits
+     */
+    public static int efRecordSize(SmsEnvelope env) {
+        int size = 1;
+        if (env.teleService != SmsEnvelope.TELESERVICE_NOT_SET) {
+            checkShort("teleService", env.teleService);
+            size += 2 + 2;
+        }
+        if (env.serviceCategory != 0) {
+            checkShort("serviceCategory", env.serviceCategory);
+            size += 2 + 2;
+        }
+        CdmaSmsAddress addr = efAddress(env);
+        if (addr != null) size += 2 + addressLength(addr);
+        if (hasSubaddress(env)) size += 2 + subaddressLength(env.origSubaddress);
+        if (env.bearerReply != 0) size += 2 + 1;
+        if (hasCauseCodes(env)) size += 2 + (env.errorClass != 0 ? 2 : 1);
+        if (env.bearerData != null) size += 2 + checkLength("bearer data", env.bearerData.length);
+        return size;
+    }
+
+    /**
+     * Write an envelope in the EF record layout into a new array.
+     */
+    public static byte[] toEfRecord(SmsEnvelope env) {
+        ByteBuffer dst = ByteBuffer.allocate(efRecordSize(env));
+        writeEfRecord(env, dst);
+        return dst.array();
+    }
+
+    /**
+     * Write an envelope in the EF record layout at the position of a
+     * buffer, and advance the position past it.
+     *
+     * Parameters holding their default value are left out.  The
+     * destination address is written if set, the originating one
+     * otherwise, and the subaddress as the same kind, since
+     * parsePduFromEfRecord reads either kind into origSubaddress.  DTMF
+     * address digits are taken as the ASCII characters
+     * parsePduFromEfRecord produces, and the cause codes as the left
+     * aligned bit fields it reads them into.
+     *
+     * @return the number of bytes written
+     * @throws BufferOverflowException if the envelope does not fit
+     * @throws IllegalArgumentException if a DTMF digit has no DTMF code
+     */
+    public static int writeEfRecord(SmsEnvelope env, ByteBuffer dst) {
+        int size = efRecordSize(env);
+        if (dst.remaining() < size) throw new BufferOverflowException();
+        int start = dst.position();
+        ByteOrder order = dst.order();
+        dst.order(ByteOrder.BIG_ENDIAN);
+        dst.put((byte) env.messageType);
+        if (env.teleService != SmsEnvelope.TELESERVICE_NOT_SET) {
+            putParameterHeader(dst, SmsMessage.TELESERVICE_IDENTIFIER, 2);
+            dst.putShort((short) env.teleService);
+        }
+        if (env.serviceCategory != 0) {
+            putParameterHeader(dst, SmsMessage.SERVICE_CATEGORY, 2);
+            dst.putShort((short) env.serviceCategory);
+        }
+        CdmaSmsAddress addr = efAddress(env);
+        boolean destination = addr != null && addr == env.destAddress;
+        if (addr != null) {
+            putParameterHeader(dst, destination
+                    ? SmsMessage.DESTINATION_ADDRESS : SmsMessage.ORIGINATING_ADDRESS,
+                    addressLength(addr));
+            putAddress(dst, addr);
+        }
+        if (hasSubaddress(env)) {
+            CdmaSmsSubaddress subaddr = env.origSubaddress;
+            putParameterHeader(dst, destination
+                    ? SmsMessage.DESTINATION_SUB_ADDRESS : SmsMessage.ORIGINATING_SUB_ADDRESS,
+                    subaddressLength(subaddr));
+            BitSink bits = new BitSink(dst);
+            bits.write(3, subaddr.type);
+            bits.write(1, subaddr.odd != 0 ? 1 : 0);
+            bits.write(8, subaddr.origBytes.length);
+            putDtmf(bits, subaddr.origBytes);
+            bits.flush();
+        }
+        if (env.bearerReply != 0) {
+            putParameterHeader(dst, SmsMessage.BEARER_REPLY_OPTION, 1);
+            dst.put((byte) (env.bearerReply << 2));
+        }
+        if (hasCauseCodes(env)) {
+            putParameterHeader(dst, SmsMessage.CAUSE_CODES, env.errorClass != 0 ? 2 : 1);
+            dst.put((byte) ((env.replySeqNo & 0xFC) | ((env.errorClass & 0xC0) >>> 6)));
+            if (env.errorClass != 0) dst.put(env.causeCode);
+        }
+        if (env.bearerData != null) {
+            putParameterHeader(dst, SmsMessage.BEARER_DATA, env.bearerData.length);
+            dst.put(env.bearerData);
+        }
+        dst.order(order);
+        return dst.position() - start;
+    }
+
+    private static byte[] pduDigits(CdmaSmsAddress addr) {
+        if (addr == null || addr.origBytes == null) return new byte[0];
+        checkLength("address", addr.origBytes.length);
+        return addr.origBytes;
+    }
+
+    private static int bytesLength(byte[] bytes) {
+        return bytes != null ? bytes.length : 0;
+    }
+
+    private static CdmaSmsAddress efAddress(SmsEnvelope env) {
+        return env.destAddress != null ? env.destAddress : env.origAddress;
+    }
+
+    private static boolean hasSubaddress(SmsEnvelope env) {
+        return env.origSubaddress != null && env.origSubaddress.origBytes != null
+                && env.origSubaddress.origBytes.length > 0;
+    }
+
+    private static boolean hasCauseCodes(SmsEnvelope env) {
+        return env.replySeqNo != 0 || env.errorClass != 0 || env.causeCode != 0;
+    }
+
+    // Length in bytes of the address parameter, as read by parsePduFromEfRecord.
+    private static int addressLength(CdmaSmsAddress addr) {
+        int digits = addr.origBytes != null ? addr.origBytes.length : 0;
+        checkLength("address", digits);
+        int bits = 2 + 8;
+        if (addr.digitMode == CdmaSmsAddress.DIGIT_MODE_8BIT_CHAR) {
+            bits += 3;
+            if (addr.numberMode == CdmaSmsAddress.NUMBER_MODE_NOT_DATA_NETWORK) bits += 4;
+            bits += digits * 8;
+        } else {
+            bits += digits * 4;
+        }
+        return checkLength("address", (bits + 7) >>> 3);
+    }
+
+    private static int subaddressLength(CdmaSmsSubaddress subaddr) {
+        int digits = checkLength("subaddress", subaddr.origBytes.length);
+        return checkLength("subaddress", (3 + 1 + 8 + digits * 4 + 7) >>> 3);
+    }
+
+    private static void putAddress(ByteBuffer dst, CdmaSmsAddress addr) {
+        byte[] digits = addr.origBytes != null ? addr.origBytes : new byte[0];
+        BitSink bits = new BitSink(dst);
+        bits.write(1, addr.digitMode);
+        bits.write(1, addr.numberMode);
+        if (addr.digitMode == CdmaSmsAddress.DIGIT_MODE_8BIT_CHAR) {
+            bits.write(3, addr.ton);
+            if (addr.numberMode == CdmaSmsAddress.NUMBER_MODE_NOT_DATA_NETWORK) {
+                bits.write(4, addr.numberPlan);
+            }
+            bits.write(8, digits.length);
+            for (byte digit : digits) bits.write(8, digit);
+        } else {
+            bits.write(8, digits.length);
+            putDtmf(bits, digits);
+        }
+        bits.flush();
+    }
+
+    private static void putDtmf(BitSink bits, byte[] ascii) {
+        for (byte c : ascii) {
+            int code = DtmfCodec.fromAscii(c);
+            if (code < 0) throw new IllegalArgumentException("no DTMF code for '" + (char) c + "'");
+            bits.write(4, code);
+        }
+    }
+
+    private static void putParameterHeader(ByteBuffer dst, byte parameterId, int length) {
+        dst.put(parameterId);
+        dst.put((byte) length);
+    }
+
+    private static void checkShort(String name, int value) {
+        if ((value & ~0xFFFF) != 0) {
+            throw new IllegalArgumentException(name + " " + value + " does not fit 16 bits");
+        }
+    }
+
+    private static int checkLength(String name, int length) {
+        if (length > 0xFF) {
+            throw new IllegalArgumentException(name + " too long: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Packs bit fields MSB first into a buffer, a byte at a time.
+     */
+    private static final class BitSink {
+        private final ByteBuffer mDst;
+        private int mBits;
+        private int mCount;
+
+        BitSink(ByteBuffer dst) {
+            mDst = dst;
+        }
+
+        void write(int bits, int value) {
+            mBits = (mBits << bits) | (value & ((1 << bits) - 1));
+            mCount += bits;
+            while (mCount >= 8) {
+                mCount -= 8;
+                mDst.put((byte) (mBits >>> mCount));
+            }
+        }
+
+        // Write out the last partial byte, zero padded.
+        void flush() {
+            if (mCount > 0) write(8 - mCount, 0);
+        }
+    }
+}
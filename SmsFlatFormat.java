@@ -0,0 +1,462 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * Versioned flat binary format for a decoded {@link SmsEnvelope} and its
+ * {@link BearerData}, so decoded messages can be passed between processes
+ * without decoding the PDU again.  Read it back with {@link SmsFlatView}.
+ *
+ * All values are big endian.  A message starts with a fixed size section
+ * holding the header and every scalar field at a constant offset, followed
+ * by a table of (offset, length) pairs locating the variable length fields
+ * in the rest of the message, a length of -1 marking an absent field.
+ * Strings are stored as UTF-16 code units, so they can be read as
+ * CharSequence views without decoding.
+ *
+ * Later versions only append fields to the fixed section and entries to
+ * the table; both sizes are recorded in the header, so older readers can
+ * skip what they do not know.
+ */
+public final class SmsFlatFormat {
+
+    public static final int MAGIC   = 0x434D5346; // "CMSF"
+    public static final int VERSION = 1;
+
+    // Header.
+    static final int OFF_MAGIC             = 0;
+    static final int OFF_VERSION           = 4;   // short
+    static final int OFF_FIXED_SIZE        = 6;   // short
+    static final int OFF_TOTAL_LENGTH      = 8;
+    static final int OFF_VAR_COUNT         = 12;  // short
+    static final int OFF_FLAGS             = 16;
+
+    // SmsEnvelope.
+    static final int OFF_ENV_MESSAGE_TYPE  = 20;
+    static final int OFF_TELESERVICE       = 24;
+    static final int OFF_SERVICE_CATEGORY  = 28;
+    static final int OFF_BEARER_REPLY      = 32;
+    static final int OFF_REPLY_SEQ_NO      = 36;  // byte
+    static final int OFF_ENV_ERROR_CLASS   = 37;  // byte
+    static final int OFF_CAUSE_CODE        = 38;  // byte
+
+    // BearerData.
+    static final int OFF_MESSAGE_TYPE      = 40;
+    static final int OFF_MESSAGE_ID        = 44;
+    static final int OFF_PRIORITY          = 48;  // byte
+    static final int OFF_PRIVACY           = 49;  // byte
+    static final int OFF_ALERT             = 50;  // byte
+    static final int OFF_DISPLAY_MODE      = 51;  // byte
+    static final int OFF_LANGUAGE          = 52;
+    static final int OFF_ERROR_CLASS       = 56;
+    static final int OFF_MESSAGE_STATUS    = 60;
+    static final int OFF_USER_RESPONSE     = 64;
+    static final int OFF_VALIDITY_RELATIVE = 68;
+    static final int OFF_DEFERRED_RELATIVE = 72;
+    static final int OFF_NUMBER_OF_MESSAGES = 76;
+    static final int OFF_DEPOSIT_INDEX     = 80;
+    static final int OFF_MSG_ENCODING      = 84;
+    static final int OFF_MSG_CENTER_TIME   = 88;  // long
+    static final int OFF_VALIDITY_ABSOLUTE = 96;  // long
+    static final int OFF_DEFERRED_ABSOLUTE = 104; // long
+    static final int OFF_USER_DATA_MSG_TYPE = 112;
+    static final int OFF_PADDING_BITS      = 116;
+    static final int OFF_NUM_FIELDS        = 120;
+    static final int OFF_CMAS              = 124; // 6 shorts, see CMAS_*
+
+    // Addresses: digit mode, number mode, ton, numbering plan, digit count.
+    static final int OFF_ORIG_ADDRESS      = 136;
+    static final int OFF_DEST_ADDRESS      = 141;
+    static final int OFF_CALLBACK_NUMBER   = 146;
+    static final int OFF_SUBADDRESS_TYPE   = 151; // byte
+    static final int OFF_SUBADDRESS_ODD    = 152; // byte
+
+    static final int FIXED_SIZE            = 160;
+
+    static final int ADDRESS_DIGIT_MODE    = 0;
+    static final int ADDRESS_NUMBER_MODE   = 1;
+    static final int ADDRESS_TON           = 2;
+    static final int ADDRESS_NUMBER_PLAN   = 3;
+    static final int ADDRESS_DIGIT_COUNT   = 4;
+
+    // CMAS fields are shorts, so the 8 bit values and -1 for unknown both fit.
+    static final int CMAS_MESSAGE_CLASS    = 0;
+    static final int CMAS_CATEGORY         = 2;
+    static final int CMAS_RESPONSE_TYPE    = 4;
+    static final int CMAS_SEVERITY         = 6;
+    static final int CMAS_URGENCY          = 8;
+    static final int CMAS_CERTAINTY        = 10;
+
+    // Flags.
+    public static final int FLAG_BEARER_DATA           = 1;
+    public static final int FLAG_PRIORITY              = 1 << 1;
+    public static final int FLAG_PRIVACY               = 1 << 2;
+    public static final int FLAG_ALERT                 = 1 << 3;
+    public static final int FLAG_DISPLAY_MODE          = 1 << 4;
+    public static final int FLAG_LANGUAGE              = 1 << 5;
+    public static final int FLAG_MESSAGE_STATUS        = 1 << 6;
+    public static final int FLAG_USER_RESPONSE_CODE    = 1 << 7;
+    public static final int FLAG_VALIDITY_RELATIVE     = 1 << 8;
+    public static final int FLAG_DEFERRED_RELATIVE     = 1 << 9;
+    public static final int FLAG_USER_ACK_REQ          = 1 << 10;
+    public static final int FLAG_DELIVERY_ACK_REQ      = 1 << 11;
+    public static final int FLAG_READ_ACK_REQ          = 1 << 12;
+    public static final int FLAG_REPORT_REQ            = 1 << 13;
+    public static final int FLAG_HAS_USER_DATA_HEADER  = 1 << 14;
+    public static final int FLAG_USER_DATA             = 1 << 15;
+    public static final int FLAG_MSG_ENCODING          = 1 << 16;
+    public static final int FLAG_CMAS                  = 1 << 17;
+    public static final int FLAG_ORIG_ADDRESS          = 1 << 18;
+    public static final int FLAG_DEST_ADDRESS          = 1 << 19;
+    public static final int FLAG_CALLBACK_NUMBER       = 1 << 20;
+    public static final int FLAG_SUBADDRESS            = 1 << 21;
+
+    // Variable length fields.
+    static final int VAR_ORIG_DIGITS       = 0;
+    static final int VAR_ORIG_ADDRESS      = 1;   // UTF-16
+    static final int VAR_DEST_DIGITS       = 2;
+    static final int VAR_DEST_ADDRESS      = 3;   // UTF-16
+    static final int VAR_CALLBACK_DIGITS   = 4;
+    static final int VAR_CALLBACK_ADDRESS  = 5;   // UTF-16
+    static final int VAR_SUBADDRESS_DIGITS = 6;
+    static final int VAR_RAW_BEARER_DATA   = 7;
+    static final int VAR_PAYLOAD           = 8;
+    static final int VAR_PAYLOAD_TEXT      = 9;   // UTF-16
+    static final int VAR_USER_DATA_HEADER  = 10;
+    static final int VAR_SCP_DATA          = 11;  // see SCP_DATA_RECORD_SIZE
+    static final int VAR_SCP_RESULTS       = 12;  // see SCP_RESULT_SIZE
+
+    static final int VAR_COUNT             = 13;
+
+    static final int VAR_ENTRY_SIZE        = 8;
+
+    /*
+     * Program data records: operation (byte), category (short), language,
+     * max messages, alert option (bytes), name length in chars (short,
+     * -1 for null), then the name as UTF-16.
+     */
+    static final int SCP_DATA_RECORD_SIZE  = 8;
+
+    // Program results: category (short), language, result (bytes).
+    static final int SCP_RESULT_SIZE       = 4;
+
+    private SmsFlatFormat() {
+    }
+
+    /**
+     * Returns the size of the flat form of a message.
+     *
+     * @param bData the decoded bearer data, or null
+     */
+    public static int sizeOf(SmsEnvelope env, BearerData bData) {
+        return sizeOf(env, bData, userDataHeader(bData));
+    }
+
+    /**
+     * Flatten a message into a new array.
+     *
+     * @param bData the decoded bearer data, or null
+     */
+    public static byte[] toByteArray(SmsEnvelope env, BearerData bData) {
+        byte[] header = userDataHeader(bData);
+        ByteBuffer dst = ByteBuffer.allocate(sizeOf(env, bData, header));
+        write(env, bData, header, dst);
+        return dst.array();
+    }
+
+    /**
+     * Flatten a message at the position of a buffer, and advance the
+     * position past it.
+     *
+     * @param bData the decoded bearer data, or null
+     * @return the number of bytes written
+     * @throws BufferOverflowException if the message does not fit
+     */
+    public static int write(SmsEnvelope env, BearerData bData, ByteBuffer dst) {
+        byte[] header = userDataHeader(bData);
+        if (dst.remaining() < sizeOf(env, bData, header)) {
+            throw new BufferOverflowException();
+        }
+        return write(env, bData, header, dst);
+    }
+
+    // The header as received if it was decoded, else as it would be encoded.
+    private static byte[] userDataHeader(BearerData bData) {
+        if (bData == null || bData.userData == null) return null;
+        UserData userData = bData.userData;
+        if (userData.userDataHeaderBytes != null) return userData.userDataHeaderBytes;
+        if (userData.userDataHeader == null) return null;
+        return SmsHeader.toByteArray(userData.userDataHeader);
+    }
+
+    private static int sizeOf(SmsEnvelope env, BearerData bData, byte[] userDataHeader) {
+        int size = FIXED_SIZE + VAR_COUNT * VAR_ENTRY_SIZE;
+        size += addressSize(env.origAddress) + addressSize(env.destAddress);
+        if (env.origSubaddress != null) size += bytesSize(env.origSubaddress.origBytes);
+        size += bytesSize(env.bearerData);
+        if (bData == null) return size;
+        size += addressSize(bData.callbackNumber);
+        if (bData.userData != null) {
+            size += bytesSize(bData.userData.payload);
+            size += charsSize(bData.userData.payloadStr);
+        }
+        size += bytesSize(userDataHeader);
+        if (bData.serviceCategoryProgramData != null) {
+            for (CdmaSmsCbProgramData data : bData.serviceCategoryProgramData) {
+                size += SCP_DATA_RECORD_SIZE + charsSize(data.getCategoryName());
+            }
+        }
+        if (bData.serviceCategoryProgramResults != null) {
+            size += bData.serviceCategoryProgramResults.size() * SCP_RESULT_SIZE;
+        }
+        return size;
+    }
+
+    private static int addressSize(SmsAddress addr) {
+        return addr == null ? 0 : bytesSize(addr.origBytes) + charsSize(addr.address);
+    }
+
+    private static int bytesSize(byte[] data) {
+        return data == null ? 0 : data.length;
+    }
+
+    private static int charsSize(String s) {
+        return s == null ? 0 : s.length() * 2;
+    }
+
+    private static int write(SmsEnvelope env, BearerData bData, byte[] userDataHeader,
+            ByteBuffer dst) {
+        ByteOrder order = dst.order();
+        dst.order(ByteOrder.BIG_ENDIAN);
+        try {
+            return writeMessage(env, bData, userDataHeader, dst);
+        } finally {
+            dst.order(order);
+        }
+    }
+
+    private static int writeMessage(SmsEnvelope env, BearerData bData, byte[] userDataHeader,
+            ByteBuffer dst) {
+        int base = dst.position();
+        // Zero the fixed section, so unset fields and padding read as 0.
+        for (int i = 0; i < FIXED_SIZE; i += 8) {
+            dst.putLong(base + i, 0);
+        }
+        dst.putInt(base + OFF_MAGIC, MAGIC);
+        dst.putShort(base + OFF_VERSION, (short) VERSION);
+        dst.putShort(base + OFF_FIXED_SIZE, (short) FIXED_SIZE);
+        dst.putShort(base + OFF_VAR_COUNT, (short) VAR_COUNT);
+
+        dst.putInt(base + OFF_ENV_MESSAGE_TYPE, env.messageType);
+        dst.putInt(base + OFF_TELESERVICE, env.teleService);
+        dst.putInt(base + OFF_SERVICE_CATEGORY, env.serviceCategory);
+        dst.putInt(base + OFF_BEARER_REPLY, env.bearerReply);
+        dst.put(base + OFF_REPLY_SEQ_NO, env.replySeqNo);
+        dst.put(base + OFF_ENV_ERROR_CLASS, env.errorClass);
+        dst.put(base + OFF_CAUSE_CODE, env.causeCode);
+
+        VarWriter var = new VarWriter(dst, base);
+        int flags = 0;
+        if (env.origAddress != null) {
+            flags |= FLAG_ORIG_ADDRESS;
+            putAddress(dst, base + OFF_ORIG_ADDRESS, env.origAddress);
+            var.putBytes(VAR_ORIG_DIGITS, env.origAddress.origBytes);
+            var.putChars(VAR_ORIG_ADDRESS, env.origAddress.address);
+        }
+        if (env.destAddress != null) {
+            flags |= FLAG_DEST_ADDRESS;
+            putAddress(dst, base + OFF_DEST_ADDRESS, env.destAddress);
+            var.putBytes(VAR_DEST_DIGITS, env.destAddress.origBytes);
+            var.putChars(VAR_DEST_ADDRESS, env.destAddress.address);
+        }
+        if (env.origSubaddress != null) {
+            flags |= FLAG_SUBADDRESS;
+            dst.put(base + OFF_SUBADDRESS_TYPE, (byte) env.origSubaddress.type);
+            dst.put(base + OFF_SUBADDRESS_ODD, env.origSubaddress.odd);
+            var.putBytes(VAR_SUBADDRESS_DIGITS, env.origSubaddress.origBytes);
+        }
+        var.putBytes(VAR_RAW_BEARER_DATA, env.bearerData);
+
+        if (bData != null) {
+            flags |= FLAG_BEARER_DATA | writeBearerData(bData, dst, base);
+            if (bData.callbackNumber != null) {
+                putAddress(dst, base + OFF_CALLBACK_NUMBER, bData.callbackNumber);
+                var.putBytes(VAR_CALLBACK_DIGITS, bData.callbackNumber.origBytes);
+                var.putChars(VAR_CALLBACK_ADDRESS, bData.callbackNumber.address);
+            }
+            if (bData.userData != null) {
+                var.putBytes(VAR_PAYLOAD, bData.userData.payload);
+                var.putChars(VAR_PAYLOAD_TEXT, bData.userData.payloadStr);
+            }
+            var.putBytes(VAR_USER_DATA_HEADER, userDataHeader);
+            var.putScpData(bData.serviceCategoryProgramData);
+            var.putScpResults(bData.serviceCategoryProgramResults);
+        }
+        dst.putInt(base + OFF_FLAGS, flags);
+        int length = var.end() - base;
+        dst.putInt(base + OFF_TOTAL_LENGTH, length);
+        dst.position(base + length);
+        return length;
+    }
+
+    private static int writeBearerData(BearerData bData, ByteBuffer dst, int base) {
+        int flags = 0;
+        dst.putInt(base + OFF_MESSAGE_TYPE, bData.messageType);
+        dst.putInt(base + OFF_MESSAGE_ID, bData.messageId);
+        dst.put(base + OFF_PRIORITY, (byte) bData.priority);
+        dst.put(base + OFF_PRIVACY, (byte) bData.privacy);
+        dst.put(base + OFF_ALERT, (byte) bData.alert);
+        dst.put(base + OFF_DISPLAY_MODE, (byte) bData.displayMode);
+        dst.putInt(base + OFF_LANGUAGE, bData.language);
+        dst.putInt(base + OFF_ERROR_CLASS, bData.errorClass);
+        dst.putInt(base + OFF_MESSAGE_STATUS, bData.messageStatus);
+        dst.putInt(base + OFF_USER_RESPONSE, bData.userResponseCode);
+        dst.putInt(base + OFF_VALIDITY_RELATIVE, bData.validityPeriodRelative);
+        dst.putInt(base + OFF_DEFERRED_RELATIVE, bData.deferredDeliveryTimeRelative);
+        dst.putInt(base + OFF_NUMBER_OF_MESSAGES, bData.numberOfMessages);
+        dst.putInt(base + OFF_DEPOSIT_INDEX, bData.depositIndex);
+        dst.putLong(base + OFF_MSG_CENTER_TIME, bData.msgCenterTimeStamp);
+        dst.putLong(base + OFF_VALIDITY_ABSOLUTE, bData.validityPeriodAbsolute);
+        dst.putLong(base + OFF_DEFERRED_ABSOLUTE, bData.deferredDeliveryTimeAbsolute);
+        if (bData.priorityIndicatorSet) flags |= FLAG_PRIORITY;
+        if (bData.privacyIndicatorSet) flags |= FLAG_PRIVACY;
+        if (bData.alertIndicatorSet) flags |= FLAG_ALERT;
+        if (bData.displayModeSet) flags |= FLAG_DISPLAY_MODE;
+        if (bData.languageIndicatorSet) flags |= FLAG_LANGUAGE;
+        if (bData.messageStatusSet) flags |= FLAG_MESSAGE_STATUS;
+        if (bData.userResponseCodeSet) flags |= FLAG_USER_RESPONSE_CODE;
+        if (bData.validityPeriodRelativeSet) flags |= FLAG_VALIDITY_RELATIVE;
+        if (bData.deferredDeliveryTimeRelativeSet) flags |= FLAG_DEFERRED_RELATIVE;
+        if (bData.userAckReq) flags |= FLAG_USER_ACK_REQ;
+        if (bData.deliveryAckReq) flags |= FLAG_DELIVERY_ACK_REQ;
+        if (bData.readAckReq) flags |= FLAG_READ_ACK_REQ;
+        if (bData.reportReq) flags |= FLAG_REPORT_REQ;
+        if (bData.hasUserDataHeader) flags |= FLAG_HAS_USER_DATA_HEADER;
+        if (bData.callbackNumber != null) flags |= FLAG_CALLBACK_NUMBER;
+
+        UserData userData = bData.userData;
+        if (userData != null) {
+            flags |= FLAG_USER_DATA;
+            if (userData.msgEncodingSet) flags |= FLAG_MSG_ENCODING;
+            dst.putInt(base + OFF_MSG_ENCODING, userData.msgEncoding);
+            dst.putInt(base + OFF_USER_DATA_MSG_TYPE, userData.msgType);
+            dst.putInt(base + OFF_PADDING_BITS, userData.paddingBits);
+            dst.putInt(base + OFF_NUM_FIELDS, userData.numFields);
+        }
+
+        SmsCbCmasInfo cmas = bData.cmasWarningInfo;
+        if (cmas != null) {
+            flags |= FLAG_CMAS;
+            int offset = base + OFF_CMAS;
+            dst.putShort(offset + CMAS_MESSAGE_CLASS, (short) cmas.getMessageClass());
+            dst.putShort(offset + CMAS_CATEGORY, (short) cmas.getCategory());
+            dst.putShort(offset + CMAS_RESPONSE_TYPE, (short) cmas.getResponseType());
+            dst.putShort(offset + CMAS_SEVERITY, (short) cmas.getSeverity());
+            dst.putShort(offset + CMAS_URGENCY, (short) cmas.getUrgency());
+            dst.putShort(offset + CMAS_CERTAINTY, (short) cmas.getCertainty());
+        }
+        return flags;
+    }
+
+    private static void putAddress(ByteBuffer dst, int offset, CdmaSmsAddress addr) {
+        dst.put(offset + ADDRESS_DIGIT_MODE, (byte) addr.digitMode);
+        dst.put(offset + ADDRESS_NUMBER_MODE, (byte) addr.numberMode);
+        dst.put(offset + ADDRESS_TON, (byte) addr.ton);
+        dst.put(offset + ADDRESS_NUMBER_PLAN, (byte) addr.numberPlan);
+        dst.put(offset + ADDRESS_DIGIT_COUNT, (byte) addr.numberOfDigits);
+    }
+
+    /**
+     * Appends variable length fields after the table, filling in their
+     * table entries.  Fields never written are left marked absent.
+     */
+    private static final class VarWriter {
+        private final ByteBuffer mDst;
+        private final int mBase;
+        private final int mTable;
+        private int mPos;
+        private int mStart;
+
+        VarWriter(ByteBuffer dst, int base) {
+            mDst = dst;
+            mBase = base;
+            mTable = base + FIXED_SIZE;
+            mPos = mTable + VAR_COUNT * VAR_ENTRY_SIZE;
+            for (int i = 0; i < VAR_COUNT; i++) {
+                dst.putInt(mTable + i * VAR_ENTRY_SIZE, 0);
+                dst.putInt(mTable + i * VAR_ENTRY_SIZE + 4, -1);
+            }
+        }
+
+        int end() {
+            return mPos;
+        }
+
+        private void begin() {
+            mStart = mPos;
+        }
+
+        private void finish(int field) {
+            mDst.putInt(mTable + field * VAR_ENTRY_SIZE, mStart - mBase);
+            mDst.putInt(mTable + field * VAR_ENTRY_SIZE + 4, mPos - mStart);
+        }
+
+        void putBytes(int field, byte[] data) {
+            if (data == null) return;
+            begin();
+            mDst.position(mPos);
+            mDst.put(data);
+            mPos += data.length;
+            finish(field);
+        }
+
+        void putChars(int field, String s) {
+            if (s == null) return;
+            begin();
+            mPos = putString(mDst, mPos, s);
+            finish(field);
+        }
+
+        void putScpData(ArrayList<CdmaSmsCbProgramData> list) {
+            if (list == null) return;
+            begin();
+            ByteBuffer dst = mDst;
+            for (CdmaSmsCbProgramData data : list) {
+                String name = data.getCategoryName();
+                dst.put(mPos, (byte) data.getOperation());
+                dst.putShort(mPos + 1, (short) data.getCategory());
+                dst.put(mPos + 3, (byte) data.getLanguage());
+                dst.put(mPos + 4, (byte) data.getMaxMessages());
+                dst.put(mPos + 5, (byte) data.getAlertOption());
+                dst.putShort(mPos + 6, (short) (name == null ? -1 : name.length()));
+                mPos += SCP_DATA_RECORD_SIZE;
+                if (name != null) mPos = putString(dst, mPos, name);
+            }
+            finish(VAR_SCP_DATA);
+        }
+
+        void putScpResults(ArrayList<CdmaSmsCbProgramResults> list) {
+            if (list == null) return;
+            begin();
+            ByteBuffer dst = mDst;
+            for (CdmaSmsCbProgramResults result : list) {
+                dst.putShort(mPos, (short) result.getCategory());
+                dst.put(mPos + 2, (byte) result.getLanguage());
+                dst.put(mPos + 3, (byte) result.getCategoryResult());
+                mPos += SCP_RESULT_SIZE;
+            }
+            finish(VAR_SCP_RESULTS);
+        }
+
+        private static int putString(ByteBuffer dst, int pos, String s) {
+            for (int i = 0, n = s.length(); i < n; i++) {
+                dst.putChar(pos, s.charAt(i));
+                pos += 2;
+            }
+            return pos;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package com.quectel.jnitestexec.cdma2;
+
+import static com.quectel.jnitestexec.cdma2.SmsFlatFormat.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+
+/**
+ * Read-only view of a message in the {@link SmsFlatFormat} layout.
+ *
+ * Fields are read straight from the underlying buffer when asked for;
+ * byte fields are returned as slices and strings as CharSequence views
+ * of it, so nothing is copied or decoded unless the caller does so, e.g.
+ * through {@link #toSmsEnvelope()} and {@link #toBearerData()}.
+ *
+ * A view is immutable and safe to share as long as the buffer contents
+ * do not change.
+ */
+public class SmsFlatView {
+
+    private final ByteBuffer mBuffer;
+    private final int mBase;
+    private final int mLength;
+    private final int mFlags;
+    private final int mVarTable;
+    private final int mVarCount;
+
+    /**
+     * Wrap the message at the position of a buffer.  The position is
+     * left unchanged.
+     *
+     * @throws RuntimeException if the buffer does not hold a whole message
+     */
+    public SmsFlatView(ByteBuffer buffer) {
+        ByteBuffer buf = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int base = buf.position();
+        if (buf.remaining() < FIXED_SIZE || buf.getInt(base + OFF_MAGIC) != MAGIC) {
+            throw new RuntimeException("SmsFlatView: not a flat SMS message");
+        }
+        int fixedSize = buf.getShort(base + OFF_FIXED_SIZE) & 0xFFFF;
+        int varCount = buf.getShort(base + OFF_VAR_COUNT) & 0xFFFF;
+        int length = buf.getInt(base + OFF_TOTAL_LENGTH);
+        if (fixedSize < FIXED_SIZE || length < fixedSize + varCount * VAR_ENTRY_SIZE
+                || length > buf.remaining()) {
+            throw new RuntimeException("SmsFlatView: bad header (fixed size " + fixedSize
+                    + ", length " + length + ", remaining " + buf.remaining() + ")");
+        }
+        mBuffer = buf;
+        mBase = base;
+        mLength = length;
+        mFlags = buf.getInt(base + OFF_FLAGS);
+        mVarTable = base + fixedSize;
+        mVarCount = varCount;
+    }
+
+    public static SmsFlatView wrap(byte[] data) {
+        return new SmsFlatView(ByteBuffer.wrap(data));
+    }
+
+    /** Returns the length of the message in bytes. */
+    public int getLength() {
+        return mLength;
+    }
+
+    public int getVersion() {
+        return mBuffer.getShort(mBase + OFF_VERSION) & 0xFFFF;
+    }
+
+    /** Returns the SmsFlatFormat.FLAG_* bits of the message. */
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (mFlags & flag) != 0;
+    }
+
+    // SmsEnvelope fields.
+
+    public int getEnvelopeMessageType() {
+        return mBuffer.getInt(mBase + OFF_ENV_MESSAGE_TYPE);
+    }
+
+    public int getTeleService() {
+        return mBuffer.getInt(mBase + OFF_TELESERVICE);
+    }
+
+    public int getServiceCategory() {
+        return mBuffer.getInt(mBase + OFF_SERVICE_CATEGORY);
+    }
+
+    public int getBearerReply() {
+        return mBuffer.getInt(mBase + OFF_BEARER_REPLY);
+    }
+
+    public byte getReplySeqNo() {
+        return mBuffer.get(mBase + OFF_REPLY_SEQ_NO);
+    }
+
+    public byte getEnvelopeErrorClass() {
+        return mBuffer.get(mBase + OFF_ENV_ERROR_CLASS);
+    }
+
+    public byte getCauseCode() {
+        return mBuffer.get(mBase + OFF_CAUSE_CODE);
+    }
+
+    /** Returns the originating address, or null. */
+    public CharSequence getOrigAddress() {
+        return getChars(VAR_ORIG_ADDRESS);
+    }
+
+    /** Returns the destination address, or null. */
+    public CharSequence getDestAddress() {
+        return getChars(VAR_DEST_ADDRESS);
+    }
+
+    /** Returns the undecoded bearer data, or null. */
+    public ByteBuffer getRawBearerData() {
+        return getBytes(VAR_RAW_BEARER_DATA);
+    }
+
+    // BearerData fields, only meaningful with FLAG_BEARER_DATA.
+
+    public int getMessageType() {
+        return mBuffer.getInt(mBase + OFF_MESSAGE_TYPE);
+    }
+
+    public int getMessageId() {
+        return mBuffer.getInt(mBase + OFF_MESSAGE_ID);
+    }
+
+    public int getPriority() {
+        return mBuffer.get(mBase + OFF_PRIORITY);
+    }
+
+    public int getPrivacy() {
+        return mBuffer.get(mBase + OFF_PRIVACY);
+    }
+
+    public int getAlert() {
+        return mBuffer.get(mBase + OFF_ALERT);
+    }
+
+    public int getDisplayMode() {
+        return mBuffer.get(mBase + OFF_DISPLAY_MODE);
+    }
+
+    public int getLanguage() {
+        return mBuffer.getInt(mBase + OFF_LANGUAGE);
+    }
+
+    public int getErrorClass() {
+        return mBuffer.getInt(mBase + OFF_ERROR_CLASS);
+    }
+
+    public int getMessageStatus() {
+        return mBuffer.getInt(mBase + OFF_MESSAGE_STATUS);
+    }
+
+    public int getUserResponseCode() {
+        return mBuffer.getInt(mBase + OFF_USER_RESPONSE);
+    }
+
+    public int getValidityPeriodRelative() {
+        return mBuffer.getInt(mBase + OFF_VALIDITY_RELATIVE);
+    }
+
+    public int getDeferredDeliveryTimeRelative() {
+        return mBuffer.getInt(mBase + OFF_DEFERRED_RELATIVE);
+    }
+
+    public int getNumberOfMessages() {
+        return mBuffer.getInt(mBase + OFF_NUMBER_OF_MESSAGES);
+    }
+
+    public int getDepositIndex() {
+        return mBuffer.getInt(mBase + OFF_DEPOSIT_INDEX);
+    }
+
+    /** Returns the packed {@link SmsTimeStamp}, or SmsTimeStamp.NONE. */
+    public long getMsgCenterTimeStamp() {
+        return mBuffer.getLong(mBase + OFF_MSG_CENTER_TIME);
+    }
+
+    /** Returns the packed {@link SmsTimeStamp}, or SmsTimeStamp.NONE. */
+    public long getValidityPeriodAbsolute() {
+        return mBuffer.getLong(mBase + OFF_VALIDITY_ABSOLUTE);
+    }
+
+    /** Returns the packed {@link SmsTimeStamp}, or SmsTimeStamp.NONE. */
+    public long getDeferredDeliveryTimeAbsolute() {
+        return mBuffer.getLong(mBase + OFF_DEFERRED_ABSOLUTE);
+    }
+
+    /** Returns the callback number, or null. */
+    public CharSequence getCallbackNumber() {
+        return getChars(VAR_CALLBACK_ADDRESS);
+    }
+
+    // UserData fields, only meaningful with FLAG_USER_DATA.
+
+    public int getMsgEncoding() {
+        return mBuffer.getInt(mBase + OFF_MSG_ENCODING);
+    }
+
+    public int getUserDataMsgType() {
+        return mBuffer.getInt(mBase + OFF_USER_DATA_MSG_TYPE);
+    }
+
+    public int getPaddingBits() {
+        return mBuffer.getInt(mBase + OFF_PADDING_BITS);
+    }
+
+    public int getNumFields() {
+        return mBuffer.getInt(mBase + OFF_NUM_FIELDS);
+    }
+
+    /** Returns the user data payload, or null. */
+    public ByteBuffer getPayload() {
+        return getBytes(VAR_PAYLOAD);
+    }
+
+    /** Returns the decoded message text, or null. */
+    public CharSequence getPayloadText() {
+        return getChars(VAR_PAYLOAD_TEXT);
+    }
+
+    /** Returns the encoded user data header, without its length byte, or null. */
+    public ByteBuffer getUserDataHeader() {
+        return getBytes(VAR_USER_DATA_HEADER);
+    }
+
+    /** Returns a CMAS field, see SmsFlatFormat.CMAS_*; only meaningful with FLAG_CMAS. */
+    int getCmasField(int field) {
+        return mBuffer.getShort(mBase + OFF_CMAS + field);
+    }
+
+    /**
+     * Copy the message into a new SmsEnvelope.
+     */
+    public SmsEnvelope toSmsEnvelope() {
+        SmsEnvelope env = new SmsEnvelope();
+        env.messageType = getEnvelopeMessageType();
+        env.teleService = getTeleService();
+        env.serviceCategory = getServiceCategory();
+        env.bearerReply = getBearerReply();
+        env.replySeqNo = getReplySeqNo();
+        env.errorClass = getEnvelopeErrorClass();
+        env.causeCode = getCauseCode();
+        if (hasFlag(FLAG_ORIG_ADDRESS)) {
+            env.origAddress = toAddress(OFF_ORIG_ADDRESS, VAR_ORIG_DIGITS, VAR_ORIG_ADDRESS);
+        }
+        if (hasFlag(FLAG_DEST_ADDRESS)) {
+            env.destAddress = toAddress(OFF_DEST_ADDRESS, VAR_DEST_DIGITS, VAR_DEST_ADDRESS);
+        }
+        if (hasFlag(FLAG_SUBADDRESS)) {
+            CdmaSmsSubaddress subaddr = new CdmaSmsSubaddress();
+            subaddr.type = mBuffer.get(mBase + OFF_SUBADDRESS_TYPE);
+            subaddr.odd = mBuffer.get(mBase + OFF_SUBADDRESS_ODD);
+            subaddr.origBytes = copyBytes(VAR_SUBADDRESS_DIGITS);
+            env.origSubaddress = subaddr;
+        }
+        env.bearerData = copyBytes(VAR_RAW_BEARER_DATA);
+        return env;
+    }
+
+    /**
+     * Copy the message into a new BearerData.
+     *
+     * @return the bearer data, or null without FLAG_BEARER_DATA
+     */
+    public BearerData toBearerData() {
+        if (!hasFlag(FLAG_BEARER_DATA)) return null;
+        BearerData bData = new BearerData();
+        bData.messageType = getMessageType();
+        bData.messageId = getMessageId();
+        bData.priorityIndicatorSet = hasFlag(FLAG_PRIORITY);
+        bData.priority = getPriority();
+        bData.privacyIndicatorSet = hasFlag(FLAG_PRIVACY);
+        bData.privacy = getPrivacy();
+        bData.alertIndicatorSet = hasFlag(FLAG_ALERT);
+        bData.alert = getAlert();
+        bData.displayModeSet = hasFlag(FLAG_DISPLAY_MODE);
+        bData.displayMode = getDisplayMode();
+        bData.languageIndicatorSet = hasFlag(FLAG_LANGUAGE);
+        bData.language = getLanguage();
+        bData.messageStatusSet = hasFlag(FLAG_MESSAGE_STATUS);
+        bData.errorClass = getErrorClass();
+        bData.messageStatus = getMessageStatus();
+        bData.userResponseCodeSet = hasFlag(FLAG_USER_RESPONSE_CODE);
+        bData.userResponseCode = getUserResponseCode();
+        bData.validityPeriodRelativeSet = hasFlag(FLAG_VALIDITY_RELATIVE);
+        bData.validityPeriodRelative = getValidityPeriodRelative();
+        bData.deferredDeliveryTimeRelativeSet = hasFlag(FLAG_DEFERRED_RELATIVE);
+        bData.deferredDeliveryTimeRelative = getDeferredDeliveryTimeRelative();
+        bData.userAckReq = hasFlag(FLAG_USER_ACK_REQ);
+        bData.deliveryAckReq = hasFlag(FLAG_DELIVERY_ACK_REQ);
+        bData.readAckReq = hasFlag(FLAG_READ_ACK_REQ);
+        bData.reportReq = hasFlag(FLAG_REPORT_REQ);
+        bData.hasUserDataHeader = hasFlag(FLAG_HAS_USER_DATA_HEADER);
+        bData.numberOfMessages = getNumberOfMessages();
+        bData.depositIndex = getDepositIndex();
+        bData.msgCenterTimeStamp = getMsgCenterTimeStamp();
+        bData.validityPeriodAbsolute = getValidityPeriodAbsolute();
+        bData.deferredDeliveryTimeAbsolute = getDeferredDeliveryTimeAbsolute();
+        if (hasFlag(FLAG_CALLBACK_NUMBER)) {
+            bData.callbackNumber = toAddress(OFF_CALLBACK_NUMBER, VAR_CALLBACK_DIGITS,
+                    VAR_CALLBACK_ADDRESS);
+        }
+        if (hasFlag(FLAG_USER_DATA)) {
+            UserData userData = new UserData();
+            userData.msgEncodingSet = hasFlag(FLAG_MSG_ENCODING);
+            userData.msgEncoding = getMsgEncoding();
+            userData.msgType = getUserDataMsgType();
+            userData.paddingBits = getPaddingBits();
+            userData.numFields = getNumFields();
+            userData.payload = copyBytes(VAR_PAYLOAD);
+            CharSequence text = getPayloadText();
+            userData.payloadStr = text == null ? null : text.toString();
+            byte[] header = copyBytes(VAR_USER_DATA_HEADER);
+            if (header != null) {
+                userData.userDataHeader = SmsHeader.fromByteArray(header);
+                userData.userDataHeaderBytes = header;
+            }
+            bData.userData = userData;
+        }
+        if (hasFlag(FLAG_CMAS)) {
+            bData.cmasWarningInfo = new SmsCbCmasInfo(getCmasField(CMAS_MESSAGE_CLASS),
+                    getCmasField(CMAS_CATEGORY), getCmasField(CMAS_RESPONSE_TYPE),
+                    getCmasField(CMAS_SEVERITY), getCmasField(CMAS_URGENCY),
+                    getCmasField(CMAS_CERTAINTY));
+        }
+        bData.serviceCategoryProgramData = toScpData();
+        bData.serviceCategoryProgramResults = toScpResults();
+        return bData;
+    }
+
+    private CdmaSmsAddress toAddress(int offset, int digitsField, int addressField) {
+        CdmaSmsAddress addr = new CdmaSmsAddress();
+        ByteBuffer buf = mBuffer;
+        int pos = mBase + offset;
+        addr.digitMode = buf.get(pos + ADDRESS_DIGIT_MODE);
+        addr.numberMode = buf.get(pos + ADDRESS_NUMBER_MODE);
+        addr.ton = buf.get(pos + ADDRESS_TON);
+        addr.numberPlan = buf.get(pos + ADDRESS_NUMBER_PLAN);
+        addr.numberOfDigits = buf.get(pos + ADDRESS_DIGIT_COUNT) & 0xFF;
+        addr.origBytes = copyBytes(digitsField);
+        CharSequence address = getChars(addressField);
+        addr.address = address == null ? null : address.toString();
+        return addr;
+    }
+
+    private ArrayList<CdmaSmsCbProgramData> toScpData() {
+        int length = getVarLength(VAR_SCP_DATA);
+        if (length < 0) return null;
+        ArrayList<CdmaSmsCbProgramData> list = new ArrayList<CdmaSmsCbProgramData>();
+        ByteBuffer buf = mBuffer;
+        int pos = mBase + getVarOffset(VAR_SCP_DATA);
+        int end = pos + length;
+        while (pos + SCP_DATA_RECORD_SIZE <= end) {
+            int nameLength = buf.getShort(pos + 6);
+            String name = null;
+            if (nameLength >= 0) {
+                name = charView(pos + SCP_DATA_RECORD_SIZE, nameLength * 2).toString();
+            }
+            list.add(new CdmaSmsCbProgramData(buf.get(pos) & 0xFF,
+                    buf.getShort(pos + 1) & 0xFFFF, buf.get(pos + 3) & 0xFF,
+                    buf.get(pos + 4) & 0xFF, buf.get(pos + 5) & 0xFF, name));
+            pos += SCP_DATA_RECORD_SIZE + Math.max(nameLength, 0) * 2;
+        }
+        return list;
+    }
+
+    private ArrayList<CdmaSmsCbProgramResults> toScpResults() {
+        int length = getVarLength(VAR_SCP_RESULTS);
+        if (length < 0) return null;
+        ArrayList<CdmaSmsCbProgramResults> list = new ArrayList<CdmaSmsCbProgramResults>();
+        ByteBuffer buf = mBuffer;
+        for (int pos = mBase + getVarOffset(VAR_SCP_RESULTS), end = pos + length;
+                pos + SCP_RESULT_SIZE <= end; pos += SCP_RESULT_SIZE) {
+            list.add(new CdmaSmsCbProgramResults(buf.getShort(pos) & 0xFFFF,
+                    buf.get(pos + 2) & 0xFF, buf.get(pos + 3) & 0xFF));
+        }
+        return list;
+    }
+
+    // Length of a variable length field, -1 if absent.
+    private int getVarLength(int field) {
+        if (field >= mVarCount) return -1;
+        int length = mBuffer.getInt(mVarTable + field * VAR_ENTRY_SIZE + 4);
+        if (length < 0) return -1;
+        int offset = getVarOffset(field);
+        if (offset < 0 || offset + length > mLength) {
+            throw new RuntimeException("SmsFlatView: field " + field + " out of bounds");
+        }
+        return length;
+    }
+
+    private int getVarOffset(int field) {
+        return mBuffer.getInt(mVarTable + field * VAR_ENTRY_SIZE);
+    }
+
+    private ByteBuffer getBytes(int field) {
+        int length = getVarLength(field);
+        if (length < 0) return null;
+        ByteBuffer slice = mBuffer.asReadOnlyBuffer();
+        int start = mBase + getVarOffset(field);
+        slice.limit(start + length).position(start);
+        return slice.slice();
+    }
+
+    private byte[] copyBytes(int field) {
+        ByteBuffer bytes = getBytes(field);
+        if (bytes == null) return null;
+        byte[] data = new byte[bytes.remaining()];
+        bytes.get(data);
+        return data;
+    }
+
+    private CharSequence getChars(int field) {
+        int length = getVarLength(field);
+        if (length < 0) return null;
+        return charView(mBase + getVarOffset(field), length);
+    }
+
+    private CharBuffer charView(int start, int length) {
+        ByteBuffer slice = mBuffer.asReadOnlyBuffer();
+        slice.limit(start + length).position(start);
+        return slice.slice().asCharBuffer();
+    }
+}
@@ -8,15 +8,15 @@ import java.util.Arrays;
 
 public class SmsMessage {
 
-    private final static byte TELESERVICE_IDENTIFIER                    = 0x00;
-    private final static byte SERVICE_CATEGORY                          = 0x01;
-    private final static byte ORIGINATING_ADDRESS                       = 0x02;
-    private final static byte ORIGINATING_SUB_ADDRESS                   = 0x03;
-    private final static byte DESTINATION_ADDRESS                       = 0x04;
-    private final static byte DESTINATION_SUB_ADDRESS                   = 0x05;
-    private final static byte BEARER_REPLY_OPTION                       = 0x06;
-    private final static byte CAUSE_CODES                               = 0x07;
-    private final static byte BEARER_DATA                               = 0x08;
+    final static byte TELESERVICE_IDENTIFIER                    = 0x00;
+    final static byte SERVICE_CATEGORY                          = 0x01;
+    final static byte ORIGINATING_ADDRESS                       = 0x02;
+    final static byte ORIGINATING_SUB_ADDRESS                   = 0x03;
+    final static byte DESTINATION_ADDRESS                       = 0x04;
+    final static byte DESTINATION_SUB_ADDRESS                   = 0x05;
+    final static byte BEARER_REPLY_OPTION                       = 0x06;
+    final static byte CAUSE_CODES                               = 0x07;
+    final static byte BEARER_DATA                               = 0x08;
     private static final boolean VDBG = true;
     private static final String LOG_TAG = "SMSMessage";
     private CdmaSmsAddress mRecipientAddress;
@@ -27,6 +27,10 @@ public class SmsMessage {
         return mPdu;
     }
 
+    public BearerData getBearerData() {
+        return mBearerData;
+    }
+
     private byte[] mPdu;
     private BearerData mBearerData;
     private int mMessageRef;
@@ -35,12 +39,57 @@ public class SmsMessage {
     private String mMessageBody;
     private long mScTimeMillis;
     private int status;
+    private DecodeLimits mDecodeLimits = DecodeLimits.UNLIMITED;
+
+    /**
+     * Set the limits for decoding the bearer data of the next PDU parsed,
+     * for PDUs from untrusted sources.
+     */
+    public void setDecodeLimits(DecodeLimits limits) {
+        mDecodeLimits = limits;
+    }
 
 
 
 
 
     public void parsePdu(byte[] pdu) {
+        if (!SmsCodecTrace.begin(SmsCodecMetrics.OP_PARSE_PDU, pdu.length)) {
+            parsePduBody(pdu);
+            return;
+        }
+        boolean success = false;
+        try {
+            parsePduBody(pdu);
+            success = true;
+        } finally {
+            endTrace(success);
+        }
+    }
+
+    /**
+     * Parse a message whose envelope was already read, e.g. by
+     * {@link SmsPduPushParser}.  {@link #getPdu()} returns null for it.
+     */
+    public void parseEnvelope(SmsEnvelope env) {
+        mOriginatingAddress = env.origAddress;
+        mEnvelope = env;
+        mPdu = null;
+        parseSms();
+        SmsCodecMetrics.countTeleservice(env.teleService);
+    }
+
+    /**
+     * Returns an immutable snapshot of the message last parsed, to share
+     * between threads.  See also {@link DecodedSms#parsePdu(byte[], DecodeLimits)},
+     * which avoids copying.
+     */
+    public DecodedSms toDecodedSms() {
+        return DecodedSms.copyOf(mEnvelope, mBearerData);
+    }
+
+    private void parsePduBody(byte[] pdu) {
+        long startNanos = System.nanoTime();
         ByteArrayInputStream bais = new ByteArrayInputStream(pdu);
         DataInputStream dis = new DataInputStream(bais);
         int length;
@@ -91,6 +140,7 @@ public class SmsMessage {
             dis.read(env.bearerData, 0, bearerDataLength);
             dis.close();
         } catch (IOException ex) {
+            SmsCodecMetrics.countMalformed(SmsCodecMetrics.MALFORMED_ENVELOPE);
             throw new RuntimeException(
                     "createFromPdu: conversion from byte array to object failed: " + ex, ex);
         }
@@ -102,6 +152,8 @@ public class SmsMessage {
         mPdu = pdu;
         Rlog.d("", "mPdu = " + Arrays.toString(mPdu));
         parseSms();
+        SmsCodecMetrics.countTeleservice(env.teleService);
+        SmsCodecMetrics.recordLatency(SmsCodecMetrics.OP_PARSE_PDU, startNanos);
     }
 
 
@@ -109,20 +161,49 @@ public class SmsMessage {
 
 
     public void parsePduFromEfRecord(byte[] pdu) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(pdu);
-        DataInputStream dis = new DataInputStream(bais);
+        if (!SmsCodecTrace.begin(SmsCodecMetrics.OP_PARSE_EF_RECORD, pdu.length)) {
+            parsePduFromEfRecordBody(pdu);
+            return;
+        }
+        boolean success = false;
+        try {
+            parsePduFromEfRecordBody(pdu);
+            success = true;
+        } finally {
+            endTrace(success);
+        }
+    }
+
+    private void endTrace(boolean success) {
+        boolean hasUserData = success && mBearerData != null && mBearerData.userData != null;
+        SmsCodecTrace.end(success,
+                hasUserData ? mBearerData.userData.msgEncoding : SmsCodecTrace.UNKNOWN,
+                success && mEnvelope != null
+                        ? SmsCodecTrace.countSubparams(mEnvelope.bearerData)
+                        : SmsCodecTrace.UNKNOWN);
+    }
+
+    private void parsePduFromEfRecordBody(byte[] pdu) {
+        long startNanos = System.nanoTime();
         SmsEnvelope env = new SmsEnvelope();
         CdmaSmsAddress addr = new CdmaSmsAddress();
         CdmaSmsSubaddress subAddr = new CdmaSmsSubaddress();
 
 
         try {
-            env.messageType = dis.readByte();
-
-            while (dis.available() > 0) {
-                int parameterId = dis.readByte();
-                int parameterLen = dis.readUnsignedByte();
-                byte[] parameterData = new byte[parameterLen];
+            // Parameters are read in place; only the bearer data gets its own array.
+            int pos = 0;
+            env.messageType = pdu[pos++];
+
+            while (pos < pdu.length) {
+                int parameterId = pdu[pos++];
+                int parameterLen = pdu[pos++] & 0xFF;
+                if (pos + parameterLen > pdu.length) {
+                    throw new Exception("parameter (" + parameterId + ") length " + parameterLen
+                            + " exceeds pdu len " + pdu.length);
+                }
+                int parameterOffset = pos;
+                pos += parameterLen;
 
                 switch (parameterId) {
                     case TELESERVICE_IDENTIFIER:
@@ -131,19 +212,19 @@ public class SmsMessage {
                          * service access point is sending or should receive
                          * this message
                          */
-                        env.teleService = dis.readUnsignedShort();
+                        env.teleService = readUnsignedShort(pdu, parameterOffset);
                         break;
                     case SERVICE_CATEGORY:
                         /*
                          * 16 bit parameter that identifies type of service as
                          * in 3GPP2 C.S0015-0 Table 3.4.3.2-1
                          */
-                        env.serviceCategory = dis.readUnsignedShort();
+                        env.serviceCategory = readUnsignedShort(pdu, parameterOffset);
                         break;
                     case ORIGINATING_ADDRESS:
                     case DESTINATION_ADDRESS:
-                        dis.read(parameterData, 0, parameterLen);
-                        BitwiseInputStream addrBis = new BitwiseInputStream(parameterData);
+                        BitwiseInputStream addrBis = new BitwiseInputStream(pdu, parameterOffset,
+                                parameterLen);
                         addr.digitMode = addrBis.read(1);
                         addr.numberMode = addrBis.read(1);
                         int numberType = 0;
@@ -162,12 +243,8 @@ public class SmsMessage {
 
                         if (addr.digitMode == CdmaSmsAddress.DIGIT_MODE_4BIT_DTMF) {
                             /* As per 3GPP2 C.S0005-0 Table 2.7.1.3.2.4-4 */
-                            for (int index = 0; index < addr.numberOfDigits; index++) {
-                                b = (byte) (0xF & addrBis.read(4));
-                                // convert the value if it is 4-bit DTMF to 8
-                                // bit
-                                data[index] = convertDtmfToAscii(b);
-                            }
+                            // convert the values from 4-bit DTMF to 8 bit
+                            DtmfCodec.readAscii(addrBis, addr.numberOfDigits, data, 0);
                         } else if (addr.digitMode == CdmaSmsAddress.DIGIT_MODE_8BIT_CHAR) {
                             if (addr.numberMode == CdmaSmsAddress.NUMBER_MODE_NOT_DATA_NETWORK) {
                                 for (int index = 0; index < addr.numberOfDigits; index++) {
@@ -198,43 +275,38 @@ public class SmsMessage {
                         break;
                     case ORIGINATING_SUB_ADDRESS:
                     case DESTINATION_SUB_ADDRESS:
-                        dis.read(parameterData, 0, parameterLen);
-                        BitwiseInputStream subAddrBis = new BitwiseInputStream(parameterData);
+                        BitwiseInputStream subAddrBis = new BitwiseInputStream(pdu,
+                                parameterOffset, parameterLen);
                         subAddr.type = subAddrBis.read(3);
                         subAddr.odd = subAddrBis.readByteArray(1)[0];
                         int subAddrLen = subAddrBis.read(8);
                         byte[] subdata = new byte[subAddrLen];
-                        for (int index = 0; index < subAddrLen; index++) {
-                            b = (byte) (0xFF & subAddrBis.read(4));
-                            // convert the value if it is 4-bit DTMF to 8 bit
-                            subdata[index] = convertDtmfToAscii(b);
-                        }
+                        // convert the values from 4-bit DTMF to 8 bit
+                        DtmfCodec.readAscii(subAddrBis, subAddrLen, subdata, 0);
                         subAddr.origBytes = subdata;
                         break;
                     case BEARER_REPLY_OPTION:
-                        dis.read(parameterData, 0, parameterLen);
-                        BitwiseInputStream replyOptBis = new BitwiseInputStream(parameterData);
+                        BitwiseInputStream replyOptBis = new BitwiseInputStream(pdu,
+                                parameterOffset, parameterLen);
                         env.bearerReply = replyOptBis.read(6);
                         break;
                     case CAUSE_CODES:
-                        dis.read(parameterData, 0, parameterLen);
-                        BitwiseInputStream ccBis = new BitwiseInputStream(parameterData);
+                        BitwiseInputStream ccBis = new BitwiseInputStream(pdu, parameterOffset,
+                                parameterLen);
                         env.replySeqNo = ccBis.readByteArray(6)[0];
                         env.errorClass = ccBis.readByteArray(2)[0];
                         if (env.errorClass != 0x00)
                             env.causeCode = ccBis.readByteArray(8)[0];
                         break;
                     case BEARER_DATA:
-                        dis.read(parameterData, 0, parameterLen);
-                        env.bearerData = parameterData;
+                        env.bearerData = Arrays.copyOfRange(pdu, parameterOffset, pos);
                         break;
                     default:
                         throw new Exception("unsupported parameterId (" + parameterId + ")");
                 }
             }
-            bais.close();
-            dis.close();
         } catch (Exception ex) {
+            SmsCodecMetrics.countMalformed(SmsCodecMetrics.MALFORMED_ENVELOPE);
         }
 
         // link the filled objects to this SMS
@@ -245,6 +317,12 @@ public class SmsMessage {
         mPdu = pdu;
 
         parseSms();
+        SmsCodecMetrics.countTeleservice(env.teleService);
+        SmsCodecMetrics.recordLatency(SmsCodecMetrics.OP_PARSE_EF_RECORD, startNanos);
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
     }
 
     public void parseSms() {
@@ -261,7 +339,16 @@ public class SmsMessage {
             }
             return;
         }
-        mBearerData = BearerData.decode(mEnvelope.bearerData);
+        if (mEnvelope.messageType == SmsEnvelope.MESSAGE_TYPE_BROADCAST) {
+            // The service category tells CMAS alerts apart from other broadcasts.
+            mBearerData = BearerData.decode(mEnvelope.bearerData, mEnvelope.serviceCategory,
+                    mDecodeLimits);
+        } else {
+            mBearerData = BearerData.decode(mEnvelope.bearerData, 0, mDecodeLimits);
+        }
+        if (mBearerData == null) {
+            throw new RuntimeException("parseSms: bearer data decode failed");
+        }
         if (true) {
             Rlog.d(LOG_TAG, "MT raw BearerData = '");
             Rlog.d(LOG_TAG, "MT (decoded) BearerData = " + mBearerData);
@@ -284,8 +371,8 @@ public class SmsMessage {
             decodeSmsDisplayAddress(mRecipientAddress);
         }
 
-        if (mBearerData.msgCenterTimeStamp != null) {
-            mScTimeMillis = mBearerData.msgCenterTimeStamp.toMillis(true);
+        if (mBearerData.msgCenterTimeStamp != SmsTimeStamp.NONE) {
+            mScTimeMillis = SmsTimeStamp.toEpochMillis(mBearerData.msgCenterTimeStamp);
         }
 
         if (VDBG) Rlog.d(LOG_TAG, "SMS SC timestamp: " + mScTimeMillis);
@@ -326,12 +413,9 @@ public class SmsMessage {
     }
 
     private void decodeSmsDisplayAddress(SmsAddress addr) {
-        addr.address = new String(addr.origBytes);
-        if (addr.ton == CdmaSmsAddress.TON_INTERNATIONAL_OR_IP) {
-            if (addr.address.charAt(0) != '+') {
-                addr.address = "+" + addr.address;
-            }
-        }
+        // Addresses repeat across messages; share one String per originator.
+        addr.address = SmsAddressCache.getDefault().internAscii(addr.origBytes,
+                addr.ton == CdmaSmsAddress.TON_INTERNATIONAL_OR_IP);
         Rlog.pii(LOG_TAG, " decodeSmsDisplayAddress = " + addr.address);
     }
     protected void parseMessageBody() {
@@ -358,30 +442,7 @@ public class SmsMessage {
     }
 
     public static byte convertDtmfToAscii(byte dtmfDigit) {
-        byte asciiDigit;
-
-        switch (dtmfDigit) {
-            case  0: asciiDigit = 68; break; // 'D'
-            case  1: asciiDigit = 49; break; // '1'
-            case  2: asciiDigit = 50; break; // '2'
-            case  3: asciiDigit = 51; break; // '3'
-            case  4: asciiDigit = 52; break; // '4'
-            case  5: asciiDigit = 53; break; // '5'
-            case  6: asciiDigit = 54; break; // '6'
-            case  7: asciiDigit = 55; break; // '7'
-            case  8: asciiDigit = 56; break; // '8'
-            case  9: asciiDigit = 57; break; // '9'
-            case 10: asciiDigit = 48; break; // '0'
-            case 11: asciiDigit = 42; break; // '*'
-            case 12: asciiDigit = 35; break; // '#'
-            case 13: asciiDigit = 65; break; // 'A'
-            case 14: asciiDigit = 66; break; // 'B'
-            case 15: asciiDigit = 67; break; // 'C'
-            default:
-                asciiDigit = 32; // Invalid DTMF code
-                break;
-        }
-
-        return asciiDigit;
+        // Invalid DTMF codes convert to ' '
+        return DtmfCodec.toAscii(dtmfDigit);
     }
 }
@@ -0,0 +1,748 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Seeded generator of synthetic PDUs in the {@link SmsMessage#parsePdu(byte[])}
+ * layout, for benchmarks and soak tests.
+ *
+ * Generated messages are one of the KIND_* kinds:
+ * <ul>
+ * <li>KIND_TEXT: user data in any of the UserData.ENCODING_* text
+ *     encodings, including GSM DCS, with optional callback number, priority,
+ *     language, reply option and time stamp subparameters.  The KOREAN and
+ *     LATIN_HEBREW encodings are valid but not supported by the decoder.
+ * <li>KIND_CONCAT: text with an 8 or 16-bit concatenation header.
+ * <li>KIND_PORT: text with a 16-bit application port header.
+ * <li>KIND_CMAS: broadcast CMAS alert with text and type 1 records.
+ * <li>KIND_SCPT: SERVICE_CATEGORY_PROGRAM_DATA with a few categories.
+ * <li>KIND_IS91: IS-91 voicemail status, short message or CLI.
+ * </ul>
+ * A configurable fraction of the messages are malformed: truncated, with a
+ * subparameter length overrunning the bearer data, a duplicate or missing
+ * message identifier, or flipped bits.  Only the bearer data is damaged, so
+ * a stream of generated PDUs stays parseable by {@link SmsPduPushParser}.
+ *
+ * The bearer data is written bit by bit into a reusable scratch array and
+ * from there straight into the destination buffer; no objects are
+ * allocated per PDU.  The same seed and settings give the same PDUs.
+ * Not thread-safe; use one generator per thread.
+ */
+public class SmsPduGenerator {
+
+    public static final int KIND_TEXT   = 0;
+    public static final int KIND_CONCAT = 1;
+    public static final int KIND_PORT   = 2;
+    public static final int KIND_CMAS   = 3;
+    public static final int KIND_SCPT   = 4;
+    public static final int KIND_IS91   = 5;
+    public static final int KIND_COUNT  = 6;
+
+    /** Mask of all kinds, for {@link #setKinds(int)}. */
+    public static final int ALL_KINDS = (1 << KIND_COUNT) - 1;
+
+    /** Upper bound on the length of a generated PDU. */
+    public static final int MAX_PDU_LENGTH = 1024;
+
+    private static final int MAX_BEARER_DATA_LENGTH = 900;
+    private static final int MAX_TEXT_LENGTH = 512;
+
+    // Distinct originating addresses; real traffic repeats its senders.
+    private static final int ORIGINATOR_POOL_SIZE = 4096;
+
+    // Size of each mapping of a corpus file.
+    private static final int CORPUS_WINDOW = 64 << 20;
+
+    // Ways of damaging the bearer data.
+    private static final int MALFORMED_TRUNCATED       = 0;
+    private static final int MALFORMED_LENGTH_OVERRUN  = 1;
+    private static final int MALFORMED_DUPLICATE_ID    = 2;
+    private static final int MALFORMED_MISSING_ID      = 3;
+    private static final int MALFORMED_FLIPPED_BITS    = 4;
+    private static final int MALFORMED_COUNT           = 5;
+
+    // Text encodings of KIND_TEXT.
+    private static final int[] TEXT_ENCODINGS = {
+        UserData.ENCODING_OCTET, UserData.ENCODING_7BIT_ASCII, UserData.ENCODING_IA5,
+        UserData.ENCODING_UNICODE_16, UserData.ENCODING_SHIFT_JIS, UserData.ENCODING_KOREAN,
+        UserData.ENCODING_LATIN_HEBREW, UserData.ENCODING_LATIN,
+        UserData.ENCODING_GSM_7BIT_ALPHABET, UserData.ENCODING_GSM_DCS
+    };
+
+    // Encodings usable with a user data header, as for EMS.
+    private static final int[] HEADER_ENCODINGS = {
+        UserData.ENCODING_7BIT_ASCII, UserData.ENCODING_UNICODE_16,
+        UserData.ENCODING_GSM_7BIT_ALPHABET
+    };
+
+    // Text encoding to fill in for each GSM DCS character set; the 8-bit
+    // one is UTF-8, filled with plain characters.
+    private static final int[] GSM_DCS_TEXT_ENCODINGS = {
+        UserData.ENCODING_GSM_7BIT_ALPHABET, UserData.ENCODING_GSM_DCS,
+        UserData.ENCODING_UNICODE_16
+    };
+
+    private static final int[] CMAS_ENCODINGS = {
+        UserData.ENCODING_OCTET, UserData.ENCODING_LATIN, UserData.ENCODING_7BIT_ASCII,
+        UserData.ENCODING_IA5, UserData.ENCODING_UNICODE_16
+    };
+
+    private static final int[] SCP_ENCODINGS = {
+        UserData.ENCODING_7BIT_ASCII, UserData.ENCODING_LATIN, UserData.ENCODING_UNICODE_16
+    };
+
+    // Characters that are the same in ASCII, the 7-bit ASCII map and the GSM
+    // alphabet; 64 of them, so that 6 random bits pick one.
+    private static final byte[] PLAIN_CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789 .".getBytes();
+
+    // Characters of the IS-91 6-bit alphabet, as offsets from ' '.
+    private static final byte[] IS91_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ".getBytes();
+
+    private final long mSeed;
+    private long mState;
+    // Random bits left over for picking plain characters.
+    private long mCharBits;
+    private int mCharBitCount;
+    private final int[] mKinds = new int[KIND_COUNT];
+    private int mKindCount;
+    private int mMalformedThreshold;
+
+    // Bit writer target, either mText or mBearerData.
+    private byte[] mOut;
+    private int mOutBit;
+
+    private final byte[] mBearerData = new byte[MAX_BEARER_DATA_LENGTH];
+    private int mBearerDataLength;
+    private final byte[] mText = new byte[MAX_TEXT_LENGTH];
+    private int mTextBits;
+    private final int[] mSubparams = new int[16];
+    private int mSubparamCount;
+
+    // Envelope fields of the PDU being generated.
+    private int mMessageType;
+    private int mTeleService;
+    private int mServiceCategory;
+
+    private int mLastKind;
+    private boolean mLastMalformed;
+    private long mCount;
+
+    public SmsPduGenerator(long seed) {
+        mSeed = seed;
+        // Spread the seed over the state, which must not be zero.
+        mState = mix(seed) | 1;
+        setKinds(ALL_KINDS);
+    }
+
+    /**
+     * Generate only the given kinds, chosen with equal probability.
+     *
+     * @param kinds mask of 1 << KIND_* bits
+     */
+    public void setKinds(int kinds) {
+        if ((kinds & ALL_KINDS) == 0) throw new IllegalArgumentException("no kinds " + kinds);
+        mKindCount = 0;
+        for (int kind = 0; kind < KIND_COUNT; kind++) {
+            if ((kinds & (1 << kind)) != 0) mKinds[mKindCount++] = kind;
+        }
+    }
+
+    /**
+     * Set the fraction of malformed messages, 0 unless set.
+     */
+    public void setMalformedFraction(double fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("fraction " + fraction);
+        }
+        mMalformedThreshold = (int) (fraction * (1 << 24));
+    }
+
+    /** Kind of the last message generated. */
+    public int getLastKind() {
+        return mLastKind;
+    }
+
+    /** Returns true if the last message generated was malformed. */
+    public boolean wasLastMalformed() {
+        return mLastMalformed;
+    }
+
+    /** Number of messages generated since creation. */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Generate a PDU into a new array.
+     */
+    public byte[] next() {
+        ByteBuffer dst = ByteBuffer.allocate(MAX_PDU_LENGTH);
+        int length = next(dst);
+        return Arrays.copyOf(dst.array(), length);
+    }
+
+    /**
+     * Generate a PDU at the position of a buffer, and advance the position
+     * past it.
+     *
+     * @return the length of the PDU
+     * @throws BufferOverflowException if less than {@link #MAX_PDU_LENGTH}
+     *     bytes remain
+     */
+    public int next(ByteBuffer dst) {
+        if (dst.remaining() < MAX_PDU_LENGTH) throw new BufferOverflowException();
+        int kind = mKinds[nextInt(mKindCount)];
+        mMessageType = SmsEnvelope.MESSAGE_TYPE_POINT_TO_POINT;
+        mTeleService = SmsEnvelope.TELESERVICE_WMT;
+        mServiceCategory = 0;
+        int length = generateBearerData(kind);
+        mLastMalformed = nextInt(1 << 24) < mMalformedThreshold;
+        if (mLastMalformed) length = damage(length);
+        mBearerDataLength = Math.max(length, mOutBit >>> 3);
+        mLastKind = kind;
+        mCount++;
+
+        int start = dst.position();
+        ByteOrder order = dst.order();
+        dst.order(ByteOrder.BIG_ENDIAN);
+        dst.putInt(mMessageType);
+        dst.putInt(mTeleService);
+        dst.putInt(mServiceCategory);
+        putOriginator(dst);
+        dst.putInt(0);      // bearerReply
+        dst.put((byte) 0);  // replySeqNo
+        dst.put((byte) 0);  // errorClass
+        dst.put((byte) 0);  // causeCode
+        dst.putInt(length);
+        dst.put(mBearerData, 0, length);
+        dst.order(order);
+        return dst.position() - start;
+    }
+
+    /**
+     * Write generated PDUs back to back into a file, through memory
+     * mappings of it.  The file can be fed to an {@link SmsPduPushParser}.
+     *
+     * @return the length of the file
+     */
+    public long writeCorpus(File file, long count) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long position = 0;
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    CORPUS_WINDOW);
+            for (long i = 0; i < count; i++) {
+                if (window.remaining() < MAX_PDU_LENGTH) {
+                    position += window.position();
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                            CORPUS_WINDOW);
+                }
+                next(window);
+            }
+            position += window.position();
+            window = null;
+            channel.truncate(position);
+            return position;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private int generateBearerData(int kind) {
+        beginText();
+        switch (kind) {
+            case KIND_CONCAT:
+            case KIND_PORT: {
+                int offset = putHeader(kind);
+                int encoding = HEADER_ENCODINGS[nextInt(HEADER_ENCODINGS.length)];
+                int numFields = fillText(encoding, offset);
+                beginBearerData(true);
+                putUserData(encoding, 0, numFields);
+                break;
+            }
+            case KIND_CMAS: {
+                mMessageType = SmsEnvelope.MESSAGE_TYPE_BROADCAST;
+                mTeleService = SmsEnvelope.TELESERVICE_NOT_SET;
+                mServiceCategory = SmsEnvelope.SERVICE_CATEGORY_CMAS_PRESIDENTIAL_LEVEL_ALERT
+                        + nextInt(5);
+                fillCmas();
+                beginBearerData(false);
+                putUserData(UserData.ENCODING_OCTET, 0, mTextBits >>> 3);
+                break;
+            }
+            case KIND_SCPT:
+                mTeleService = SmsEnvelope.TELESERVICE_SCPT;
+                beginBearerData(false);
+                putProgramData();
+                break;
+            case KIND_IS91:
+                putIs91();
+                break;
+            default: {
+                int encoding = TEXT_ENCODINGS[nextInt(TEXT_ENCODINGS.length)];
+                int msgType = 0;
+                if (encoding == UserData.ENCODING_GSM_DCS) {
+                    // 7-bit, 8-bit or 16-bit character set, see decodeGsmDcs().
+                    msgType = nextInt(3) << 2;
+                }
+                int numFields = fillText(encoding == UserData.ENCODING_GSM_DCS
+                        ? GSM_DCS_TEXT_ENCODINGS[msgType >> 2] : encoding, 0);
+                beginBearerData(false);
+                putUserData(encoding, msgType, numFields);
+                putOptionalSubparams();
+                break;
+            }
+        }
+        return mOutBit >>> 3;
+    }
+
+    // Start the bearer data with its MESSAGE_IDENTIFIER.
+    private void beginBearerData(boolean hasUserDataHeader) {
+        Arrays.fill(mBearerData, 0, mBearerDataLength, (byte) 0);
+        mOut = mBearerData;
+        mOutBit = 0;
+        mSubparamCount = 0;
+        beginSubparam(BearerData.SUBPARAM_MESSAGE_IDENTIFIER, 3);
+        putBits(4, BearerData.MESSAGE_TYPE_DELIVER);
+        putBits(16, nextInt(1 << 16));
+        putBits(1, hasUserDataHeader ? 1 : 0);
+        putBits(3, 0);
+    }
+
+    private void beginSubparam(int id, int length) {
+        mSubparams[mSubparamCount++] = mOutBit >>> 3;
+        putBits(8, id);
+        putBits(8, length);
+    }
+
+    private void putUserData(int encoding, int msgType, int numFields) {
+        boolean hasMsgType = encoding == UserData.ENCODING_IS91_EXTENDED_PROTOCOL
+                || encoding == UserData.ENCODING_GSM_DCS;
+        int paramBits = 5 + (hasMsgType ? 8 : 0) + 8 + mTextBits;
+        beginSubparam(BearerData.SUBPARAM_USER_DATA, (paramBits + 7) >>> 3);
+        putBits(5, encoding);
+        if (hasMsgType) putBits(8, msgType);
+        putBits(8, numFields);
+        putTextBits();
+        alignOut();
+    }
+
+    private void putOptionalSubparams() {
+        int options = nextInt(1 << 5);
+        if ((options & 1) != 0) {
+            beginSubparam(BearerData.SUBPARAM_CALLBACK_NUMBER, 0);
+            int lengthByte = (mOutBit >>> 3) - 1;
+            int digits = 7 + nextInt(9);
+            if (nextInt(2) == 0) {
+                putBits(1, CdmaSmsAddress.DIGIT_MODE_4BIT_DTMF);
+                putBits(8, digits);
+                for (int i = 0; i < digits; i++) {
+                    // DTMF 1-9, and 10 for '0'.
+                    putBits(4, 1 + nextInt(10));
+                }
+            } else {
+                putBits(1, CdmaSmsAddress.DIGIT_MODE_8BIT_CHAR);
+                putBits(3, CdmaSmsAddress.TON_UNKNOWN);
+                putBits(4, CdmaSmsAddress.NUMBERING_PLAN_ISDN_TELEPHONY);
+                putBits(8, digits);
+                for (int i = 0; i < digits; i++) putBits(8, '0' + nextInt(10));
+            }
+            alignOut();
+            mOut[lengthByte] = (byte) ((mOutBit >>> 3) - lengthByte - 1);
+        }
+        if ((options & 2) != 0) {
+            beginSubparam(BearerData.SUBPARAM_PRIORITY_INDICATOR, 1);
+            putBits(2, nextInt(4));
+            putBits(6, 0);
+        }
+        if ((options & 4) != 0) {
+            beginSubparam(BearerData.SUBPARAM_LANGUAGE_INDICATOR, 1);
+            putBits(8, 1 + nextInt(7));
+        }
+        if ((options & 8) != 0) {
+            beginSubparam(BearerData.SUBPARAM_REPLY_OPTION, 1);
+            putBits(4, 1 + nextInt(15));
+            putBits(4, 0);
+        }
+        if ((options & 16) != 0) {
+            beginSubparam(BearerData.SUBPARAM_MESSAGE_CENTER_TIME_STAMP, 6);
+            long timeStamp = SmsTimeStamp.pack(2000 + nextInt(96), 1 + nextInt(12),
+                    1 + nextInt(28), nextInt(24), nextInt(60), nextInt(60));
+            SmsTimeStamp.encode(timeStamp, mOut, mOutBit >>> 3);
+            mOutBit += 6 * 8;
+        }
+    }
+
+    private void putProgramData() {
+        int encoding = SCP_ENCODINGS[nextInt(SCP_ENCODINGS.length)];
+        beginSubparam(BearerData.SUBPARAM_SERVICE_CATEGORY_PROGRAM_DATA, 0);
+        int lengthByte = (mOutBit >>> 3) - 1;
+        putBits(5, encoding);
+        for (int records = 1 + nextInt(4); records > 0; records--) {
+            putBits(4, nextInt(3));                 // operation
+            putBits(16, 1 + nextInt(0x20));         // category
+            putBits(8, 1 + nextInt(7));             // language
+            putBits(8, nextInt(256));               // maxMessages
+            putBits(4, nextInt(12));                // alertOption
+            int chars = 1 + nextInt(20);
+            putBits(8, chars);
+            for (int i = 0; i < chars; i++) {
+                switch (encoding) {
+                    case UserData.ENCODING_7BIT_ASCII:
+                        putBits(7, plainChar());
+                        break;
+                    case UserData.ENCODING_LATIN:
+                        putBits(8, latinChar(0xC0, 0x40));
+                        break;
+                    default:
+                        putBits(16, unicodeChar());
+                        break;
+                }
+            }
+        }
+        alignOut();
+        mOut[lengthByte] = (byte) ((mOutBit >>> 3) - lengthByte - 1);
+    }
+
+    private void putIs91() {
+        int msgType;
+        int numFields;
+        switch (nextInt(3)) {
+            case 0:
+                // Two digit message count, priority, text; 6 to 13 characters.
+                mTeleService = SmsEnvelope.TELESERVICE_VMN;
+                msgType = UserData.IS91_MSG_TYPE_VOICEMAIL_STATUS;
+                numFields = 6 + nextInt(8);
+                putBits(6, '0' + nextInt(10) - ' ');
+                putBits(6, '0' + nextInt(10) - ' ');
+                putBits(6, (nextInt(2) == 0 ? ' ' : '!') - ' ');
+                for (int i = 3; i < numFields; i++) putBits(6, is91Char());
+                break;
+            case 1:
+                msgType = nextInt(2) == 0 ? UserData.IS91_MSG_TYPE_SHORT_MESSAGE
+                        : UserData.IS91_MSG_TYPE_SHORT_MESSAGE_FULL;
+                numFields = 1 + nextInt(14);
+                for (int i = 0; i < numFields; i++) putBits(6, is91Char());
+                break;
+            default:
+                // Callback number of 3 to 12 DTMF digits.
+                msgType = UserData.IS91_MSG_TYPE_CLI;
+                numFields = 3 + nextInt(10);
+                for (int i = 0; i < numFields; i++) putBits(4, 1 + nextInt(10));
+                break;
+        }
+        mTextBits = mOutBit;
+        beginBearerData(false);
+        putUserData(UserData.ENCODING_IS91_EXTENDED_PROTOCOL, msgType, numFields);
+    }
+
+    // Write a user data header into the text, returning its length with the length byte.
+    private int putHeader(int kind) {
+        int length;
+        if (kind == KIND_PORT) {
+            length = 6;
+            int port = 2948 + nextInt(4);
+            putBits(8, length - 1);
+            putBits(8, SmsHeader.ELT_ID_APPLICATION_PORT_ADDRESSING_16_BIT);
+            putBits(8, 4);
+            putBits(16, port);
+            putBits(16, port);
+        } else {
+            int total = 2 + nextInt(7);
+            int seq = 1 + nextInt(total);
+            if (nextInt(2) == 0) {
+                length = 6;
+                putBits(8, length - 1);
+                putBits(8, SmsHeader.ELT_ID_CONCATENATED_8_BIT_REFERENCE);
+                putBits(8, 3);
+                putBits(8, nextInt(256));
+            } else {
+                length = 7;
+                putBits(8, length - 1);
+                putBits(8, SmsHeader.ELT_ID_CONCATENATED_16_BIT_REFERENCE);
+                putBits(8, 4);
+                putBits(16, nextInt(1 << 16));
+            }
+            putBits(8, total);
+            putBits(8, seq);
+        }
+        return length;
+    }
+
+    /**
+     * Fill the text after a header of offset bytes with characters in an
+     * encoding, as the decoder expects them.
+     *
+     * @return the numFields value of the user data
+     */
+    private int fillText(int encoding, int offset) {
+        mOutBit = offset * 8;
+        switch (encoding) {
+            case UserData.ENCODING_7BIT_ASCII:
+            case UserData.ENCODING_IA5: {
+                // Septets start at the first septet boundary after the header.
+                int offsetSeptets = (offset * 8 + 6) / 7;
+                int chars = 1 + nextInt(SmsConstants.MAX_USER_DATA_SEPTETS_WITH_HEADER
+                        - offsetSeptets);
+                mOutBit = offsetSeptets * 7;
+                for (int i = 0; i < chars; i++) putBits(7, plainChar());
+                mTextBits = mOutBit;
+                return offsetSeptets + chars;
+            }
+            case UserData.ENCODING_GSM_7BIT_ALPHABET: {
+                int offsetSeptets = (offset * 8 + 6) / 7;
+                int chars = 1 + nextInt(SmsConstants.MAX_USER_DATA_SEPTETS_WITH_HEADER
+                        - offsetSeptets);
+                // GSM packing fills each octet from its least significant bit.
+                int bit = offsetSeptets * 7;
+                for (int i = 0; i < chars; i++, bit += 7) {
+                    int c = plainChar();
+                    int shift = bit & 7;
+                    mText[bit >>> 3] |= (byte) (c << shift);
+                    if (shift > 1) mText[(bit >>> 3) + 1] |= (byte) (c >>> (8 - shift));
+                }
+                mTextBits = (bit + 7) & ~7;
+                return offsetSeptets + chars;
+            }
+            case UserData.ENCODING_UNICODE_16: {
+                int padding = offset & 1;
+                int chars = 1 + nextInt((SmsConstants.MAX_USER_DATA_BYTES_WITH_HEADER
+                        - offset - padding) / 2);
+                mOutBit = (offset + padding) * 8;
+                for (int i = 0; i < chars; i++) putBits(16, unicodeChar());
+                mTextBits = mOutBit;
+                return (offset + padding) / 2 + chars;
+            }
+            case UserData.ENCODING_KOREAN: {
+                // KS X 1001 Hangul, two bytes per character.
+                int chars = 1 + nextInt(SmsConstants.MAX_USER_DATA_BYTES / 2);
+                for (int i = 0; i < chars; i++) {
+                    putBits(8, 0xB0 + nextInt(0x17));
+                    putBits(8, 0xA1 + nextInt(0x5E));
+                }
+                mTextBits = mOutBit;
+                return chars * 2;
+            }
+            default: {
+                int chars = 1 + nextInt(SmsConstants.MAX_USER_DATA_BYTES);
+                for (int i = 0; i < chars; i++) {
+                    int c;
+                    switch (encoding) {
+                        case UserData.ENCODING_OCTET:
+                            c = nextInt(256);
+                            break;
+                        case UserData.ENCODING_GSM_DCS:
+                            c = plainChar();
+                            break;
+                        case UserData.ENCODING_SHIFT_JIS:
+                            c = latinChar(0xA1, 0x3F);      // half-width katakana
+                            break;
+                        case UserData.ENCODING_LATIN_HEBREW:
+                            c = latinChar(0xE0, 0x1B);
+                            break;
+                        default:
+                            c = latinChar(0xC0, 0x40);
+                            break;
+                    }
+                    putBits(8, c);
+                }
+                mTextBits = mOutBit;
+                return chars;
+            }
+        }
+    }
+
+    // CMAS user data: protocol version, a type 0 text record and a type 1 record.
+    private void fillCmas() {
+        putBits(8, 0);
+        int encoding = CMAS_ENCODINGS[nextInt(CMAS_ENCODINGS.length)];
+        boolean septets = encoding == UserData.ENCODING_7BIT_ASCII
+                || encoding == UserData.ENCODING_IA5;
+        int chars = 1 + nextInt(encoding == UserData.ENCODING_UNICODE_16 ? 60 : 100);
+        int charBits = septets ? 7 : encoding == UserData.ENCODING_UNICODE_16 ? 16 : 8;
+        int recordLength = (5 + chars * charBits + 7) >>> 3;
+        if (septets && recordLength * 8 - 5 - chars * 7 == 7) {
+            // The decoder counts septets from the record length; fill the spare one.
+            chars++;
+        }
+        putBits(8, 0);
+        putBits(8, recordLength);
+        putBits(5, encoding);
+        for (int i = 0; i < chars; i++) {
+            if (septets) {
+                putBits(7, plainChar());
+            } else if (charBits == 16) {
+                putBits(16, unicodeChar());
+            } else {
+                putBits(8, latinChar(0xC0, 0x40));
+            }
+        }
+        alignOut();
+        putBits(8, 1);
+        putBits(8, 4);
+        putBits(8, nextInt(10));    // category
+        putBits(8, nextInt(9));     // response type
+        putBits(4, nextInt(3));     // severity
+        putBits(4, nextInt(3));     // urgency
+        putBits(4, nextInt(3));     // certainty
+        putBits(4, 0);
+        mTextBits = mOutBit;
+    }
+
+    /**
+     * Damage the bearer data of the given length.
+     *
+     * @return the new length
+     */
+    private int damage(int length) {
+        byte[] data = mBearerData;
+        switch (nextInt(MALFORMED_COUNT)) {
+            case MALFORMED_TRUNCATED:
+                return 1 + nextInt(length - 1);
+            case MALFORMED_LENGTH_OVERRUN: {
+                int subparam = mSubparams[nextInt(mSubparamCount)];
+                data[subparam + 1] = (byte) Math.min(length - subparam + nextInt(64), 0xFF);
+                return length;
+            }
+            case MALFORMED_DUPLICATE_ID:
+                // The MESSAGE_IDENTIFIER comes first, and is 5 bytes.
+                System.arraycopy(data, 0, data, length, 5);
+                return length + 5;
+            case MALFORMED_MISSING_ID:
+                System.arraycopy(data, 5, data, 0, length - 5);
+                return length - 5;
+            default:
+                for (int flips = 1 + nextInt(4); flips > 0; flips--) {
+                    data[nextInt(length)] ^= (byte) (1 << nextInt(8));
+                }
+                return length;
+        }
+    }
+
+    private void putOriginator(ByteBuffer dst) {
+        int index = nextInt(ORIGINATOR_POOL_SIZE);
+        long digits = mix(mSeed + index) & Long.MAX_VALUE;
+        boolean international = (index & 3) == 0;
+        int count = international ? 11 : 10;
+        dst.put((byte) CdmaSmsAddress.DIGIT_MODE_8BIT_CHAR);
+        dst.put((byte) CdmaSmsAddress.NUMBER_MODE_NOT_DATA_NETWORK);
+        dst.put((byte) (international ? CdmaSmsAddress.TON_INTERNATIONAL_OR_IP
+                : CdmaSmsAddress.TON_UNKNOWN));
+        dst.put((byte) CdmaSmsAddress.NUMBERING_PLAN_ISDN_TELEPHONY);
+        dst.put((byte) count);
+        // No leading zero.
+        dst.put((byte) ('1' + digits % 9));
+        for (int i = 1; i < count; i++) {
+            digits /= 10;
+            dst.put((byte) ('0' + digits % 10));
+        }
+    }
+
+    private void beginText() {
+        Arrays.fill(mText, 0, (mTextBits + 7) >>> 3, (byte) 0);
+        mOut = mText;
+        mOutBit = 0;
+        mTextBits = 0;
+    }
+
+    // Append the text bits to the output, which is not byte aligned.  The
+    // text is zero past its end.
+    private void putTextBits() {
+        byte[] out = mOut;
+        int pos = mOutBit;
+        int shift = pos & 7;
+        int j = pos >>> 3;
+        int bytes = (mTextBits + 7) >>> 3;
+        for (int i = 0; i < bytes; i++, j++) {
+            int b = mText[i] & 0xFF;
+            out[j] |= (byte) (b >>> shift);
+            out[j + 1] = (byte) (b << (8 - shift));
+        }
+        mOutBit = pos + mTextBits;
+    }
+
+    // Write up to 24 bits MSB first; the output must be zeroed ahead of the position.
+    private void putBits(int bits, int value) {
+        byte[] out = mOut;
+        int pos = mOutBit;
+        mOutBit = pos + bits;
+        int end = (pos & 7) + bits;
+        // The value placed in a 32-bit window starting at the current byte.
+        int window = (value & ((1 << bits) - 1)) << (32 - end);
+        int i = pos >>> 3;
+        out[i] |= (byte) (window >>> 24);
+        if (end > 8) {
+            out[i + 1] = (byte) (window >>> 16);
+            if (end > 16) {
+                out[i + 2] = (byte) (window >>> 8);
+                if (end > 24) out[i + 3] = (byte) window;
+            }
+        }
+    }
+
+    private void alignOut() {
+        mOutBit = (mOutBit + 7) & ~7;
+    }
+
+    private int plainChar() {
+        if (mCharBitCount < 6) {
+            mCharBits = nextLong();
+            mCharBitCount = 64;
+        }
+        int c = PLAIN_CHARS[(int) mCharBits & 0x3F];
+        mCharBits >>>= 6;
+        mCharBitCount -= 6;
+        return c;
+    }
+
+    private int is91Char() {
+        return IS91_CHARS[nextInt(IS91_CHARS.length)] - ' ';
+    }
+
+    // A plain character, or one of count characters from first, half the time each.
+    private int latinChar(int first, int count) {
+        return nextInt(2) == 0 ? plainChar() : first + nextInt(count);
+    }
+
+    // A plain character, or a Greek, Cyrillic or CJK one.
+    private int unicodeChar() {
+        switch (nextInt(4)) {
+            case 0: return 0x0391 + nextInt(0x19);
+            case 1: return 0x0410 + nextInt(0x40);
+            case 2: return 0x4E00 + nextInt(0x1000);
+            default: return plainChar();
+        }
+    }
+
+    // xorshift64*
+    private long nextLong() {
+        long x = mState;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        mState = x;
+        return x * 0x2545F4914F6CDD1DL;
+    }
+
+    // Uniform in [0, bound), by multiplying out the high bits.
+    private int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    // splitmix64 finalizer.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,261 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Incremental parser for a stream of PDUs laid out as for
+ * {@link SmsMessage#parsePdu(byte[])}, fed in chunks split at arbitrary
+ * boundaries, e.g. as read from a socket.
+ *
+ * The parser keeps its position within the envelope fields across calls
+ * to {@link #feed(ByteBuffer)}.  Integer fields are accumulated a byte at a
+ * time, and address digits and bearer data are read straight from the
+ * chunks into the arrays of the envelope, so no byte is copied more than
+ * once and consumed chunks need not be kept.  Each completed envelope is
+ * parsed into an SmsMessage and handed to the {@link Listener}.
+ *
+ * A parser is not thread-safe.  After a framing error the stream can no
+ * longer be followed, and the parser must be {@link #reset()}.
+ */
+public class SmsPduPushParser {
+
+    public static final int DEFAULT_MAX_BEARER_DATA_LENGTH = 64 * 1024;
+
+    /**
+     * Receives the messages parsed from the stream, on the thread calling
+     * {@link #feed(ByteBuffer)}.
+     */
+    public interface Listener {
+        void onMessage(SmsMessage message);
+
+        /**
+         * The envelope was read, but its bearer data could not be decoded.
+         * Parsing continues with the next PDU.
+         */
+        void onMessageFailed(SmsEnvelope env, RuntimeException ex);
+    }
+
+    // Parser states, in PDU order.
+    private static final int STATE_MESSAGE_TYPE       = 0;
+    private static final int STATE_TELESERVICE        = 1;
+    private static final int STATE_SERVICE_CATEGORY   = 2;
+    private static final int STATE_ADDRESS_HEADER     = 3;
+    private static final int STATE_NUMBER_OF_DIGITS   = 4;
+    private static final int STATE_DIGITS             = 5;
+    private static final int STATE_BEARER_REPLY       = 6;
+    private static final int STATE_CAUSE_CODES        = 7;
+    private static final int STATE_BEARER_DATA_LENGTH = 8;
+    private static final int STATE_BEARER_DATA        = 9;
+    private static final int STATE_FAILED             = 10;
+
+    private final Listener mListener;
+    private final int mMaxBearerDataLength;
+    private DecodeLimits mDecodeLimits = DecodeLimits.UNLIMITED;
+
+    private int mState;
+    // Bytes of the current field read so far, and their value.
+    private int mFieldPos;
+    private int mValue;
+
+    private SmsEnvelope mEnv;
+    private CdmaSmsAddress mAddr;
+
+    private long mMessageCount;
+    private long mByteCount;
+
+    public SmsPduPushParser(Listener listener) {
+        this(listener, DEFAULT_MAX_BEARER_DATA_LENGTH);
+    }
+
+    /**
+     * @param maxBearerDataLength largest bearer data accepted; a PDU
+     *     claiming more is taken as a framing error
+     */
+    public SmsPduPushParser(Listener listener, int maxBearerDataLength) {
+        mListener = listener;
+        mMaxBearerDataLength = maxBearerDataLength;
+        reset();
+    }
+
+    /**
+     * Set the limits for decoding the bearer data of the messages parsed.
+     */
+    public void setDecodeLimits(DecodeLimits limits) {
+        mDecodeLimits = limits;
+    }
+
+    /**
+     * Drop any partially read PDU, and expect the next byte to start one.
+     */
+    public void reset() {
+        mState = STATE_MESSAGE_TYPE;
+        mFieldPos = 0;
+        mValue = 0;
+        mEnv = new SmsEnvelope();
+        mAddr = new CdmaSmsAddress();
+    }
+
+    /** Returns true if the parser is between PDUs. */
+    public boolean isIdle() {
+        return mState == STATE_MESSAGE_TYPE && mFieldPos == 0;
+    }
+
+    /** Number of PDUs completed since creation. */
+    public long getMessageCount() {
+        return mMessageCount;
+    }
+
+    /** Number of bytes consumed since creation. */
+    public long getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * Consume all remaining bytes of a chunk, advancing its position, and
+     * deliver the messages completed by it.
+     *
+     * @throws RuntimeException on a framing error, after which the parser
+     *     must be reset
+     */
+    public void feed(ByteBuffer chunk) {
+        if (mState == STATE_FAILED) {
+            throw new IllegalStateException("feed after framing error, reset first");
+        }
+        mByteCount += chunk.remaining();
+        while (chunk.hasRemaining()) {
+            switch (mState) {
+                case STATE_MESSAGE_TYPE:
+                    if (readInt(chunk)) {
+                        mEnv.messageType = takeValue();
+                        mState = STATE_TELESERVICE;
+                    }
+                    break;
+                case STATE_TELESERVICE:
+                    if (readInt(chunk)) {
+                        mEnv.teleService = takeValue();
+                        mState = STATE_SERVICE_CATEGORY;
+                    }
+                    break;
+                case STATE_SERVICE_CATEGORY:
+                    if (readInt(chunk)) {
+                        mEnv.serviceCategory = takeValue();
+                        mState = STATE_ADDRESS_HEADER;
+                    }
+                    break;
+                case STATE_ADDRESS_HEADER: {
+                    byte b = chunk.get();
+                    switch (mFieldPos++) {
+                        case 0: mAddr.digitMode = b; break;
+                        case 1: mAddr.numberMode = b; break;
+                        case 2: mAddr.ton = b; break;
+                        default:
+                            mAddr.numberPlan = b;
+                            mFieldPos = 0;
+                            mState = STATE_NUMBER_OF_DIGITS;
+                            break;
+                    }
+                    break;
+                }
+                case STATE_NUMBER_OF_DIGITS:
+                    mAddr.numberOfDigits = chunk.get() & 0xFF;
+                    mAddr.origBytes = new byte[mAddr.numberOfDigits];
+                    mState = STATE_DIGITS;
+                    break;
+                case STATE_DIGITS:
+                    if (readBytes(chunk, mAddr.origBytes)) mState = STATE_BEARER_REPLY;
+                    break;
+                case STATE_BEARER_REPLY:
+                    if (readInt(chunk)) {
+                        mEnv.bearerReply = takeValue();
+                        mState = STATE_CAUSE_CODES;
+                    }
+                    break;
+                case STATE_CAUSE_CODES: {
+                    byte b = chunk.get();
+                    switch (mFieldPos++) {
+                        case 0: mEnv.replySeqNo = b; break;
+                        case 1: mEnv.errorClass = b; break;
+                        default:
+                            mEnv.causeCode = b;
+                            mFieldPos = 0;
+                            mState = STATE_BEARER_DATA_LENGTH;
+                            break;
+                    }
+                    break;
+                }
+                case STATE_BEARER_DATA_LENGTH:
+                    if (readInt(chunk)) {
+                        int length = takeValue();
+                        if (length < 0 || length > mMaxBearerDataLength) {
+                            mState = STATE_FAILED;
+                            SmsCodecMetrics.countMalformed(SmsCodecMetrics.MALFORMED_ENVELOPE);
+                            throw new RuntimeException("SmsPduPushParser: invalid pdu, "
+                                    + "bearerDataLength " + length);
+                        }
+                        mEnv.bearerData = new byte[length];
+                        mState = STATE_BEARER_DATA;
+                    }
+                    break;
+                case STATE_BEARER_DATA:
+                    if (readBytes(chunk, mEnv.bearerData)) completeMessage();
+                    break;
+            }
+        }
+        // A PDU may end exactly at the end of the chunk, with no bearer data.
+        if (mState == STATE_BEARER_DATA && mEnv.bearerData.length == 0) completeMessage();
+    }
+
+    // Accumulate the bytes of a big endian int, returning true when complete.
+    private boolean readInt(ByteBuffer chunk) {
+        if (mFieldPos == 0 && chunk.remaining() >= 4) {
+            int value = chunk.getInt();
+            // The PDU is big endian whatever the order of the caller's buffer.
+            mValue = chunk.order() == ByteOrder.BIG_ENDIAN ? value : Integer.reverseBytes(value);
+            return true;
+        }
+        while (chunk.hasRemaining()) {
+            mValue = (mValue << 8) | (chunk.get() & 0xFF);
+            if (++mFieldPos == 4) return true;
+        }
+        return false;
+    }
+
+    private int takeValue() {
+        int value = mValue;
+        mValue = 0;
+        mFieldPos = 0;
+        return value;
+    }
+
+    // Fill an array from the chunk, returning true when it is full.
+    private boolean readBytes(ByteBuffer chunk, byte[] dst) {
+        int count = Math.min(dst.length - mFieldPos, chunk.remaining());
+        chunk.get(dst, mFieldPos, count);
+        mFieldPos += count;
+        if (mFieldPos < dst.length) return false;
+        mFieldPos = 0;
+        return true;
+    }
+
+    private void completeMessage() {
+        SmsEnvelope env = mEnv;
+        env.origAddress = mAddr;
+        // As for parsePdu(), the subaddress is not part of the PDU.
+        env.origSubaddress = new CdmaSmsSubaddress();
+        mEnv = new SmsEnvelope();
+        mAddr = new CdmaSmsAddress();
+        mState = STATE_MESSAGE_TYPE;
+        mMessageCount++;
+
+        SmsMessage message = new SmsMessage();
+        message.setDecodeLimits(mDecodeLimits);
+        try {
+            message.parseEnvelope(env);
+        } catch (RuntimeException ex) {
+            mListener.onMessageFailed(env, ex);
+            return;
+        }
+        mListener.onMessage(message);
+    }
+}
@@ -0,0 +1,230 @@
+package com.quectel.jnitestexec.cdma2;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneRules;
+import java.util.List;
+
+/**
+ * CDMA SMS time stamps packed in a long.
+ * (See 3GPP2 C.S0015-B, v2, 4.5.4)
+ *
+ * The six BCD bytes of a time stamp are decoded straight into the fields
+ * of a packed value, so decoding allocates nothing.  Time stamps are in
+ * local time; conversion to epoch millis uses the zone rules set with
+ * {@link #setZone(ZoneId)}, the system default zone when the class was
+ * loaded otherwise, and caches the offset of the last day converted.
+ * java.time objects are only created on request.
+ *
+ * Layout, from the lsb: second (6 bits), minute (6), hour (5), day of
+ * month (5), month 1-12 (4), year (12).
+ */
+public final class SmsTimeStamp {
+
+    /** No time stamp, or an invalid one. */
+    public static final long NONE = -1L;
+
+    private static final int SECOND_SHIFT = 0;
+    private static final int MINUTE_SHIFT = 6;
+    private static final int HOUR_SHIFT   = 12;
+    private static final int DAY_SHIFT    = 17;
+    private static final int MONTH_SHIFT  = 22;
+    private static final int YEAR_SHIFT   = 26;
+
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    /**
+     * Offset of a zone on one local day with no transition in it.
+     */
+    private static final class DayOffset {
+        final ZoneRules rules;
+        final long epochDay;
+        final int offsetSeconds;
+
+        DayOffset(ZoneRules rules, long epochDay, int offsetSeconds) {
+            this.rules = rules;
+            this.epochDay = epochDay;
+            this.offsetSeconds = offsetSeconds;
+        }
+    }
+
+    private static volatile ZoneRules sRules = ZoneId.systemDefault().getRules();
+    private static volatile DayOffset sDayOffset;
+
+    private SmsTimeStamp() {
+    }
+
+    /**
+     * Set the zone used to convert time stamps to epoch millis, e.g. when
+     * the system time zone changes.
+     */
+    public static void setZone(ZoneId zone) {
+        sRules = zone.getRules();
+    }
+
+    /**
+     * Pack time stamp fields, without validating them.
+     *
+     * @param month 1-12
+     */
+    public static long pack(int year, int month, int day, int hour, int minute, int second) {
+        return ((long) year << YEAR_SHIFT) | ((long) month << MONTH_SHIFT)
+                | ((long) day << DAY_SHIFT) | ((long) hour << HOUR_SHIFT)
+                | ((long) minute << MINUTE_SHIFT) | ((long) second << SECOND_SHIFT);
+    }
+
+    /**
+     * Decode the 6 BCD bytes of a time stamp.
+     *
+     * @return the packed time stamp, or {@link #NONE} if a field is out of range
+     */
+    public static long decode(byte[] data, int offset) {
+        return fromCdmaFields(BcdCodec.cdmaByteToInt(data[offset]),
+                BcdCodec.cdmaByteToInt(data[offset + 1]),
+                BcdCodec.cdmaByteToInt(data[offset + 2]),
+                BcdCodec.cdmaByteToInt(data[offset + 3]),
+                BcdCodec.cdmaByteToInt(data[offset + 4]),
+                BcdCodec.cdmaByteToInt(data[offset + 5]));
+    }
+
+    /**
+     * Validate and pack the decoded fields of a time stamp.
+     *
+     * @param year two digit year
+     * @return the packed time stamp, or {@link #NONE} if a field is out of range
+     */
+    public static long fromCdmaFields(int year, int month, int day, int hour, int minute,
+            int second) {
+        // C.S0015-B v2.0, 4.5.4: range is 1996-2095
+        if (year > 99 || year < 0) return NONE;
+        if (month < 1 || month > 12) return NONE;
+        if (day < 1 || day > 31) return NONE;
+        if (hour < 0 || hour > 23) return NONE;
+        if (minute < 0 || minute > 59) return NONE;
+        if (second < 0 || second > 59) return NONE;
+        return pack(year >= 96 ? year + 1900 : year + 2000, month, day, hour, minute, second);
+    }
+
+    /**
+     * Encode a time stamp as 6 BCD bytes.
+     */
+    public static void encode(long timeStamp, byte[] dst, int offset) {
+        dst[offset] = BcdCodec.intToCdmaByte(getYear(timeStamp) % 100);
+        dst[offset + 1] = BcdCodec.intToCdmaByte(getMonth(timeStamp));
+        dst[offset + 2] = BcdCodec.intToCdmaByte(getDay(timeStamp));
+        dst[offset + 3] = BcdCodec.intToCdmaByte(getHour(timeStamp));
+        dst[offset + 4] = BcdCodec.intToCdmaByte(getMinute(timeStamp));
+        dst[offset + 5] = BcdCodec.intToCdmaByte(getSecond(timeStamp));
+    }
+
+    public static int getYear(long timeStamp) {
+        return (int) (timeStamp >>> YEAR_SHIFT) & 0xFFF;
+    }
+
+    /** Returns the month, 1-12. */
+    public static int getMonth(long timeStamp) {
+        return (int) (timeStamp >>> MONTH_SHIFT) & 0x0F;
+    }
+
+    public static int getDay(long timeStamp) {
+        return (int) (timeStamp >>> DAY_SHIFT) & 0x1F;
+    }
+
+    public static int getHour(long timeStamp) {
+        return (int) (timeStamp >>> HOUR_SHIFT) & 0x1F;
+    }
+
+    public static int getMinute(long timeStamp) {
+        return (int) (timeStamp >>> MINUTE_SHIFT) & 0x3F;
+    }
+
+    public static int getSecond(long timeStamp) {
+        return (int) (timeStamp >>> SECOND_SHIFT) & 0x3F;
+    }
+
+    /**
+     * Convert a time stamp to milliseconds since the epoch, in the zone set
+     * with {@link #setZone(ZoneId)}.  Local times skipped by a daylight
+     * saving transition are moved forward, repeated ones take the earlier
+     * offset.
+     */
+    public static long toEpochMillis(long timeStamp) {
+        long epochDay = toEpochDay(getYear(timeStamp), getMonth(timeStamp), getDay(timeStamp));
+        long localSeconds = epochDay * SECONDS_PER_DAY + getHour(timeStamp) * 3600
+                + getMinute(timeStamp) * 60 + getSecond(timeStamp);
+        ZoneRules rules = sRules;
+        DayOffset dayOffset = sDayOffset;
+        if (dayOffset != null && dayOffset.rules == rules && dayOffset.epochDay == epochDay) {
+            return (localSeconds - dayOffset.offsetSeconds) * 1000;
+        }
+        int startOffset = offsetAt(rules, epochDay * SECONDS_PER_DAY);
+        int endOffset = offsetAt(rules, (epochDay + 1) * SECONDS_PER_DAY - 1);
+        if (startOffset == endOffset) {
+            sDayOffset = new DayOffset(rules, epochDay, startOffset);
+            return (localSeconds - startOffset) * 1000;
+        }
+        // The offset changes during this day; resolve the exact local time.
+        LocalDateTime local = LocalDateTime.ofEpochSecond(localSeconds, 0, ZoneOffset.UTC);
+        List<ZoneOffset> validOffsets = rules.getValidOffsets(local);
+        int offset = validOffsets.isEmpty()
+                ? rules.getTransition(local).getOffsetBefore().getTotalSeconds()
+                : validOffsets.get(0).getTotalSeconds();
+        return (localSeconds - offset) * 1000;
+    }
+
+    private static int offsetAt(ZoneRules rules, long localSeconds) {
+        return rules.getOffset(LocalDateTime.ofEpochSecond(localSeconds, 0, ZoneOffset.UTC))
+                .getTotalSeconds();
+    }
+
+    // Days since 1970-01-01 of a proleptic Gregorian date.
+    private static long toEpochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the local date and time of a time stamp.  Like
+     * {@link #toEpochMillis}, days past the end of the month roll over into
+     * the next one, since {@link #fromCdmaFields} accepts days 1-31 for
+     * any month.
+     */
+    public static LocalDateTime toLocalDateTime(long timeStamp) {
+        LocalDate date = LocalDate.ofEpochDay(
+                toEpochDay(getYear(timeStamp), getMonth(timeStamp), getDay(timeStamp)));
+        return LocalDateTime.of(date,
+                LocalTime.of(getHour(timeStamp), getMinute(timeStamp), getSecond(timeStamp)));
+    }
+
+    /**
+     * Returns the instant of a time stamp in the zone set with
+     * {@link #setZone(ZoneId)}.
+     */
+    public static Instant toInstant(long timeStamp) {
+        return Instant.ofEpochMilli(toEpochMillis(timeStamp));
+    }
+
+    public static ZonedDateTime toZonedDateTime(long timeStamp, ZoneId zone) {
+        return ZonedDateTime.of(toLocalDateTime(timeStamp), zone);
+    }
+
+    /**
+     * Returns the time stamp as "yyyy-MM-dd HH:mm:ss", or "unset" for
+     * {@link #NONE}.
+     */
+    public static String toString(long timeStamp) {
+        if (timeStamp == NONE) return "unset";
+        return String.format("%04d-%02d-%02d %02d:%02d:%02d", getYear(timeStamp),
+                getMonth(timeStamp), getDay(timeStamp), getHour(timeStamp),
+                getMinute(timeStamp), getSecond(timeStamp));
+    }
+}
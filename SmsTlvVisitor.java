@@ -0,0 +1,265 @@
+package com.quectel.jnitestexec.cdma2;
+
+/**
+ * Receives the fields of a CDMA SMS transport layer message and of its
+ * bearer data as {@link SmsTlvWalker} comes across them, without any
+ * intermediate objects being built.
+ *
+ * Variable length fields are passed as a region of the walked array.
+ * Fields that are not byte aligned on the wire are passed as a bit offset
+ * from the msb of byte 0 of that array, and can be read with
+ * {@link SmsTlvWalker#readBits(byte[], int, int)}.  The array must not be
+ * kept after the callback returns, and must not be modified.
+ *
+ * Every callback returns true to continue the walk, or false to stop it.
+ */
+public interface SmsTlvVisitor {
+
+    /*
+     * Transport layer parameters, as laid out for
+     * SmsMessage.parsePduFromEfRecord (See 3GPP2 C.S0015-B, v2, 3.4)
+     */
+
+    boolean onMessageType(int messageType);
+
+    boolean onTeleservice(int teleService);
+
+    boolean onServiceCategory(int serviceCategory);
+
+    /**
+     * Originating or destination address.
+     *
+     * @param digitsBitOffset position of the first digit, each digit being 4
+     *     bits for {@link CdmaSmsAddress#DIGIT_MODE_4BIT_DTMF} and 8 bits otherwise
+     */
+    boolean onAddress(boolean isDestination, int digitMode, int numberMode, int ton,
+            int numberPlan, int numberOfDigits, byte[] data, int digitsBitOffset);
+
+    /**
+     * Originating or destination subaddress.
+     *
+     * @param digitsBitOffset position of the first 4-bit digit
+     */
+    boolean onSubaddress(boolean isDestination, int type, int odd, int numberOfDigits,
+            byte[] data, int digitsBitOffset);
+
+    boolean onBearerReply(int replySeqNo);
+
+    boolean onCauseCodes(int replySeqNo, int errorClass, int causeCode);
+
+    /**
+     * Encoded bearer data.  Pass the region to
+     * {@link SmsTlvWalker#walkBearerData} to visit its subparameters.
+     */
+    boolean onBearerData(byte[] data, int offset, int length);
+
+    /*
+     * Bearer data subparameters (See 3GPP2 C.S0015-B, v2, 4.5)
+     */
+
+    boolean onMessageIdentifier(int messageType, int messageId, boolean hasUserDataHeader);
+
+    /**
+     * Still encoded user data, including any user data header.
+     *
+     * @param msgType the IS-91 or GSM DCS message type, 0 for other encodings
+     * @param bitOffset position of the first payload bit
+     * @param bitLength number of payload bits
+     */
+    boolean onUserData(int msgEncoding, int msgType, int numFields, byte[] data, int bitOffset,
+            int bitLength);
+
+    boolean onUserResponseCode(int userResponseCode);
+
+    /** 6 BCD bytes, see {@link SmsTimeStamp#decode(byte[], int)}. */
+    boolean onMsgCenterTimeStamp(byte[] data, int offset);
+
+    /** 6 BCD bytes, see {@link SmsTimeStamp#decode(byte[], int)}. */
+    boolean onValidityPeriodAbsolute(byte[] data, int offset);
+
+    boolean onValidityPeriodRelative(int validityPeriodRelative);
+
+    /** 6 BCD bytes, see {@link SmsTimeStamp#decode(byte[], int)}. */
+    boolean onDeferredDeliveryTimeAbsolute(byte[] data, int offset);
+
+    boolean onDeferredDeliveryTimeRelative(int deferredDeliveryTimeRelative);
+
+    boolean onPriority(int priority);
+
+    boolean onPrivacy(int privacy);
+
+    boolean onReplyOption(boolean userAckReq, boolean deliveryAckReq, boolean readAckReq,
+            boolean reportReq);
+
+    boolean onNumberOfMessages(int numberOfMessages);
+
+    boolean onAlert(int alert);
+
+    boolean onLanguage(int language);
+
+    /**
+     * @param digitsBitOffset position of the first digit, each digit being 4
+     *     bits for {@link CdmaSmsAddress#DIGIT_MODE_4BIT_DTMF} and 8 bits otherwise
+     */
+    boolean onCallbackNumber(int digitMode, int ton, int numberPlan, int numberOfDigits,
+            byte[] data, int digitsBitOffset);
+
+    boolean onDisplayMode(int displayMode);
+
+    boolean onDepositIndex(int depositIndex);
+
+    boolean onMessageStatus(int errorClass, int messageStatus);
+
+    /**
+     * Any other subparameter, such as service category program data and
+     * results, or a reserved one.
+     */
+    boolean onSubparameter(int subparamId, byte[] data, int offset, int length);
+
+    /**
+     * A visitor that ignores everything, to be extended by visitors
+     * interested in only a few fields.
+     */
+    public static class Simple implements SmsTlvVisitor {
+        @Override
+        public boolean onMessageType(int messageType) {
+            return true;
+        }
+
+        @Override
+        public boolean onTeleservice(int teleService) {
+            return true;
+        }
+
+        @Override
+        public boolean onServiceCategory(int serviceCategory) {
+            return true;
+        }
+
+        @Override
+        public boolean onAddress(boolean isDestination, int digitMode, int numberMode, int ton,
+                int numberPlan, int numberOfDigits, byte[] data, int digitsBitOffset) {
+            return true;
+        }
+
+        @Override
+        public boolean onSubaddress(boolean isDestination, int type, int odd,
+                int numberOfDigits, byte[] data, int digitsBitOffset) {
+            return true;
+        }
+
+        @Override
+        public boolean onBearerReply(int replySeqNo) {
+            return true;
+        }
+
+        @Override
+        public boolean onCauseCodes(int replySeqNo, int errorClass, int causeCode) {
+            return true;
+        }
+
+        @Override
+        public boolean onBearerData(byte[] data, int offset, int length) {
+            return true;
+        }
+
+        @Override
+        public boolean onMessageIdentifier(int messageType, int messageId,
+                boolean hasUserDataHeader) {
+            return true;
+        }
+
+        @Override
+        public boolean onUserData(int msgEncoding, int msgType, int numFields, byte[] data,
+                int bitOffset, int bitLength) {
+            return true;
+        }
+
+        @Override
+        public boolean onUserResponseCode(int userResponseCode) {
+            return true;
+        }
+
+        @Override
+        public boolean onMsgCenterTimeStamp(byte[] data, int offset) {
+            return true;
+        }
+
+        @Override
+        public boolean onValidityPeriodAbsolute(byte[] data, int offset) {
+            return true;
+        }
+
+        @Override
+        public boolean onValidityPeriodRelative(int validityPeriodRelative) {
+            return true;
+        }
+
+        @Override
+        public boolean onDeferredDeliveryTimeAbsolute(byte[] data, int offset) {
+            return true;
+        }
+
+        @Override
+        public boolean onDeferredDeliveryTimeRelative(int deferredDeliveryTimeRelative) {
+            return true;
+        }
+
+        @Override
+        public boolean onPriority(int priority) {
+            return true;
+        }
+
+        @Override
+        public boolean onPrivacy(int privacy) {
+            return true;
+        }
+
+        @Override
+        public boolean onReplyOption(boolean userAckReq, boolean deliveryAckReq,
+                boolean readAckReq, boolean reportReq) {
+            return true;
+        }
+
+        @Override
+        public boolean onNumberOfMessages(int numberOfMessages) {
+            return true;
+        }
+
+        @Override
+        public boolean onAlert(int alert) {
+            return true;
+        }
+
+        @Override
+        public boolean onLanguage(int language) {
+            return true;
+        }
+
+        @Override
+        public boolean onCallbackNumber(int digitMode, int ton, int numberPlan,
+                int numberOfDigits, byte[] data, int digitsBitOffset) {
+            return true;
+        }
+
+        @Override
+        public boolean onDisplayMode(int displayMode) {
+            return true;
+        }
+
+        @Override
+        public boolean onDepositIndex(int depositIndex) {
+            return true;
+        }
+
+        @Override
+        public boolean onMessageStatus(int errorClass, int messageStatus) {
+            return true;
+        }
+
+        @Override
+        public boolean onSubparameter(int subparamId, byte[] data, int offset, int length) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.quectel.jnitestexec.cdma2;
+
+/**
+ * Walks the TLV structure of a CDMA SMS transport layer message and of
+ * its bearer data, reporting each field to a {@link SmsTlvVisitor}.
+ *
+ * Unlike {@link SmsMessage#parsePduFromEfRecord(byte[])} and
+ * {@link BearerData#decode(byte[])}, nothing is allocated while walking,
+ * and the walk can be stopped early by the visitor.  Only the parameter
+ * lengths are validated; checks such as duplicate subparameters are left
+ * to the visitor.
+ *
+ * A walker is not thread-safe, but may be reused for any number of
+ * messages, and a visitor may walk the bearer data from within
+ * {@link SmsTlvVisitor#onBearerData} using the same walker.
+ */
+public class SmsTlvWalker {
+
+    private final BitwiseInputStream mStream = new BitwiseInputStream(new byte[0]);
+
+    /**
+     * Walk a transport layer message laid out as for
+     * {@link SmsMessage#parsePduFromEfRecord(byte[])}.
+     *
+     * @return true if the whole message was walked, false if the visitor
+     *     stopped the walk
+     * @throws RuntimeException if the message is malformed
+     */
+    public boolean walkEfRecord(byte[] pdu, int offset, int length, SmsTlvVisitor visitor) {
+        int end = offset + length;
+        if (length < 1) {
+            throw new RuntimeException("walkEfRecord: empty pdu");
+        }
+        if (!visitor.onMessageType(pdu[offset])) return false;
+        int pos = offset + 1;
+        try {
+            while (pos < end) {
+                if (pos + 2 > end) {
+                    throw new RuntimeException("walkEfRecord: truncated parameter header");
+                }
+                int parameterId = pdu[pos];
+                int parameterLen = pdu[pos + 1] & 0xFF;
+                int body = pos + 2;
+                pos = body + parameterLen;
+                if (pos > end) {
+                    throw new RuntimeException("walkEfRecord: parameter (" + parameterId
+                            + ") length " + parameterLen + " exceeds pdu len " + length);
+                }
+                BitwiseInputStream inStream = mStream;
+                inStream.reset(pdu, body, parameterLen);
+                boolean more;
+                switch (parameterId) {
+                    case SmsMessage.TELESERVICE_IDENTIFIER:
+                        more = visitor.onTeleservice((inStream.read(8) << 8) | inStream.read(8));
+                        break;
+                    case SmsMessage.SERVICE_CATEGORY:
+                        more = visitor.onServiceCategory(
+                                (inStream.read(8) << 8) | inStream.read(8));
+                        break;
+                    case SmsMessage.ORIGINATING_ADDRESS:
+                    case SmsMessage.DESTINATION_ADDRESS: {
+                        int digitMode = inStream.read(1);
+                        int numberMode = inStream.read(1);
+                        int ton = 0;
+                        int numberPlan = 0;
+                        int digitBits = 4;
+                        if (digitMode == CdmaSmsAddress.DIGIT_MODE_8BIT_CHAR) {
+                            ton = inStream.read(3);
+                            if (numberMode == CdmaSmsAddress.NUMBER_MODE_NOT_DATA_NETWORK) {
+                                numberPlan = inStream.read(4);
+                            }
+                            digitBits = 8;
+                        }
+                        int numberOfDigits = inStream.read(8);
+                        int digitsBitOffset = inStream.getPosition();
+                        inStream.skip(numberOfDigits * digitBits);
+                        more = visitor.onAddress(parameterId == SmsMessage.DESTINATION_ADDRESS,
+                                digitMode, numberMode, ton, numberPlan, numberOfDigits, pdu,
+                                digitsBitOffset);
+                        break;
+                    }
+                    case SmsMessage.ORIGINATING_SUB_ADDRESS:
+                    case SmsMessage.DESTINATION_SUB_ADDRESS: {
+                        int type = inStream.read(3);
+                        int odd = inStream.read(1);
+                        int numberOfDigits = inStream.read(8);
+                        int digitsBitOffset = inStream.getPosition();
+                        inStream.skip(numberOfDigits * 4);
+                        more = visitor.onSubaddress(
+                                parameterId == SmsMessage.DESTINATION_SUB_ADDRESS, type, odd,
+                                numberOfDigits, pdu, digitsBitOffset);
+                        break;
+                    }
+                    case SmsMessage.BEARER_REPLY_OPTION:
+                        more = visitor.onBearerReply(inStream.read(6));
+                        break;
+                    case SmsMessage.CAUSE_CODES: {
+                        int replySeqNo = inStream.read(6);
+                        int errorClass = inStream.read(2);
+                        int causeCode = errorClass != 0 ? inStream.read(8) : 0;
+                        more = visitor.onCauseCodes(replySeqNo, errorClass, causeCode);
+                        break;
+                    }
+                    case SmsMessage.BEARER_DATA:
+                        more = visitor.onBearerData(pdu, body, parameterLen);
+                        break;
+                    default:
+                        throw new RuntimeException("walkEfRecord: unsupported parameterId ("
+                                + parameterId + ")");
+                }
+                if (!more) return false;
+            }
+        } catch (BitwiseInputStream.AccessException ex) {
+            throw new RuntimeException("walkEfRecord: " + ex, ex);
+        }
+        return true;
+    }
+
+    /**
+     * Walk the subparameters of encoded bearer data.
+     * (See 3GPP2 C.R1001-F, v1.0, section 4.5 for layout details)
+     *
+     * Subparameters that are too short for their fixed size fields are
+     * skipped, the same way {@link BearerData#decode(byte[])} does.
+     *
+     * @return true if all subparameters were walked, false if the visitor
+     *     stopped the walk
+     * @throws RuntimeException if the bearer data is malformed
+     */
+    public boolean walkBearerData(byte[] data, int offset, int length, SmsTlvVisitor visitor) {
+        int end = offset + length;
+        int pos = offset;
+        try {
+            while (pos < end) {
+                if (pos + 2 > end) {
+                    throw new RuntimeException("walkBearerData: truncated subparameter header");
+                }
+                int subparamId = data[pos] & 0xFF;
+                int subparamLen = data[pos + 1] & 0xFF;
+                int body = pos + 2;
+                pos = body + subparamLen;
+                if (pos > end) {
+                    throw new RuntimeException("walkBearerData: subparameter (" + subparamId
+                            + ") length " + subparamLen + " exceeds data len " + length);
+                }
+                if (!visitSubparam(subparamId, data, body, subparamLen, visitor)) return false;
+            }
+        } catch (BitwiseInputStream.AccessException ex) {
+            throw new RuntimeException("walkBearerData: " + ex, ex);
+        }
+        return true;
+    }
+
+    private boolean visitSubparam(int subparamId, byte[] data, int body, int subparamLen,
+            SmsTlvVisitor visitor) throws BitwiseInputStream.AccessException {
+        BitwiseInputStream inStream = mStream;
+        inStream.reset(data, body, subparamLen);
+        switch (subparamId) {
+            case BearerData.SUBPARAM_MESSAGE_IDENTIFIER:
+                if (subparamLen < 3) return true;
+                int messageType = inStream.read(4);
+                int messageId = (inStream.read(8) << 8) | inStream.read(8);
+                return visitor.onMessageIdentifier(messageType, messageId, inStream.read(1) == 1);
+            case BearerData.SUBPARAM_USER_DATA: {
+                int paramBits = subparamLen * 8;
+                int msgEncoding = inStream.read(5);
+                int msgType = 0;
+                int consumedBits = 5;
+                if ((msgEncoding == UserData.ENCODING_IS91_EXTENDED_PROTOCOL) ||
+                        (msgEncoding == UserData.ENCODING_GSM_DCS)) {
+                    msgType = inStream.read(8);
+                    consumedBits += 8;
+                }
+                int numFields = inStream.read(8);
+                consumedBits += 8;
+                return visitor.onUserData(msgEncoding, msgType, numFields, data,
+                        inStream.getPosition(), paramBits - consumedBits);
+            }
+            case BearerData.SUBPARAM_USER_RESPONSE_CODE:
+                if (subparamLen < 1) return true;
+                return visitor.onUserResponseCode(inStream.read(8));
+            case BearerData.SUBPARAM_MESSAGE_CENTER_TIME_STAMP:
+                if (subparamLen < 6) return true;
+                return visitor.onMsgCenterTimeStamp(data, body);
+            case BearerData.SUBPARAM_VALIDITY_PERIOD_ABSOLUTE:
+                if (subparamLen < 6) return true;
+                return visitor.onValidityPeriodAbsolute(data, body);
+            case BearerData.SUBPARAM_VALIDITY_PERIOD_RELATIVE:
+                if (subparamLen < 1) return true;
+                return visitor.onValidityPeriodRelative(inStream.read(8));
+            case BearerData.SUBPARAM_DEFERRED_DELIVERY_TIME_ABSOLUTE:
+                if (subparamLen < 6) return true;
+                return visitor.onDeferredDeliveryTimeAbsolute(data, body);
+            case BearerData.SUBPARAM_DEFERRED_DELIVERY_TIME_RELATIVE:
+                if (subparamLen < 1) return true;
+                return visitor.onDeferredDeliveryTimeRelative(inStream.read(8));
+            case BearerData.SUBPARAM_PRIORITY_INDICATOR:
+                if (subparamLen < 1) return true;
+                return visitor.onPriority(inStream.read(2));
+            case BearerData.SUBPARAM_PRIVACY_INDICATOR:
+                if (subparamLen < 1) return true;
+                return visitor.onPrivacy(inStream.read(2));
+            case BearerData.SUBPARAM_REPLY_OPTION:
+                if (subparamLen < 1) return true;
+                return visitor.onReplyOption(inStream.read(1) == 1, inStream.read(1) == 1,
+                        inStream.read(1) == 1, inStream.read(1) == 1);
+            case BearerData.SUBPARAM_NUMBER_OF_MESSAGES:
+                if (subparamLen < 1) return true;
+                return visitor.onNumberOfMessages(
+                        IccUtils.cdmaBcdByteToInt((byte) inStream.read(8)));
+            case BearerData.SUBPARAM_ALERT_ON_MESSAGE_DELIVERY:
+                if (subparamLen < 1) return true;
+                return visitor.onAlert(inStream.read(2));
+            case BearerData.SUBPARAM_LANGUAGE_INDICATOR:
+                if (subparamLen < 1) return true;
+                return visitor.onLanguage(inStream.read(8));
+            case BearerData.SUBPARAM_CALLBACK_NUMBER: {
+                if (subparamLen < 1) return true;
+                int digitMode = inStream.read(1);
+                int ton = 0;
+                int numberPlan = 0;
+                int digitBits = 4;
+                if (digitMode == CdmaSmsAddress.DIGIT_MODE_8BIT_CHAR) {
+                    ton = inStream.read(3);
+                    numberPlan = inStream.read(4);
+                    digitBits = 8;
+                }
+                int numberOfDigits = inStream.read(8);
+                int digitsBitOffset = inStream.getPosition();
+                inStream.skip(numberOfDigits * digitBits);
+                return visitor.onCallbackNumber(digitMode, ton, numberPlan, numberOfDigits, data,
+                        digitsBitOffset);
+            }
+            case BearerData.SUBPARAM_MESSAGE_DISPLAY_MODE:
+                if (subparamLen < 1) return true;
+                return visitor.onDisplayMode(inStream.read(2));
+            case BearerData.SUBPARAM_MESSAGE_DEPOSIT_INDEX:
+                if (subparamLen < 2) return true;
+                return visitor.onDepositIndex((inStream.read(8) << 8) | inStream.read(8));
+            case BearerData.SUBPARAM_MESSAGE_STATUS:
+                if (subparamLen < 1) return true;
+                return visitor.onMessageStatus(inStream.read(2), inStream.read(6));
+            default:
+                return visitor.onSubparameter(subparamId, data, body, subparamLen);
+        }
+    }
+
+    /**
+     * Read a field of up to 8 bits, such as an address digit, from a
+     * position reported to a visitor.
+     *
+     * @param data the array passed to the visitor
+     * @param bitOffset position of the field, in bits from the msb in byte 0
+     * @param bits the size of the field (gt 0, lte 8)
+     */
+    public static int readBits(byte[] data, int bitOffset, int bits) {
+        if ((bits <= 0) || (bits > 8)) {
+            throw new IllegalArgumentException("illegal read (" + bits + " bits)");
+        }
+        int index = bitOffset >>> 3;
+        int offset = 16 - (bitOffset & 0x07) - bits;  // &7==%8
+        int word = (data[index] & 0xFF) << 8;
+        if (offset < 8) word |= data[index + 1] & 0xFF;
+        return (word >>> offset) & (-1 >>> (32 - bits));
+    }
+}
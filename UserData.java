@@ -96,7 +96,7 @@ public class UserData {
         int len = str.length();
         byte[] result = new byte[len];
         for (int i = 0; i < len; i++) {
-            int charCode = charToAscii.get(str.charAt(i), -1);
+            int charCode = AsciiCodec.toSeptet(str.charAt(i));
             if (charCode == -1) return null;
             result[i] = (byte)charCode;
         }
@@ -115,6 +115,13 @@ public class UserData {
      */
     public SmsHeader userDataHeader;
 
+    /**
+     * The user data header exactly as received, without its length byte,
+     * or null if the message was not decoded.  Set together with
+     * userDataHeader by the decoder.
+     */
+    public byte[] userDataHeaderBytes;
+
     /**
      * Contains the data encoding type for the SMS message
      */